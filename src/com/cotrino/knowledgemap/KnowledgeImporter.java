@@ -6,10 +6,17 @@
 package com.cotrino.knowledgemap;
 
 import java.io.File;
+import java.io.IOException;
 
 import org.apache.commons.io.FileUtils;
+import org.graphipedia.dataimport.Checkpoint;
 import org.graphipedia.dataimport.ExtractLinks;
+import org.graphipedia.dataimport.ImportMetrics;
+import org.graphipedia.dataimport.neo4j.ExportCsv;
 import org.graphipedia.dataimport.neo4j.ImportGraph;
+import org.graphipedia.dataimport.neo4j.UpdateGraph;
+
+import com.cotrino.knowledgemap.db.QuestionBankWriter;
 
 /**
  * Class to import Wikipedia content into a Neo4j graph database.
@@ -20,29 +27,84 @@ public class KnowledgeImporter {
 
 	private final static String SOURCE_WIKIPEDIA_XML = "./data/simplewiki-latest-pages-articles.xml";
 	private final static String EXTRACTED_WIKIPEDIA_XML = "./data/simplewiki-links.xml";
+	private final static String EXTRACTED_WIKIPEDIA_BIN = "./data/simplewiki-links.bin";
 	private final static String NEO4J_DATABASE = "./database/data/graphipedia.db";
 	
 	private final static boolean EXTRACT_LINKS = true;
 	private final static boolean IMPORT_GRAPH = true;
+	private final static boolean BINARY_LINKS = true;
+	private final static boolean SINGLE_PASS_IMPORT = true;
+	// skip redirect pages and link their target instead
+	private final static boolean RESOLVE_REDIRECTS = true;
+	// update an existing database in place, keeping users and what they know
+	private final static boolean INCREMENTAL_UPDATE = false;
+	// whether the dump only has added or changed pages, so that no page is removed
+	private final static boolean CHANGES_ONLY_DUMP = false;
+	// split page texts into questions once, instead of on every question asked
+	private final static boolean PREPARE_QUESTIONS = true;
+	// write CSV files for the offline neo4j-import tool instead of using the batch inserter
+	private final static boolean CSV_IMPORT = false;
+	private final static String CSV_DIRECTORY = "./data/csv";
+	private final static String NEO4J_IMPORT_TOOL = "./database/bin/neo4j-import";
+	private final static int EXTRACTION_THREADS = Runtime.getRuntime().availableProcessors();
+	private final static long CHECKPOINT_INTERVAL = 15 * 60 * 1000;
 	
 	public static void main(String[] args) throws Exception {
 
+		String extractedFile = BINARY_LINKS ? EXTRACTED_WIKIPEDIA_BIN : EXTRACTED_WIKIPEDIA_XML;
+
+		// an interrupted run resumes from the last checkpoint when launched again
+		Checkpoint extraction = new Checkpoint(new File(extractedFile + ".checkpoint"),
+				SOURCE_WIKIPEDIA_XML, CHECKPOINT_INTERVAL);
 		if( EXTRACT_LINKS ) {
-			File targetXml = new File(EXTRACTED_WIKIPEDIA_XML);
-			targetXml.delete();
+			if (!extraction.isResumed()) {
+				File targetFile = new File(extractedFile);
+				targetFile.delete();
+			}
 			ExtractLinks self = new ExtractLinks();
-	        self.extract(SOURCE_WIKIPEDIA_XML, EXTRACTED_WIKIPEDIA_XML);
+			self.setMetricsFile(new File(extractedFile + ".metrics.jsonl"));
+			self.setResolveRedirects(RESOLVE_REDIRECTS);
+	        self.extract(SOURCE_WIKIPEDIA_XML, extractedFile, EXTRACTION_THREADS, extraction);
 		}
         
-		if( IMPORT_GRAPH ) {
+		Checkpoint graph = new Checkpoint(new File(NEO4J_DATABASE + ".checkpoint"),
+				extractedFile, CHECKPOINT_INTERVAL);
+		if( IMPORT_GRAPH && INCREMENTAL_UPDATE && new File(NEO4J_DATABASE).isDirectory() ) {
+			UpdateGraph updater = new UpdateGraph(NEO4J_DATABASE);
+			updater.update(extractedFile, !CHANGES_ONLY_DUMP);
+			updater.finish();
+		} else if( IMPORT_GRAPH && CSV_IMPORT ) {
+			FileUtils.deleteDirectory(new File(NEO4J_DATABASE));
+			File csvDirectory = new File(CSV_DIRECTORY);
+			new ExportCsv(csvDirectory).export(extractedFile);
+			Process tool = new ProcessBuilder(ExportCsv.getImportCommand(NEO4J_IMPORT_TOOL, csvDirectory, NEO4J_DATABASE))
+					.inheritIO().start();
+			int exitCode = tool.waitFor();
+			if( exitCode != 0 ) {
+				throw new IOException("neo4j-import failed with exit code " + exitCode);
+			}
+			ExportCsv.finish(csvDirectory, NEO4J_DATABASE);
+			FileUtils.deleteDirectory(csvDirectory);
+		} else if( IMPORT_GRAPH ) {
 			File databaseDirectory = new File(NEO4J_DATABASE);
 			FileUtils.deleteDirectory(databaseDirectory);
-	        ImportGraph importer = new ImportGraph(NEO4J_DATABASE);
-	        importer.createNodes(EXTRACTED_WIKIPEDIA_XML);
-	        importer.createRelationships(EXTRACTED_WIKIPEDIA_XML);
+	        ImportGraph importer = new ImportGraph(NEO4J_DATABASE, graph);
+	        importer.getMetrics().report(new File(NEO4J_DATABASE + ".metrics.jsonl"),
+	        		ImportMetrics.DEFAULT_INTERVAL_MILLIS);
+	        if (SINGLE_PASS_IMPORT) {
+	        	importer.importSinglePass(extractedFile);
+	        } else {
+	        	importer.createNodes(extractedFile);
+	        	importer.createRelationships(extractedFile);
+	        }
 	        importer.finish();
 		}
+		if( IMPORT_GRAPH && PREPARE_QUESTIONS ) {
+			QuestionBankWriter.build(NEO4J_DATABASE, EXTRACTION_THREADS);
+		}
         
+		extraction.delete();
+		graph.delete();
 		System.out.println("Finished!");
 		
 	}
@@ -25,6 +25,7 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,6 +33,7 @@ import org.slf4j.LoggerFactory;
 import com.cotrino.knowledgemap.db.GraphDB;
 import com.cotrino.knowledgemap.db.Page;
 import com.cotrino.knowledgemap.db.Question;
+import com.cotrino.knowledgemap.db.User;
 import com.cotrino.knowledgemap.db.Users;
 
 /**
@@ -46,11 +48,13 @@ public class KnowledgeServlet extends HttpServlet {
 	private static final long serialVersionUID = 2513550631842146742L;
 
 	private static final int PAGE_SET_SIZE = 10;
+	// state of each browser, kept in its session since requests are served concurrently
+	private static final String USER_ID = "userId";
+	private static final String PAGES = "pages";
+	private static final String LAST_QUESTION = "lastQuestion";
 
 	private GraphDB db;
 	private Users users;
-	private List<Page> pages;
-	private Question lastQuestion;
 
 	/**
 	 * 1) Ask username. If new, create as node.
@@ -61,7 +65,6 @@ public class KnowledgeServlet extends HttpServlet {
 	 */
 	public KnowledgeServlet() {
 
-		this.pages = new LinkedList<Page>();
 		this.connect();
 		
 	}
@@ -77,6 +80,8 @@ public class KnowledgeServlet extends HttpServlet {
 		
 		response.setStatus(HttpServletResponse.SC_OK);
 		PrintWriter writer = response.getWriter();
+		HttpSession session = request.getSession();
+		Long currentUserId = (Long) session.getAttribute(USER_ID);
 		
 		String action = request.getParameter("action");
 		logger.debug("Action: "+action);
@@ -100,10 +105,13 @@ public class KnowledgeServlet extends HttpServlet {
 			
 			if( userId == 0 ) {
 			
-				writer.println( this.users.addUser(userName) );
+				User user = this.users.addUser(userName);
+				session.setAttribute(USER_ID, user.getId());
+				writer.println( user.getName() );
 				
 			} else {
 				
+				session.setAttribute(USER_ID, userId);
 				writer.println( this.users.getUser(userId) );
 				
 			}
@@ -111,7 +119,7 @@ public class KnowledgeServlet extends HttpServlet {
 		} else if( action.equals("ask") ) {
 
 			response.setContentType("text/html");
-			while (this.ask() != true);
+			Question lastQuestion = this.ask(session);
 			writer.println("<h2>Asking about '" + lastQuestion.page.getTitle() + "'</h2>");
 			writer.println("<p>Question: " + lastQuestion.question + "</p>");
 			writer.println("<p>Your answer?</p><input type='text' id='userAnswer' name='userAnswer'/>");
@@ -121,18 +129,23 @@ public class KnowledgeServlet extends HttpServlet {
 			
 			response.setContentType("text/html");
 			String answer = request.getParameter("answer");
-			writer.println("<p>"+this.answer(answer)+"</p>");
+			writer.println("<p>"+this.answer(session, currentUserId, answer)+"</p>");
 			writer.println("<p><button onclick='askQuestion();'>New question</button></p>"); 
 			
 		} else if( action.equals("pageGraph") ) {
 			
 			response.setContentType("application/json");
-			writer.println(this.pageKnowledge()); 
+			writer.println(this.pageKnowledge(currentUserId)); 
 			
 		} else if( action.equals("categoryGraph") ) {
 			
 			response.setContentType("application/json");
-			writer.println(this.categoryKnowledge()); 
+			writer.println(this.categoryKnowledge(currentUserId)); 
+			
+		} else if( action.equals("queryStats") ) {
+			
+			response.setContentType("text/plain");
+			writer.print(this.db.getQueries()); 
 			
 		} else {
 
@@ -156,62 +169,86 @@ public class KnowledgeServlet extends HttpServlet {
 		
 	}
 	
+	@Override
+	public void destroy() {
+		
+		if( this.isConnected() ) {
+			this.db.close();
+		}
+		
+	}
+	
 	private boolean isConnected() {
 		
 		return this.db != null;
 		
 	}
 	
-	private String pageKnowledge() {
+	private String pageKnowledge(Long userId) {
 		
 		// All knowledge relationships:
 		// MATCH ()-[r]->() WHERE type(r)="Knows" OR type(r)="Ignores" RETURN r LIMIT 25
-		return this.users.getKnowledgePages();
+		return this.users.getKnowledgePages(userId);
 
 	}
 	
-	private String categoryKnowledge() {
+	private String categoryKnowledge(Long userId) {
 		
-		return this.users.getKnowledgeCategories();
+		return this.users.getKnowledgeCategories(userId);
 
 	}
 
-	private boolean ask() {
+	private Question ask(HttpSession session) {
 		
-		while(this.pages.size() == 0) {
-			this.loadPages();
+		// prepared questions never fail, pages are only sampled without them
+		Question question = this.db.getQuestion();
+		while (question == null || question.question == null) {
+			question = this.generateQuestion(session);
 		}
-		Page page = this.pages.remove(0);
+		session.setAttribute(LAST_QUESTION, question);
+		return question;
 		
-		Question question = page.getQuestion();
-		if (question != null && question.question != null) {
-			this.lastQuestion = question;
-			return true;
-		} 
-		return false;
+	}
+	
+	private Question generateQuestion(HttpSession session) {
+		
+		@SuppressWarnings("unchecked")
+		List<Page> pages = (List<Page>) session.getAttribute(PAGES);
+		while(pages == null || pages.size() == 0) {
+			pages = this.loadPages();
+		}
+		Page page = pages.remove(0);
+		session.setAttribute(PAGES, pages);
+		return page.getQuestion();
 		
 	}
 	
-	private String answer(String userAnswer) {
+	private String answer(HttpSession session, Long userId, String userAnswer) {
 		
+		Question lastQuestion = (Question) session.getAttribute(LAST_QUESTION);
+		if( lastQuestion == null ) {
+			return "<p>No question was asked</p>";
+		}
+		boolean correct = lastQuestion.matches(userAnswer);
 		String response = "";
-		if (lastQuestion.matches(userAnswer)) {
-			users.addAnswer(lastQuestion.page,true);
+		if (correct) {
 			response = "<p class='correct'>CORRECT!</p>";
 		} else {
-			users.addAnswer(lastQuestion.page,false);
 			response = "<p class='wrong'>WRONG!</p>";
 		}
 		response += "<p>Expected answer: " + lastQuestion.getExpectedAnswer() + "</p>";
-		this.users.save();
+		if( userId != null ) {
+			this.users.addAnswer(userId, lastQuestion.page, correct);
+		}
 		return response;
 		
 	}
 
-	private void loadPages() {
+	private List<Page> loadPages() {
 		
-		this.pages = this.db.getPages(PAGE_SET_SIZE);
+		List<Page> pages = new LinkedList<Page>(this.db.getPages(PAGE_SET_SIZE));
 		logger.debug(pages.size() + " pages for questions found");
+		return pages;
 
 	}
 
@@ -220,8 +257,8 @@ public class KnowledgeServlet extends HttpServlet {
 		long userId = 193773;
 		KnowledgeServlet quiz = new KnowledgeServlet();
 		quiz.users.getUser(userId);
-		//logger.debug(quiz.pageKnowledge());
-		logger.debug(quiz.categoryKnowledge());
+		//logger.debug(quiz.pageKnowledge(userId));
+		logger.debug(quiz.categoryKnowledge(userId));
 		
 	}
 
@@ -21,6 +21,7 @@ import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.handler.DefaultHandler;
 import org.eclipse.jetty.server.handler.HandlerList;
 import org.eclipse.jetty.server.handler.ResourceHandler;
+import org.eclipse.jetty.server.session.SessionHandler;
 import org.eclipse.jetty.servlet.ServletHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,6 +46,9 @@ public class KnowledgeWeb {
 
 		ServletHandler serverHandler = new ServletHandler();
 		serverHandler.addServletWithMapping(KnowledgeServlet.class, "/*");
+		// the user and question of each browser are kept in its session
+		SessionHandler sessionHandler = new SessionHandler();
+		sessionHandler.setHandler(serverHandler);
 
 		ResourceHandler resourceHandler = new ResourceHandler();
 		resourceHandler.setDirectoriesListed(true);
@@ -52,7 +56,7 @@ public class KnowledgeWeb {
 		resourceHandler.setResourceBase("./client");
 
 		HandlerList handlers = new HandlerList();
-		handlers.setHandlers(new Handler[] { resourceHandler, serverHandler, new DefaultHandler() });
+		handlers.setHandlers(new Handler[] { resourceHandler, sessionHandler, new DefaultHandler() });
 
 		server.setHandler(handlers);
 
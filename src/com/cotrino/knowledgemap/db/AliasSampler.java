@@ -0,0 +1,97 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.cotrino.knowledgemap.db;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Draws indexes in proportion to their weights in constant time, whatever
+ * their amount, using Vose's alias method: every index gets a column holding
+ * its own probability and, for the rest, an alias to some heavier index.
+ *
+ * Immutable once built, so it may be shared by any amount of threads.
+ * @author cotrino
+ *
+ */
+public class AliasSampler {
+
+	private final double[] probability;
+	private final int[] alias;
+
+	/**
+	 * @param weights weight of every index, not negative and not all of them 0
+	 */
+	public AliasSampler(double[] weights) {
+		int size = weights.length;
+		this.probability = new double[size];
+		this.alias = new int[size];
+		double total = 0;
+		for (double weight : weights) {
+			total += weight;
+		}
+		if (!(total > 0)) {
+			throw new IllegalArgumentException("Weights must add up to more than 0");
+		}
+		// columns below and above the average, used as stacks
+		double[] scaled = new double[size];
+		int[] small = new int[size];
+		int[] large = new int[size];
+		int smallCount = 0;
+		int largeCount = 0;
+		for (int i = 0; i < size; i++) {
+			scaled[i] = weights[i] * size / total;
+			if (scaled[i] < 1) {
+				small[smallCount++] = i;
+			} else {
+				large[largeCount++] = i;
+			}
+		}
+		while (smallCount > 0 && largeCount > 0) {
+			int less = small[--smallCount];
+			int more = large[--largeCount];
+			probability[less] = scaled[less];
+			alias[less] = more;
+			scaled[more] = scaled[more] + scaled[less] - 1;
+			if (scaled[more] < 1) {
+				small[smallCount++] = more;
+			} else {
+				large[largeCount++] = more;
+			}
+		}
+		// left over because of rounding errors, their column is full
+		while (largeCount > 0) {
+			probability[large[--largeCount]] = 1;
+		}
+		while (smallCount > 0) {
+			probability[small[--smallCount]] = 1;
+		}
+	}
+
+	public int size() {
+		return probability.length;
+	}
+
+	/**
+	 * @return an index, drawn in proportion to its weight
+	 */
+	public int sample() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int column = random.nextInt(probability.length);
+		return random.nextDouble() < probability[column] ? column : alias[column];
+	}
+
+}
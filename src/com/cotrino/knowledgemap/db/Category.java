@@ -27,6 +27,8 @@ public class Category extends Entity {
 
 	private String title;
 	private Long nodeRank;
+	private Long categoryParent;
+	private Integer categoryDepth;
 	@Relationship(type = "Link", direction = Relationship.OUTGOING)
     private Set<Category> categories;
 	
@@ -49,6 +51,20 @@ public class Category extends Entity {
 		return this.nodeRank;
 	}
 	
+	/**
+	 * @return id of the category on the shortest path to the root category, null for the root
+	 */
+	public Long getCategoryParent() {
+		return this.categoryParent;
+	}
+	
+	/**
+	 * @return distance to the root category
+	 */
+	public Integer getCategoryDepth() {
+		return this.categoryDepth;
+	}
+	
 	@Override
 	public String toString() {
 		return this.title;
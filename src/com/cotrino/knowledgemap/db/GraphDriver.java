@@ -0,0 +1,120 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.cotrino.knowledgemap.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.ogm.config.DriverConfiguration;
+import org.neo4j.ogm.driver.Driver;
+import org.neo4j.ogm.drivers.embedded.driver.EmbeddedDriver;
+import org.neo4j.ogm.drivers.http.driver.HttpDriver;
+
+/**
+ * Creates the OGM driver {@link GraphDB} runs its queries through:
+ * <ul>
+ * <li>HTTP, to a running server, as JSON over its REST endpoint;</li>
+ * <li>embedded, opening the store written by the import in this process, so
+ *     that queries take no network hop at all. The server must be stopped.</li>
+ * </ul>
+ * The OGM drivers of this version take neither a pool size nor timeouts, so
+ * the HTTP driver gets its client replaced by a pooled one.
+ * Closing the driver closes its connections, or shuts the embedded database down.
+ * @author cotrino
+ *
+ */
+public class GraphDriver {
+
+	public enum Type { HTTP, EMBEDDED }
+
+	private GraphDriver() {
+	}
+
+	/**
+	 * @param type
+	 * @param uri URI of the server, or store directory for an embedded database
+	 * @param user
+	 * @param password
+	 * @param poolSize connections kept open to the server
+	 * @param connectTimeoutMillis to connect, or to wait for a connection of the pool
+	 * @param readTimeoutMillis to wait for an answer of the server
+	 * @return the driver
+	 * @throws IOException if the driver cannot be set up
+	 */
+	public static Driver create(Type type, String uri, String user, String password,
+			int poolSize, int connectTimeoutMillis, int readTimeoutMillis) throws IOException {
+		
+		if( type == Type.EMBEDDED ) {
+			GraphDatabaseService database = new GraphDatabaseFactory().newEmbeddedDatabase(new File(uri));
+			return new EmbeddedDriver(database);
+		}
+		DriverConfiguration configuration = new DriverConfiguration().setURI(uri);
+		if( user != null ) {
+			configuration.setCredentials(user, password);
+		}
+		HttpDriver driver = new HttpDriver(configuration);
+		PoolingHttpClientConnectionManager connections = new PoolingHttpClientConnectionManager();
+		connections.setMaxTotal(poolSize);
+		connections.setDefaultMaxPerRoute(poolSize);
+		RequestConfig timeouts = RequestConfig.custom()
+				.setConnectTimeout(connectTimeoutMillis)
+				.setConnectionRequestTimeout(connectTimeoutMillis)
+				.setSocketTimeout(readTimeoutMillis)
+				.build();
+		setHttpClient(driver, HttpClients.custom().setConnectionManager(connections)
+				.setDefaultRequestConfig(timeouts).build());
+		return driver;
+		
+	}
+
+	/**
+	 * Replace the client the HTTP driver creates for itself, which keeps two
+	 * connections to the server and waits for it forever.
+	 */
+	private static void setHttpClient(HttpDriver driver, CloseableHttpClient client) throws IOException {
+		
+		Field field;
+		try {
+			field = HttpDriver.class.getDeclaredField("httpClient");
+		} catch (NoSuchFieldException e) {
+			throw new IOException("The HTTP driver of this OGM version has no httpClient field to give a pool to", e);
+		}
+		if( field.getType() != CloseableHttpClient.class ) {
+			throw new IOException("The httpClient field of the HTTP driver of this OGM version is a "
+					+ field.getType().getName() + ", not a " + CloseableHttpClient.class.getName());
+		}
+		try {
+			field.setAccessible(true);
+			CloseableHttpClient previous = (CloseableHttpClient) field.get(driver);
+			field.set(driver, client);
+			if( previous != null ) {
+				previous.close();
+			}
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			throw new IOException("Cannot replace the httpClient field of the HTTP driver", e);
+		}
+		
+	}
+
+}
@@ -16,17 +16,25 @@
  */
 package com.cotrino.knowledgemap.db;
 
+import java.io.IOException;
 import java.util.HashSet;
 import java.util.Set;
 
+import org.graphipedia.dataimport.TextStoreReader;
 import org.neo4j.ogm.annotation.NodeEntity;
 import org.neo4j.ogm.annotation.Relationship;
 
 @NodeEntity
 public class Page extends Entity {
 
+	// shorter texts are not worth asking about
+	public static final int MIN_TEXT_LENGTH = 20;
+
+	private static TextStoreReader textStore;
+
 	private String title;
 	private String text;
+	private Integer textLength;
 	private Long nodeRank;
 	@Relationship(type = "Link", direction = Relationship.OUTGOING)
     private Set<Page> links;
@@ -49,11 +57,27 @@ public class Page extends Entity {
 		return this.title;
 	}
 	
+	/**
+	 * Texts are not loaded with the nodes, but read from the text store
+	 * of the database the first time they are needed.
+	 * @param textStore
+	 */
+	public static void setTextStore(TextStoreReader textStore) {
+		Page.textStore = textStore;
+	}
+	
 	public void setText(String text) {
 		this.text = text;
 	}
 	
 	public String getText() {
+		if( this.text == null && this.textLength != null && textStore != null ) {
+			try {
+				this.text = textStore.get(this.getId());
+			} catch (IOException e) {
+				throw new IllegalStateException("Cannot read the text of "+this.title, e);
+			}
+		}
 		return this.text;
 	}
 	
@@ -87,16 +111,28 @@ public class Page extends Entity {
 	
 	public boolean hasText() {
 		
-		return this.text.length() > 20;
+		if( this.textLength != null ) {
+			return this.textLength > MIN_TEXT_LENGTH;
+		}
+		return this.text != null && this.text.length() > MIN_TEXT_LENGTH;
 		
 	}
 	
 	public boolean isPageValidForQuestioning() {
 		
-		return this.hasText() 
-				&& !this.title.startsWith("List") 
-				&& !this.title.startsWith("Deaths")
-				&& !this.title.contains("(disambiguation)");
+		return this.hasText() && isValidForQuestioning(this.title);
+		
+	}
+	
+	/**
+	 * @param title
+	 * @return whether a page with text and such title may be asked about
+	 */
+	public static boolean isValidForQuestioning(String title) {
+		
+		return !title.startsWith("List") 
+				&& !title.startsWith("Deaths")
+				&& !title.contains("(disambiguation)");
 		
 	}
 	
@@ -0,0 +1,198 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.cotrino.knowledgemap.db;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Node ids of every page that may be asked about, listed by
+ * {@link QuestionBankWriter} and loaded at once into arrays, so that
+ * drawing a page takes neither a query nor a retry.
+ *
+ * <pre>
+ * questions.pages: long node id, long nodeRank, long top-level category, per page
+ * </pre>
+ *
+ * Pages may be drawn uniformly, or in proportion to a power of their rank
+ * through an {@link AliasSampler}. Stratified by category, a top-level
+ * category is drawn uniformly first, then one of its pages.
+ *
+ * Immutable once built, so it may be shared by any amount of threads and
+ * replaced by a new one as a whole.
+ * @author cotrino
+ *
+ */
+public class PageSampler {
+
+	public static final String FILE = "questions.pages";
+	public static final int ENTRY_SIZE = 24;
+	// top-level category of pages outside of any
+	public static final long NO_CATEGORY = -1;
+
+	private final long[] ids;
+	private final AliasSampler weighted;
+	// pages grouped by category, along with where each group starts
+	private final AliasSampler[] strata;
+	private final int[] members;
+	private final int[] offsets;
+
+	public PageSampler(long[] ids) {
+		this(ids, null, null, 0);
+	}
+
+	/**
+	 * @param ids node id of every page
+	 * @param ranks nodeRank of every page
+	 * @param categories top-level category of every page, null not to stratify by category
+	 * @param rankExponent pages are drawn in proportion to their rank to this power,
+	 *        0 to draw them uniformly
+	 */
+	public PageSampler(long[] ids, long[] ranks, long[] categories, double rankExponent) {
+		this.ids = ids;
+		double[] weights = new double[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			// pages created by an update have no rank yet
+			weights[i] = rankExponent == 0 ? 1 : Math.pow(Math.max(ranks[i], 1), rankExponent);
+		}
+		if (categories == null || ids.length == 0) {
+			this.weighted = rankExponent == 0 || ids.length == 0 ? null : new AliasSampler(weights);
+			this.strata = null;
+			this.members = null;
+			this.offsets = null;
+			return;
+		}
+		this.weighted = null;
+		Map<Long, Integer> strataIds = new HashMap<Long, Integer>();
+		int[] stratum = new int[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			Integer id = strataIds.get(categories[i]);
+			if (id == null) {
+				id = strataIds.size();
+				strataIds.put(categories[i], id);
+			}
+			stratum[i] = id;
+		}
+		this.offsets = new int[strataIds.size() + 1];
+		for (int i = 0; i < ids.length; i++) {
+			offsets[stratum[i] + 1]++;
+		}
+		for (int s = 0; s < strataIds.size(); s++) {
+			offsets[s + 1] += offsets[s];
+		}
+		this.members = new int[ids.length];
+		int[] next = offsets.clone();
+		for (int i = 0; i < ids.length; i++) {
+			members[next[stratum[i]]++] = i;
+		}
+		this.strata = new AliasSampler[strataIds.size()];
+		for (int s = 0; s < strata.length; s++) {
+			double[] stratumWeights = new double[offsets[s + 1] - offsets[s]];
+			for (int i = 0; i < stratumWeights.length; i++) {
+				stratumWeights[i] = weights[members[offsets[s] + i]];
+			}
+			strata[s] = new AliasSampler(stratumWeights);
+		}
+	}
+
+	/**
+	 * @param directory
+	 * @return whether the directory has the list of pages
+	 */
+	public static boolean exists(File directory) {
+		return new File(directory, FILE).isFile();
+	}
+
+	/**
+	 * @param directory
+	 * @return sampler drawing the pages listed in the directory uniformly
+	 * @throws IOException
+	 */
+	public static PageSampler load(File directory) throws IOException {
+		return load(directory, 0, false);
+	}
+
+	/**
+	 * Load the pages listed in the directory and build the tables to draw them,
+	 * which takes a while with millions of pages.
+	 * @param directory
+	 * @param rankExponent pages are drawn in proportion to their rank to this power,
+	 *        0 to draw them uniformly
+	 * @param stratified whether to draw a top-level category first
+	 * @return
+	 * @throws IOException
+	 */
+	public static PageSampler load(File directory, double rankExponent, boolean stratified) throws IOException {
+		File file = new File(directory, FILE);
+		int count = (int) (file.length() / ENTRY_SIZE);
+		long[] ids = new long[count];
+		long[] ranks = new long[count];
+		long[] categories = new long[count];
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file), 1024 * 1024))) {
+			for (int i = 0; i < count; i++) {
+				ids[i] = input.readLong();
+				ranks[i] = input.readLong();
+				categories[i] = input.readLong();
+			}
+		}
+		return new PageSampler(ids, ranks, stratified ? categories : null, rankExponent);
+	}
+
+	public int size() {
+		return ids.length;
+	}
+
+	/**
+	 * @return amount of top-level categories, 0 if pages are not drawn by category
+	 */
+	public int getCategoryCount() {
+		return strata == null ? 0 : strata.length;
+	}
+
+	/**
+	 * @return node id of a page
+	 */
+	public long sample() {
+		if (strata != null) {
+			int s = ThreadLocalRandom.current().nextInt(strata.length);
+			return ids[members[offsets[s] + strata[s].sample()]];
+		} else if (weighted != null) {
+			return ids[weighted.sample()];
+		}
+		return ids[ThreadLocalRandom.current().nextInt(ids.length)];
+	}
+
+	/**
+	 * @param count
+	 * @return node ids of as many pages, drawn independently
+	 */
+	public long[] sample(int count) {
+		long[] sample = new long[count];
+		for (int i = 0; i < count; i++) {
+			sample[i] = sample();
+		}
+		return sample;
+	}
+
+}
@@ -0,0 +1,167 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.cotrino.knowledgemap.db;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Every Cypher statement run by {@link GraphDB}, registered once under a name.
+ * Values are always passed as parameters ({@code {name}} in Neo4j 2.3), so the
+ * text of a statement never changes from one call to the next and Neo4j plans
+ * it once, then takes the plan from its cache.
+ *
+ * Each statement counts its executions and the time spent running them. The
+ * first time a statement is run, it is planned alone with EXPLAIN, which is
+ * counted as its planning time.
+ * @author cotrino
+ *
+ */
+public class QueryRegistry {
+
+	private static final String EXPLAIN = "EXPLAIN ";
+
+	/**
+	 * Runs a statement through a session or a driver.
+	 */
+	public interface Runner<T> {
+		T run(String statement, Map<String, ?> parameters);
+	}
+
+	public static class Query {
+
+		private final String name;
+		private final String statement;
+		private final AtomicBoolean planned = new AtomicBoolean();
+		private final AtomicLong executions = new AtomicLong();
+		private final AtomicLong planningNanos = new AtomicLong();
+		private final AtomicLong executionNanos = new AtomicLong();
+
+		private Query(String name, String statement) {
+			this.name = name;
+			this.statement = statement;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getStatement() {
+			return statement;
+		}
+
+		public long getExecutions() {
+			return executions.get();
+		}
+
+		public long getPlanningNanos() {
+			return planningNanos.get();
+		}
+
+		public long getExecutionNanos() {
+			return executionNanos.get();
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s: %d executions, %d ms planning, %d ms executing", name, getExecutions(),
+					TimeUnit.NANOSECONDS.toMillis(getPlanningNanos()), TimeUnit.NANOSECONDS.toMillis(getExecutionNanos()));
+		}
+
+	}
+
+	private final Map<String, Query> queries = new LinkedHashMap<String, Query>();
+
+	/**
+	 * @param name
+	 * @param statement Cypher statement, whose values must all be parameters
+	 * @return the query, the same one if it was already registered
+	 * @throws IllegalArgumentException if another statement has the name
+	 */
+	public synchronized Query register(String name, String statement) {
+		
+		Query query = queries.get(name);
+		if( query == null ) {
+			query = new Query(name, statement);
+			queries.put(name, query);
+		} else if( !query.statement.equals(statement) ) {
+			throw new IllegalArgumentException("Query " + name + " is already registered with another statement");
+		}
+		return query;
+		
+	}
+
+	/**
+	 * @param name
+	 * @return the query registered under the name, null if there is none
+	 */
+	public synchronized Query get(String name) {
+		
+		return queries.get(name);
+		
+	}
+
+	/**
+	 * @return every query, in the order they were registered
+	 */
+	public synchronized List<Query> getQueries() {
+		
+		return new ArrayList<Query>(queries.values());
+		
+	}
+
+	/**
+	 * Run a query, planning it first if it was never run.
+	 * @param query
+	 * @param parameters values of the parameters of its statement
+	 * @param runner
+	 * @return what the runner returned
+	 */
+	public <T> T execute(Query query, Map<String, ?> parameters, Runner<T> runner) {
+		
+		if( query.planned.compareAndSet(false, true) ) {
+			long startTime = System.nanoTime();
+			runner.run(EXPLAIN + query.statement, parameters);
+			query.planningNanos.addAndGet(System.nanoTime() - startTime);
+		}
+		long startTime = System.nanoTime();
+		try {
+			return runner.run(query.statement, parameters);
+		} finally {
+			query.executionNanos.addAndGet(System.nanoTime() - startTime);
+			query.executions.incrementAndGet();
+		}
+		
+	}
+
+	@Override
+	public String toString() {
+		
+		StringBuilder report = new StringBuilder();
+		for (Query query : this.getQueries()) {
+			report.append(query).append('\n');
+		}
+		return report.toString();
+		
+	}
+
+}
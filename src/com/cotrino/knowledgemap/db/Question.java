@@ -22,15 +22,13 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.StringJoiner;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.apache.commons.lang3.StringEscapeUtils;
+import org.graphipedia.dataimport.WikitextScanner;
 
 public class Question {
 
-	private static final Pattern LINK_PATTERN = Pattern.compile("\\[\\[(.+?)\\]\\]");
-	private static final int QUESTION_SENTENCES = 3;
+	static final int QUESTION_SENTENCES = 3;
 
 	public Page page;
 	public String question;
@@ -45,6 +43,21 @@ public class Question {
 		}
 	}
 	
+	/**
+	 * Question prepared by {@link QuestionBank}, whose sentences and links
+	 * have already been found.
+	 * @param page
+	 * @param question sentences to ask about
+	 * @param matchStart start of every link in the sentences
+	 * @param matchEnd end of every link
+	 * @param matchTargetEnd end of the target of every link
+	 * @param linkToBeReplaced link to hide
+	 */
+	Question(Page page, String question, List<Integer> matchStart, List<Integer> matchEnd,
+			List<Integer> matchTargetEnd, int linkToBeReplaced) {
+		generateQuestion(page, question, matchStart, matchEnd, matchTargetEnd, linkToBeReplaced);
+	}
+	
 	public boolean matches(String userAnswer) {
 		
 		for(String answer : answers) {
@@ -73,41 +86,58 @@ public class Question {
 		for (int i = firstSentence; i < firstSentence + QUESTION_SENTENCES; i++) {
 			question += sentences.get(i);
 		}
-		Matcher matcher = LINK_PATTERN.matcher(question);
-		List<Integer> matchStart = new LinkedList<Integer>();
-		List<Integer> matchEnd = new LinkedList<Integer>();
-		List<String> matchLink = new LinkedList<String>();
-		while (matcher.find()) {
-			String link = matcher.group(1);
-			if (!link.contains(":")) {
-				matchStart.add(matcher.start());
-				matchEnd.add(matcher.end());
-				matchLink.add(link);
+		List<Integer> matchStart = new ArrayList<Integer>();
+		List<Integer> matchEnd = new ArrayList<Integer>();
+		List<Integer> matchTargetEnd = new ArrayList<Integer>();
+		WikitextScanner.scan(question, new WikitextScanner.Handler() {
+			@Override
+			public void link(CharSequence text, int start, int end, int targetEnd) {
+				matchStart.add(start);
+				matchEnd.add(end);
+				matchTargetEnd.add(targetEnd);
 			}
+		});
+		if (matchStart.size() > 0) {
+			int linkToBeReplaced = (int) Math.round(Math.random() * (matchStart.size() - 1));
+			generateQuestion(page, question, matchStart, matchEnd, matchTargetEnd, linkToBeReplaced);
 		}
-		if (matchLink.size() > 0) {
-			int linkToBeReplaced = (int) Math.round(Math.random() * (matchLink.size() - 1));
-			int start = matchStart.get(linkToBeReplaced);
-			int end = matchEnd.get(linkToBeReplaced);
-			String link = matchLink.get(linkToBeReplaced);
-			String[] answers = link.split("\\|");
-			for(String answer : answers) {
-				this.answers.add(answer);
-			}
-			String placeholder = link.replaceAll("[^ \\|]", ".");
-			if( placeholder.contains("|") ) {	
-				placeholder = placeholder.split("\\|")[1];
+
+	}
+	
+	private void generateQuestion(Page page, String question, List<Integer> matchStart, List<Integer> matchEnd,
+			List<Integer> matchTargetEnd, int linkToBeReplaced) {
+
+		String link = question.substring(matchStart.get(linkToBeReplaced) + 2, matchEnd.get(linkToBeReplaced) - 2);
+		String[] answers = link.split("\\|");
+		for(String answer : answers) {
+			this.answers.add(answer);
+		}
+		String placeholder = link.replaceAll("[^ \\|]", ".");
+		if( placeholder.contains("|") ) {	
+			placeholder = placeholder.split("\\|")[1];
+		}
+		// replace other links of the kind [[A|B]] with B and [[A]] with A
+		StringBuilder text = new StringBuilder(question.length());
+		int last = 0;
+		for (int i = 0; i < matchStart.size(); i++) {
+			int start = matchStart.get(i);
+			int end = matchEnd.get(i);
+			int targetEnd = matchTargetEnd.get(i);
+			text.append(question, last, start);
+			if (i == linkToBeReplaced) {
+				text.append("<span class='placeholder'>").append(placeholder).append("</span>");
+			} else if (targetEnd < end - 2) {
+				text.append(question, targetEnd + 1, end - 2);
+			} else {
+				text.append(question, start + 2, end - 2);
 			}
-			String text = question.substring(0, start) + "<span class='placeholder'>"+placeholder+"</span>"
-					+ question.substring(end);
-			// replace other links of the kind [[A|B]] with A 
-			text = text.replaceAll("\\[\\[[^\\]\\|]+\\|", "");
-			// replace other links of the kind [[A]] with A
-			text = text.replaceAll("\\[\\[", "").replaceAll("\\]\\]", "");
-			//System.out.println("Question: "+text);
-			this.question = text;
-			this.page = page;
+			last = end;
 		}
+		text.append(question, last, question.length());
+		// remove the brackets of any other kind of link
+		this.question = text.toString().replace("[[", "").replace("]]", "");
+		//System.out.println("Question: "+this.question);
+		this.page = page;
 
 	}
 	
@@ -0,0 +1,281 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.cotrino.knowledgemap.db;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.lang3.StringEscapeUtils;
+import org.graphipedia.dataimport.MappedFile;
+import org.graphipedia.dataimport.WikitextScanner;
+
+/**
+ * Questions prepared once after the import by {@link QuestionBankWriter}, so
+ * that asking one does not have to split the whole text into sentences, and
+ * never ends up without a question.
+ *
+ * <pre>
+ * questions.index: long node id, long offset in questions.data, per page,
+ *                  in the order of their node ids
+ * questions.data:  int sentence count, int end of every sentence,
+ *                  int link count, int start, end and target end of every link,
+ *                  int window count, int first sentence of every window
+ * </pre>
+ *
+ * Offsets refer to the unescaped text of the page. A window is a run of
+ * {@link Question#QUESTION_SENTENCES} sentences with at least one link, any
+ * of which may be hidden. Only pages with at least one window are kept.
+ *
+ * Thread-safe, questions are read one at a time.
+ * @author cotrino
+ *
+ */
+public class QuestionBank implements Closeable {
+
+	public static final String INDEX = "questions.index";
+	public static final String DATA = "questions.data";
+	public static final int ENTRY_SIZE = 16;
+
+	private final MappedFile index;
+	private final MappedFile data;
+
+	public QuestionBank(File directory) throws IOException {
+		this.index = new MappedFile(new File(directory, INDEX));
+		this.data = new MappedFile(new File(directory, DATA));
+	}
+
+	/**
+	 * @param directory
+	 * @return whether the directory has a question bank
+	 */
+	public static boolean exists(File directory) {
+		return new File(directory, INDEX).isFile();
+	}
+
+	/**
+	 * @return pages with questions
+	 */
+	public long size() {
+		return index.size() / ENTRY_SIZE;
+	}
+
+	/**
+	 * @param i from 0 to {@link #size()}
+	 * @return node id of a page with questions
+	 */
+	public synchronized long getNodeId(long i) throws IOException {
+		return index.map(i * ENTRY_SIZE, 8).getLong();
+	}
+
+	/**
+	 * @param nodeId
+	 * @return whether there are questions about the page
+	 * @throws IOException
+	 */
+	public synchronized boolean contains(long nodeId) throws IOException {
+		return indexOf(nodeId) >= 0;
+	}
+
+	/**
+	 * @return node id of a page with questions, all of them equally likely
+	 */
+	public long getRandomNodeId() throws IOException {
+		return getNodeId((long) (Math.random() * size()));
+	}
+
+	/**
+	 * Ask about a random window of the page, hiding a random link of it.
+	 * @param page
+	 * @return question, null if the page has none
+	 * @throws IOException
+	 */
+	public Question getQuestion(Page page) throws IOException {
+		Candidates candidates = read(page.getId());
+		if (candidates == null) {
+			return null;
+		}
+		int window = candidates.windows[(int) (Math.random() * candidates.windows.length)];
+		int start = window == 0 ? 0 : candidates.sentenceEnds[window - 1];
+		int end = candidates.sentenceEnds[window + Question.QUESTION_SENTENCES - 1];
+		String realText = StringEscapeUtils.unescapeHtml3(page.getText());
+		List<Integer> matchStart = new ArrayList<Integer>();
+		List<Integer> matchEnd = new ArrayList<Integer>();
+		List<Integer> matchTargetEnd = new ArrayList<Integer>();
+		int[] links = candidates.links;
+		for (int i = candidates.firstLink(start); i < links.length && links[i + 1] <= end; i += 3) {
+			matchStart.add(links[i] - start);
+			matchEnd.add(links[i + 1] - start);
+			matchTargetEnd.add(links[i + 2] - start);
+		}
+		int linkToBeReplaced = (int) (Math.random() * matchStart.size());
+		return new Question(page, realText.substring(start, end), matchStart, matchEnd, matchTargetEnd, linkToBeReplaced);
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		index.close();
+		data.close();
+	}
+
+	/**
+	 * Find where questions may be asked in the text of a page.
+	 * @param nodeId
+	 * @param text text of the page, as stored
+	 * @return null if no question may be asked
+	 */
+	static Candidates find(long nodeId, String text) {
+		String realText = StringEscapeUtils.unescapeHtml3(text);
+		List<String> sentences = Question.tokenize(realText, "en", "US");
+		if (sentences.size() < Question.QUESTION_SENTENCES) {
+			return null;
+		}
+		int[] sentenceEnds = new int[sentences.size()];
+		int position = 0;
+		for (int i = 0; i < sentenceEnds.length; i++) {
+			position += sentences.get(i).length();
+			sentenceEnds[i] = position;
+		}
+		Links links = new Links();
+		WikitextScanner.scan(realText, links);
+		Candidates candidates = new Candidates(nodeId, sentenceEnds, links.toArray(), null);
+		int[] windows = new int[sentenceEnds.length - Question.QUESTION_SENTENCES + 1];
+		int windowCount = 0;
+		for (int window = 0; window < windows.length; window++) {
+			int start = window == 0 ? 0 : sentenceEnds[window - 1];
+			int end = sentenceEnds[window + Question.QUESTION_SENTENCES - 1];
+			int link = candidates.firstLink(start);
+			if (link < candidates.links.length && candidates.links[link + 1] <= end) {
+				windows[windowCount++] = window;
+			}
+		}
+		if (windowCount == 0) {
+			return null;
+		}
+		return new Candidates(nodeId, sentenceEnds, candidates.links, Arrays.copyOf(windows, windowCount));
+	}
+
+	private synchronized Candidates read(long nodeId) throws IOException {
+		long i = indexOf(nodeId);
+		if (i < 0) {
+			return null;
+		}
+		long offset = index.map(i * ENTRY_SIZE + 8, 8).getLong();
+		long next = i + 1 < size() ? index.map((i + 1) * ENTRY_SIZE + 8, 8).getLong() : data.size();
+		ByteBuffer record = data.map(offset, (int) (next - offset));
+		int[] sentenceEnds = readInts(record, record.getInt());
+		int[] links = readInts(record, 3 * record.getInt());
+		int[] windows = readInts(record, record.getInt());
+		return new Candidates(nodeId, sentenceEnds, links, windows);
+	}
+
+	/**
+	 * @return position of the page in the index, -1 if it has no questions
+	 */
+	private long indexOf(long nodeId) throws IOException {
+		long low = 0;
+		long high = size() - 1;
+		while (low <= high) {
+			long middle = (low + high) >>> 1;
+			long middleId = index.map(middle * ENTRY_SIZE, 8).getLong();
+			if (middleId < nodeId) {
+				low = middle + 1;
+			} else if (middleId > nodeId) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+
+	private static int[] readInts(ByteBuffer buffer, int count) {
+		int[] values = new int[count];
+		for (int i = 0; i < count; i++) {
+			values[i] = buffer.getInt();
+		}
+		return values;
+	}
+
+	/**
+	 * Collects the start, end and target end of every link.
+	 */
+	private static class Links implements WikitextScanner.Handler {
+
+		private int[] links = new int[3 * 16];
+		private int length;
+
+		@Override
+		public void link(CharSequence text, int start, int end, int targetEnd) {
+			if (length == links.length) {
+				links = Arrays.copyOf(links, length * 2);
+			}
+			links[length++] = start;
+			links[length++] = end;
+			links[length++] = targetEnd;
+		}
+
+		int[] toArray() {
+			return Arrays.copyOf(links, length);
+		}
+
+	}
+
+	/**
+	 * Sentences, links and windows of a page.
+	 */
+	static class Candidates {
+
+		final long nodeId;
+		final int[] sentenceEnds;
+		// start, end and target end of every link, in the order of the text
+		final int[] links;
+		final int[] windows;
+
+		Candidates(long nodeId, int[] sentenceEnds, int[] links, int[] windows) {
+			this.nodeId = nodeId;
+			this.sentenceEnds = sentenceEnds;
+			this.links = links;
+			this.windows = windows;
+		}
+
+		/**
+		 * @param position
+		 * @return index in {@link #links} of the first link starting at the
+		 *         position or after it, the length of the array if there is none
+		 */
+		int firstLink(int position) {
+			int low = 0;
+			int high = links.length / 3;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (links[3 * middle] < position) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			return 3 * low;
+		}
+
+	}
+
+}
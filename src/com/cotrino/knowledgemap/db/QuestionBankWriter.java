@@ -0,0 +1,219 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.cotrino.knowledgemap.db;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.graphipedia.dataimport.OrderedPipeline;
+import org.graphipedia.dataimport.TextStoreReader;
+import org.graphipedia.dataimport.neo4j.CategoryTree;
+import org.graphipedia.dataimport.neo4j.ImportGraph;
+import org.graphipedia.dataimport.neo4j.NodeRank;
+import org.graphipedia.dataimport.neo4j.WikiLabel;
+import org.neo4j.graphdb.Label;
+import org.neo4j.unsafe.batchinsert.BatchInserter;
+import org.neo4j.unsafe.batchinsert.BatchInserters;
+
+/**
+ * Prepares the {@link QuestionBank} of a database once it has been imported,
+ * along with the list of pages that may be asked about for {@link PageSampler}.
+ * Texts are read one after the other from the text store, and split into
+ * sentences and links by a pool of worker threads. Neo4j must not be running.
+ * @author cotrino
+ *
+ */
+public class QuestionBankWriter implements Closeable {
+
+	private static final int BUFFER_SIZE = 1024 * 1024;
+
+	private final DataOutputStream index;
+	private final DataOutputStream data;
+	private final DataOutputStream pages;
+	private long position = 0;
+	private int pageCount = 0;
+	private long windowCount = 0;
+	// top-level category below every category found so far
+	private final Map<Long, Long> topCategories = new HashMap<Long, Long>();
+
+	public QuestionBankWriter(File directory) throws IOException {
+		this.index = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(new File(directory, QuestionBank.INDEX)), BUFFER_SIZE));
+		this.data = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(new File(directory, QuestionBank.DATA)), BUFFER_SIZE));
+		this.pages = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(new File(directory, PageSampler.FILE)), BUFFER_SIZE));
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.out.println("USAGE: QuestionBankWriter <data-dir> [threads]");
+			System.exit(255);
+		}
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		build(args[0], threads);
+	}
+
+	/**
+	 * Write the question bank of every page that may be asked about.
+	 * @param dataDir Neo4j store directory, with its text store
+	 * @param threads
+	 * @throws Exception
+	 */
+	public static void build(String dataDir, int threads) throws Exception {
+		File directory = new File(dataDir);
+		if (!TextStoreReader.exists(directory)) {
+			System.out.println("No text store in " + dataDir + ", no questions prepared.");
+			return;
+		}
+		System.out.println("Preparing questions...");
+		long startTime = System.currentTimeMillis();
+		BatchInserter inserter = BatchInserters.inserter(dataDir);
+		try (TextStoreReader texts = new TextStoreReader(directory);
+				QuestionBankWriter writer = new QuestionBankWriter(directory)) {
+			OrderedPipeline<QuestionBank.Candidates> pipeline = new OrderedPipeline<QuestionBank.Candidates>(
+					"questions", threads, threads * 64, candidates -> {
+						if (candidates != null) {
+							writer.write(candidates);
+						}
+					});
+			for (long nodeId = 0; nodeId < texts.size(); nodeId++) {
+				Map<String, Object> properties = getPageProperties(inserter, nodeId);
+				if (properties != null && isValidForQuestioning(properties)) {
+					writer.writePage(inserter, nodeId, properties);
+					final long id = nodeId;
+					final String text = texts.get(nodeId);
+					pipeline.submit(() -> QuestionBank.find(id, text));
+				}
+			}
+			pipeline.finish();
+			long elapsedSeconds = (System.currentTimeMillis() - startTime) / 1000;
+			System.out.printf("%d questions prepared for %d pages in %d seconds.\n",
+					writer.windowCount, writer.pageCount, elapsedSeconds);
+		} finally {
+			inserter.shutdown();
+		}
+	}
+
+	/**
+	 * @return properties of the node, null if it is not a page
+	 */
+	private static Map<String, Object> getPageProperties(BatchInserter inserter, long nodeId) {
+		if (!inserter.nodeExists(nodeId)) {
+			return null;
+		}
+		for (Label label : inserter.getNodeLabels(nodeId)) {
+			if (label.name().equals(WikiLabel.Page.name())) {
+				return inserter.getNodeProperties(nodeId);
+			}
+		}
+		return null;
+	}
+
+	private static boolean isValidForQuestioning(Map<String, Object> properties) {
+		Object textLength = properties.get(ImportGraph.TEXT_LENGTH);
+		return textLength != null && (Integer) textLength > Page.MIN_TEXT_LENGTH
+				&& Page.isValidForQuestioning((String) properties.get("title"));
+	}
+
+	/**
+	 * List a page that may be asked about, with its rank and the category below
+	 * the root category on its way to it.
+	 */
+	private void writePage(BatchInserter inserter, long nodeId, Map<String, Object> properties) throws IOException {
+		Object rank = properties.get(NodeRank.PROPERTY);
+		pages.writeLong(nodeId);
+		pages.writeLong(rank == null ? 0 : (Long) rank);
+		pages.writeLong(getTopCategory(inserter, properties));
+	}
+
+	private long getTopCategory(BatchInserter inserter, Map<String, Object> properties) {
+		Object depth = properties.get(CategoryTree.DEPTH);
+		Object parent = properties.get(CategoryTree.PARENT);
+		if (!(depth instanceof Integer) || !(parent instanceof Long) || (Integer) depth <= 1) {
+			return PageSampler.NO_CATEGORY;
+		}
+		Long top = topCategories.get(parent);
+		if (top == null) {
+			top = findTopCategory(inserter, (Long) parent, (Integer) depth);
+			topCategories.put((Long) parent, top);
+		}
+		return top;
+	}
+
+	/**
+	 * Follow the parents up to the category right below the root. A path left
+	 * broken by an update, with a missing node, parent or depth, or with depths
+	 * that do not go down, gives no category.
+	 */
+	private static long findTopCategory(BatchInserter inserter, long category, int childDepth) {
+		while (inserter.nodeExists(category)) {
+			Map<String, Object> properties = inserter.getNodeProperties(category);
+			Object depth = properties.get(CategoryTree.DEPTH);
+			if (!(depth instanceof Integer) || (Integer) depth >= childDepth || (Integer) depth < 1) {
+				break;
+			}
+			if ((Integer) depth == 1) {
+				return category;
+			}
+			Object parent = properties.get(CategoryTree.PARENT);
+			if (!(parent instanceof Long)) {
+				break;
+			}
+			category = (Long) parent;
+			childDepth = (Integer) depth;
+		}
+		return PageSampler.NO_CATEGORY;
+	}
+
+	/**
+	 * Append the questions of a page, pages coming in the order of their node ids.
+	 * @param candidates
+	 * @throws IOException
+	 */
+	void write(QuestionBank.Candidates candidates) throws IOException {
+		index.writeLong(candidates.nodeId);
+		index.writeLong(position);
+		writeInts(candidates.sentenceEnds, 1);
+		writeInts(candidates.links, 3);
+		writeInts(candidates.windows, 1);
+		pageCount++;
+		windowCount += candidates.windows.length;
+	}
+
+	@Override
+	public void close() throws IOException {
+		index.close();
+		data.close();
+		pages.close();
+	}
+
+	private void writeInts(int[] values, int group) throws IOException {
+		data.writeInt(values.length / group);
+		for (int value : values) {
+			data.writeInt(value);
+		}
+		position += 4 + 4L * values.length;
+	}
+
+}
@@ -94,28 +94,26 @@ public class User extends Entity {
 		
 		if( correct ) {
 			Knows link = null;
-			if( !knows.contains(page) ) {
+			for(Knows knownPage : knows) {
+				if( knownPage.getPage().equals(page) ) {
+					link = knownPage;
+				}
+			}
+			if( link == null ) {
 				link = new Knows(this, page);
 				this.knows.add(link);
-			} else {
-				for(Knows knownPage : knows) {
-					if( knownPage.getPage().equals(page) ) {
-						link = knownPage;
-					}
-				}
 			}
 			link.addWeight();
 		} else {
 			Ignores link = null;
-			if( !ignores.contains(page) ) {
+			for(Ignores ignoredPage : ignores) {
+				if( ignoredPage.getPage().equals(page) ) {
+					link = ignoredPage;
+				}
+			}
+			if( link == null ) {
 				link = new Ignores(this, page);
 				this.ignores.add(link);
-			} else {
-				for(Ignores ignoredPage : ignores) {
-					if( ignoredPage.getPage().equals(page) ) {
-						link = ignoredPage;
-					}
-				}
 			}
 			link.addWeight();
 		}
@@ -16,9 +16,9 @@
  */
 package com.cotrino.knowledgemap.db;
 
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.neo4j.ogm.json.JSONArray;
 import org.neo4j.ogm.json.JSONException;
@@ -26,12 +26,17 @@ import org.neo4j.ogm.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Users of the quiz, shared by every request: which user a request is about is
+ * kept in the session of its browser, and passed along.
+ * @author cotrino
+ *
+ */
 public class Users {
 	
 	final static Logger logger = LoggerFactory.getLogger(Users.class);
 			
 	private GraphDB db;
-	private User user;
 	private Map<Long, User> users;
 
 	public Users(GraphDB db) {
@@ -45,9 +50,9 @@ public class Users {
 	
 	public String getUser(Long id) {
 		
-		this.user = this.db.getUser(id);
+		User user = this.db.getUser(id);
 		logger.debug("Selected user '"+user.getName());
-		return this.user.getName()+" ("+this.user.getStatistics(this.db.getAmountOfPages())+")";
+		return user.getName()+" ("+user.getStatistics(this.db.getAmountOfPages())+")";
 		
 	}
 	
@@ -71,43 +76,38 @@ public class Users {
 		
 	}
 	
-	public void save() {
-
-		this.db.updateUser(user);
-		
-	}
-
-	public void addAnswer(Page page, boolean correct) {
+	public void addAnswer(Long userId, Page page, boolean correct) {
 
-		this.user.knows(page, correct);
+		this.db.addAnswer(userId, page.getId(), correct);
 
 	}
 	
-	public String getKnowledgePages() {
+	public String getKnowledgePages(Long userId) {
 		
-		logger.debug("Loading knowledge of user '"+user.getName()+"'...");
-		return this.db.getUserKnownPages(user.getId());
+		logger.debug("Loading knowledge of user "+userId+"...");
+		return this.db.getUserKnownPages(userId);
 	    		
 	}
 	
-	public String getKnowledgeCategories() {
+	public String getKnowledgeCategories(Long userId) {
 		
-		logger.debug("Loading knowledge of user '"+user.getName()+"'...");
-		return this.db.getUserKnownCategories(user.getId());
+		logger.debug("Loading knowledge of user "+userId+"...");
+		return this.db.getUserKnownCategories(userId);
 	    
 	}
 	
-	public String addUser(String userName) {
+	public User addUser(String userName) {
 
 		logger.debug("Creating user "+userName+" in database...");
-		this.user = this.db.createUser(userName);
-		return this.user.getName();
+		User user = this.db.createUser(userName);
+		this.users.put(user.getId(), user);
+		return user;
 
 	}
 	
 	private void loadAllUsers() {
 
-		this.users = new HashMap<Long, User>();
+		this.users = new ConcurrentHashMap<Long, User>();
 		Set<User> usersSet = this.db.getAllUsers();
 
 		for (User user : usersSet) {
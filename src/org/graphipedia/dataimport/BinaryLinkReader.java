@@ -0,0 +1,254 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graphipedia.dataimport;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Sequential reader of files written by {@link BinaryLinkWriter}. Both the
+ * records and the title table are memory-mapped, so scanning the file does
+ * not involve any parsing besides decoding variable-length integers.
+ *
+ * Typical use:
+ * <pre>
+ * while (reader.next()) {
+ *     String title = reader.getTitle();
+ *     for (int i = 0; i &lt; reader.getLinkCount(); i++) {
+ *         String link = reader.getTitle(reader.getLink(i));
+ *     }
+ * }
+ * </pre>
+ * @author cotrino
+ *
+ */
+public class BinaryLinkReader implements Closeable {
+
+	private final MappedFile records;
+	private final MappedFile titles;
+	private final long recordsEnd;
+	private final int titleCount;
+	private final long titleOffsets;
+
+	private long position = BinaryLinkWriter.HEADER_SIZE;
+	private byte[] bytes = new byte[1024];
+	private byte[] titleBytes = new byte[256];
+
+	private int flags;
+	private int titleId;
+	private long hash;
+	private int textLength;
+	private int categoryCount;
+	private int linkCount;
+	private int[] categoryIds = new int[64];
+	private int[] linkIds = new int[256];
+
+	public BinaryLinkReader(File file) throws IOException {
+		this.records = new MappedFile(file);
+		this.titles = new MappedFile(file);
+		ByteBuffer header = records.map(0, BinaryLinkWriter.HEADER_SIZE);
+		if (header.getInt() != BinaryLinkWriter.MAGIC || header.getInt() != BinaryLinkWriter.VERSION) {
+			close();
+			throw new IOException(file + " is not a binary link file");
+		}
+		this.recordsEnd = header.getLong();
+		this.titleCount = header.getInt();
+		this.titleOffsets = records.size() - 4L * titleCount;
+	}
+
+	/**
+	 * @param fileName
+	 * @return whether the file was written by {@link BinaryLinkWriter}
+	 */
+	public static boolean isBinary(String fileName) {
+		File file = new File(fileName);
+		if (!file.isFile() || file.length() < BinaryLinkWriter.HEADER_SIZE) {
+			return false;
+		}
+		try (DataInputStream input = new DataInputStream(new FileInputStream(file))) {
+			return input.readInt() == BinaryLinkWriter.MAGIC;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return amount of distinct titles, valid ids go from 0 to this value (excluded)
+	 */
+	public int getTitleCount() {
+		return titleCount;
+	}
+
+	/**
+	 * @param id title id, as returned by {@link #getTitleId()}, {@link #getCategory(int)} or {@link #getLink(int)}
+	 * @return
+	 * @throws IOException
+	 */
+	public String getTitle(int id) throws IOException {
+		long entry = recordsEnd + titles.map(titleOffsets + 4L * id, 4).getInt();
+		ByteBuffer buffer = titles.map(entry, (int) Math.min(5, titleOffsets - entry));
+		int start = buffer.position();
+		int length = readVarint(buffer);
+		buffer = titles.map(entry + buffer.position() - start, length);
+		if (length > titleBytes.length) {
+			titleBytes = new byte[Math.max(length, titleBytes.length * 2)];
+		}
+		buffer.get(titleBytes, 0, length);
+		return new String(titleBytes, 0, length, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Move to the next record.
+	 * @return false when there are no more records
+	 * @throws IOException
+	 */
+	public boolean next() throws IOException {
+		if (position >= recordsEnd) {
+			return false;
+		}
+		int length = records.map(position, 4).getInt();
+		ByteBuffer buffer = records.map(position + 4, length);
+		position += 4 + length;
+
+		flags = buffer.get();
+		titleId = readVarint(buffer);
+		hash = buffer.getLong();
+		textLength = -1;
+		if ((flags & BinaryLinkWriter.HAS_TEXT) != 0) {
+			textLength = readVarint(buffer);
+			if (textLength > bytes.length) {
+				bytes = new byte[Math.max(textLength, bytes.length * 2)];
+			}
+			buffer.get(bytes, 0, textLength);
+		}
+		categoryCount = 0;
+		linkCount = 0;
+		if ((flags & BinaryLinkWriter.HAS_LINKS) != 0) {
+			categoryCount = readVarint(buffer);
+			categoryIds = readIds(buffer, categoryIds, categoryCount);
+			linkCount = readVarint(buffer);
+			linkIds = readIds(buffer, linkIds, linkCount);
+		}
+		return true;
+	}
+
+	/**
+	 * @return offset of the next record in the file
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	/**
+	 * Go on reading from a position returned by {@link #getPosition()}.
+	 * @param position
+	 */
+	public void seek(long position) {
+		if (position < BinaryLinkWriter.HEADER_SIZE || position > recordsEnd) {
+			throw new IllegalArgumentException("Not a record position: " + position);
+		}
+		this.position = position;
+	}
+
+	public boolean isCategory() {
+		return (flags & BinaryLinkWriter.CATEGORY) != 0;
+	}
+
+	public int getTitleId() {
+		return titleId;
+	}
+
+	public String getTitle() throws IOException {
+		return getTitle(titleId);
+	}
+
+	/**
+	 * @return content hash of the wiki markup, 0 if the page had no text
+	 */
+	public long getHash() {
+		return hash;
+	}
+
+	public boolean hasText() {
+		return textLength >= 0;
+	}
+
+	/**
+	 * @return plain text of the current record, null if it has none
+	 */
+	public String getText() {
+		return textLength < 0 ? null : new String(bytes, 0, textLength, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return whether the record had wiki text, and therefore categories and links
+	 */
+	public boolean hasLinks() {
+		return (flags & BinaryLinkWriter.HAS_LINKS) != 0;
+	}
+
+	public int getCategoryCount() {
+		return categoryCount;
+	}
+
+	public int getCategory(int index) {
+		return categoryIds[index];
+	}
+
+	public int getLinkCount() {
+		return linkCount;
+	}
+
+	public int getLink(int index) {
+		return linkIds[index];
+	}
+
+	@Override
+	public void close() throws IOException {
+		records.close();
+		titles.close();
+	}
+
+	private static int[] readIds(ByteBuffer buffer, int[] ids, int count) {
+		if (count > ids.length) {
+			ids = Arrays.copyOf(ids, Math.max(count, ids.length * 2));
+		}
+		for (int i = 0; i < count; i++) {
+			ids[i] = readVarint(buffer);
+		}
+		return ids;
+	}
+
+	private static int readVarint(ByteBuffer buffer) {
+		int value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buffer.get();
+			value |= (b & 0x7f) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+
+}
@@ -0,0 +1,301 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graphipedia.dataimport;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Writes extracted pages in a compact binary format, as an alternative to
+ * the XML written by {@link XmlPageWriter}. It is read back by {@link BinaryLinkReader}.
+ *
+ * <pre>
+ * header:  int magic, int version, long title table offset, int title count
+ * records: int length, then length bytes:
+ *          byte flags (CATEGORY, HAS_TEXT, HAS_LINKS)
+ *          varint title id
+ *          long content hash, 0 if the page had no text
+ *          [HAS_TEXT]  varint byte length, UTF-8 plain text
+ *          [HAS_LINKS] varint category count, varint category title ids,
+ *                      varint link count, varint link title ids
+ * titles:  every distinct title once, as varint byte length and UTF-8 bytes,
+ *          followed by an int offset (relative to the table) per title id
+ * </pre>
+ *
+ * Titles of pages, categories and links share the same dictionary; whether an
+ * id refers to a page or a category depends on where it is used. While
+ * writing, the dictionary lives in an off-heap {@link TitleIndex} and the
+ * title table in a temporary file, so the heap does not grow with the dump.
+ * @author cotrino
+ *
+ */
+public class BinaryLinkWriter implements PageWriter {
+
+	public static final int MAGIC = 0x4b4d4c46; // KMLF
+	public static final int VERSION = 2;
+	public static final int HEADER_SIZE = 20;
+
+	public static final int CATEGORY = 1;
+	public static final int HAS_TEXT = 2;
+	public static final int HAS_LINKS = 4;
+
+	private static final String EXTENSION = ".bin";
+	private static final long DICTIONARY_MEMORY = 512L * 1024 * 1024;
+
+	private static final String OUTPUT_LENGTH = "output.length";
+	private static final String TITLES_LENGTH = "titles.length";
+	private static final String TITLE_COUNT = "titles.count";
+	private static final String TITLES = "titles";
+	private static final String DICTIONARY = "dictionary";
+	private static final String TITLE_OFFSETS = "title-offsets";
+
+	private final File file;
+	private final DataOutputStream output;
+	private final MemoryBudget dictionaryBudget;
+	private final TitleIndex titleIds;
+	private final File titlesFile;
+	private final DataOutputStream titles;
+	private int[] titleOffsets = new int[1024];
+	private int titleCount = 0;
+	private long titlesPosition = 0;
+	private long position = HEADER_SIZE;
+
+	private byte[] record = new byte[64 * 1024];
+	private int recordLength;
+
+	public BinaryLinkWriter(File file) throws IOException {
+		this(file, null);
+	}
+
+	/**
+	 * @param file
+	 * @param checkpoint where the state of the writer is saved, null for none. If
+	 * a previous run saved it, the pages written after it are discarded and writing
+	 * goes on from there.
+	 * @throws IOException
+	 */
+	public BinaryLinkWriter(File file, Checkpoint checkpoint) throws IOException {
+		this.file = file;
+		File directory = file.getAbsoluteFile().getParentFile();
+		this.dictionaryBudget = new MemoryBudget(DICTIONARY_MEMORY, directory);
+		if (checkpoint == null) {
+			this.titlesFile = File.createTempFile("titles", ".tmp", directory);
+		} else {
+			this.titlesFile = checkpoint.getFile(TITLES);
+		}
+		if (checkpoint != null && checkpoint.getLong(OUTPUT_LENGTH) > 0) {
+			this.position = checkpoint.getLong(OUTPUT_LENGTH);
+			this.titlesPosition = checkpoint.getLong(TITLES_LENGTH);
+			this.titleCount = (int) checkpoint.getLong(TITLE_COUNT);
+			this.titleIds = TitleIndex.load(dictionaryBudget, checkpoint.getSavedSnapshot(DICTIONARY));
+			this.titleOffsets = readOffsets(checkpoint.getSavedSnapshot(TITLE_OFFSETS), titleCount);
+			this.output = new DataOutputStream(new BufferedOutputStream(append(file, position), 1024 * 1024));
+			this.titles = new DataOutputStream(new BufferedOutputStream(append(titlesFile, titlesPosition), 1024 * 1024));
+		} else {
+			this.output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1024 * 1024));
+			// placeholder header, completed on close
+			output.write(new byte[HEADER_SIZE]);
+			this.titleIds = new TitleIndex(dictionaryBudget);
+			this.titles = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(titlesFile), 1024 * 1024));
+		}
+	}
+
+	/**
+	 * @param fileName
+	 * @return whether the file should be written in the binary format
+	 */
+	public static boolean isBinary(String fileName) {
+		return fileName.endsWith(EXTENSION);
+	}
+
+	@Override
+	public void writePage(ExtractedPage page) throws IOException {
+		recordLength = 0;
+		int flags = 0;
+		if (page.isCategory()) {
+			flags |= CATEGORY;
+		}
+		if (page.getPlainText() != null) {
+			flags |= HAS_TEXT;
+		}
+		if (page.getLinks() != null) {
+			flags |= HAS_LINKS;
+		}
+		writeByte(flags);
+		writeVarint(getTitleId(page.getTitle()));
+		writeLong(page.getHash());
+		if (page.getPlainText() != null) {
+			byte[] text = page.getPlainText().getBytes(StandardCharsets.UTF_8);
+			writeVarint(text.length);
+			writeBytes(text);
+		}
+		if (page.getLinks() != null) {
+			writeTitleIds(page.getCategories());
+			writeTitleIds(page.getLinks());
+		}
+		output.writeInt(recordLength);
+		output.write(record, 0, recordLength);
+		position += 4 + recordLength;
+	}
+
+	@Override
+	public void checkpoint(Checkpoint checkpoint) throws IOException {
+		if (!titlesFile.equals(checkpoint.getFile(TITLES))) {
+			throw new IllegalStateException("The writer was not created with this checkpoint");
+		}
+		output.flush();
+		titles.flush();
+		titleIds.save(checkpoint.getSnapshot(DICTIONARY));
+		try (DataOutputStream offsets = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(checkpoint.getSnapshot(TITLE_OFFSETS)), 1024 * 1024))) {
+			for (int id = 0; id < titleCount; id++) {
+				offsets.writeInt(titleOffsets[id]);
+			}
+		}
+		checkpoint.set(OUTPUT_LENGTH, position);
+		checkpoint.set(TITLES_LENGTH, titlesPosition);
+		checkpoint.set(TITLE_COUNT, titleCount);
+	}
+
+	@Override
+	public void close() throws IOException {
+		long tableOffset = position;
+		titles.close();
+		try (InputStream input = new FileInputStream(titlesFile)) {
+			copy(input, output);
+		}
+		for (int id = 0; id < titleCount; id++) {
+			output.writeInt(titleOffsets[id]);
+		}
+		output.close();
+		titlesFile.delete();
+		titleIds.free();
+		dictionaryBudget.close();
+
+		try (RandomAccessFile header = new RandomAccessFile(file, "rw")) {
+			header.writeInt(MAGIC);
+			header.writeInt(VERSION);
+			header.writeLong(tableOffset);
+			header.writeInt(titleCount);
+		}
+	}
+
+	private void writeTitleIds(Set<String> titles) throws IOException {
+		writeVarint(titles.size());
+		for (String title : titles) {
+			writeVarint(getTitleId(title));
+		}
+	}
+
+	private int getTitleId(String title) throws IOException {
+		long id = titleIds.get(title);
+		if (id == TitleIndex.NOT_FOUND) {
+			id = titleCount++;
+			titleIds.put(title, id);
+			if (id == titleOffsets.length) {
+				titleOffsets = Arrays.copyOf(titleOffsets, titleOffsets.length * 2);
+			}
+			if (titlesPosition > Integer.MAX_VALUE) {
+				throw new IOException("Title table too large");
+			}
+			titleOffsets[(int) id] = (int) titlesPosition;
+			byte[] bytes = title.getBytes(StandardCharsets.UTF_8);
+			int length = bytes.length;
+			while ((length & ~0x7f) != 0) {
+				titles.write((length & 0x7f) | 0x80);
+				length >>>= 7;
+				titlesPosition++;
+			}
+			titles.write(length);
+			titles.write(bytes);
+			titlesPosition += 1 + bytes.length;
+		}
+		return (int) id;
+	}
+
+	/**
+	 * Open a file for appending, after dropping everything beyond the given length.
+	 */
+	private static OutputStream append(File file, long length) throws IOException {
+		try (RandomAccessFile truncated = new RandomAccessFile(file, "rw")) {
+			truncated.setLength(length);
+		}
+		return new FileOutputStream(file, true);
+	}
+
+	private static int[] readOffsets(File file, int count) throws IOException {
+		int[] offsets = new int[Math.max(1024, Integer.highestOneBit(Math.max(1, count)) * 2)];
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1024 * 1024))) {
+			for (int id = 0; id < count; id++) {
+				offsets[id] = input.readInt();
+			}
+		}
+		return offsets;
+	}
+
+	private static void copy(InputStream input, OutputStream output) throws IOException {
+		byte[] buffer = new byte[64 * 1024];
+		int count;
+		while ((count = input.read(buffer)) >= 0) {
+			output.write(buffer, 0, count);
+		}
+	}
+
+	private void writeVarint(int value) {
+		while ((value & ~0x7f) != 0) {
+			writeByte((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		writeByte(value);
+	}
+
+	private void writeLong(long value) {
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			writeByte((int) (value >>> shift));
+		}
+	}
+
+	private void writeByte(int value) {
+		ensureCapacity(1);
+		record[recordLength++] = (byte) value;
+	}
+
+	private void writeBytes(byte[] bytes) {
+		ensureCapacity(bytes.length);
+		System.arraycopy(bytes, 0, record, recordLength, bytes.length);
+		recordLength += bytes.length;
+	}
+
+	private void ensureCapacity(int extra) {
+		if (recordLength + extra > record.length) {
+			record = Arrays.copyOf(record, Math.max(record.length * 2, recordLength + extra));
+		}
+	}
+
+}
@@ -0,0 +1,238 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graphipedia.dataimport;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.function.Predicate;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Progress of a long running stage, kept in a properties file so that an
+ * interrupted run can resume where the last checkpoint was saved.
+ *
+ * A checkpoint belongs to one input file: if the input changed since it was
+ * saved, it is ignored and the stage starts over. Saving a checkpoint may be
+ * expensive, so stages ask {@link #isDue()} before doing it.
+ *
+ * Stages may keep larger state next to the checkpoint, either in files that
+ * live across checkpoints, such as an output being appended to, or in
+ * snapshots. Snapshots are numbered after the checkpoint they belong to, so
+ * that a crash while writing them never damages the last saved ones.
+ * @author cotrino
+ *
+ */
+public class Checkpoint {
+
+	private static final String INPUT = "input";
+	private static final String INPUT_LENGTH = "input.length";
+	private static final String INPUT_MODIFIED = "input.modified";
+	private static final String STAGE = "stage";
+	private static final String DONE = ".done";
+	private static final String GENERATION = "generation";
+
+	private final File file;
+	private final long interval;
+	private final Properties properties = new Properties();
+	private long lastSave = System.currentTimeMillis();
+
+	/**
+	 * Load the checkpoint of a stage, if it was saved for the same input.
+	 * @param file properties file of the checkpoint
+	 * @param input file read by the stage
+	 * @param interval milliseconds between checkpoints
+	 * @throws IOException
+	 */
+	public Checkpoint(File file, String input, long interval) throws IOException {
+		this.file = file;
+		this.interval = interval;
+		if (file.isFile()) {
+			try (InputStream stream = new FileInputStream(file)) {
+				properties.load(stream);
+			}
+		}
+		File inputFile = new File(input);
+		if (!input.equals(properties.getProperty(INPUT))
+				|| getLong(INPUT_LENGTH) != inputFile.length()
+				|| getLong(INPUT_MODIFIED) != inputFile.lastModified()) {
+			delete();
+			properties.setProperty(INPUT, input);
+			set(INPUT_LENGTH, inputFile.length());
+			set(INPUT_MODIFIED, inputFile.lastModified());
+		} else {
+			// written for a checkpoint that a crash stopped before it was saved
+			long generation = getLong(GENERATION);
+			deleteFiles(name -> getGeneration(name) > generation);
+		}
+	}
+
+	/**
+	 * @return whether the interval since the last save is over
+	 */
+	public boolean isDue() {
+		return System.currentTimeMillis() - lastSave >= interval;
+	}
+
+	/**
+	 * @return whether a previous run saved this checkpoint
+	 */
+	public boolean isResumed() {
+		return properties.getProperty(STAGE) != null;
+	}
+
+	/**
+	 * @return stage in progress when the checkpoint was saved, null if none
+	 */
+	public String getStage() {
+		return properties.getProperty(STAGE);
+	}
+
+	public void setStage(String stage) {
+		properties.setProperty(STAGE, stage);
+	}
+
+	/**
+	 * @param stage
+	 * @return whether the stage was finished
+	 */
+	public boolean isDone(String stage) {
+		return properties.getProperty(stage + DONE) != null;
+	}
+
+	/**
+	 * Record that a stage is finished and save the checkpoint.
+	 * @param stage
+	 * @throws IOException
+	 */
+	public void done(String stage) throws IOException {
+		properties.setProperty(stage + DONE, "true");
+		setStage(stage);
+		save();
+	}
+
+	/**
+	 * @param key
+	 * @return the saved value, 0 if there is none
+	 */
+	public long getLong(String key) {
+		String value = properties.getProperty(key);
+		return value == null ? 0 : Long.parseLong(value);
+	}
+
+	public void set(String key, long value) {
+		properties.setProperty(key, Long.toString(value));
+	}
+
+	public String getString(String key) {
+		return properties.getProperty(key);
+	}
+
+	public void set(String key, String value) {
+		properties.setProperty(key, value);
+	}
+
+	/**
+	 * @param name
+	 * @return file next to the checkpoint that is kept across checkpoints
+	 */
+	public File getFile(String name) {
+		return new File(file.getPath() + "." + name);
+	}
+
+	/**
+	 * @param name
+	 * @return where to write a snapshot that belongs to the next {@link #save()}
+	 */
+	public File getSnapshot(String name) {
+		return getSnapshot(name, getLong(GENERATION) + 1);
+	}
+
+	/**
+	 * @param name
+	 * @return snapshot written for the last saved checkpoint
+	 */
+	public File getSavedSnapshot(String name) {
+		return getSnapshot(name, getLong(GENERATION));
+	}
+
+	/**
+	 * Write the checkpoint, replacing the previous one only once it is complete,
+	 * and drop the snapshots of the previous one.
+	 * @throws IOException
+	 */
+	public void save() throws IOException {
+		long generation = getLong(GENERATION) + 1;
+		set(GENERATION, generation);
+		File temporary = new File(file.getPath() + ".tmp");
+		try (OutputStream stream = new FileOutputStream(temporary)) {
+			properties.store(stream, "Import checkpoint");
+		}
+		Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		lastSave = System.currentTimeMillis();
+		deleteFiles(name -> getGeneration(name) == generation - 1);
+	}
+
+	/**
+	 * Forget the checkpoint and its snapshots.
+	 * @throws IOException
+	 */
+	public void delete() throws IOException {
+		String prefix = file.getName() + ".";
+		deleteFiles(name -> name.startsWith(prefix));
+		file.delete();
+		properties.clear();
+	}
+
+	private File getSnapshot(String name, long generation) {
+		return new File(file.getPath() + "." + generation + "." + name);
+	}
+
+	/**
+	 * @param name of a file next to the checkpoint
+	 * @return generation of the snapshot, -1 if it is not one
+	 */
+	private long getGeneration(String name) {
+		String prefix = file.getName() + ".";
+		if (!name.startsWith(prefix)) {
+			return -1;
+		}
+		int end = name.indexOf('.', prefix.length());
+		String generation = name.substring(prefix.length(), end < 0 ? name.length() : end);
+		return end < 0 || generation.isEmpty() || !generation.chars().allMatch(Character::isDigit) ? -1
+				: Long.parseLong(generation);
+	}
+
+	private void deleteFiles(Predicate<String> names) throws IOException {
+		File directory = file.getAbsoluteFile().getParentFile();
+		File[] files = directory.listFiles((dir, name) -> names.test(name));
+		if (files != null) {
+			for (File snapshot : files) {
+				FileUtils.forceDelete(snapshot);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,66 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graphipedia.dataimport;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+/**
+ * Opens Wikipedia dumps, decompressing them on the fly according to their extension.
+ * @author cotrino
+ *
+ */
+public class DumpInputStreams {
+
+	private static final int BUFFER_SIZE = 1024 * 1024;
+
+	private DumpInputStreams() {
+	}
+
+	/**
+	 * Open a plain XML, gzip (.gz) or bzip2 (.bz2) file. Multistream bzip2 dumps
+	 * with their index file next to them are decompressed in parallel.
+	 * @param fileName
+	 * @return
+	 * @throws IOException
+	 */
+	public static InputStream open(String fileName) throws IOException {
+		return open(fileName, Runtime.getRuntime().availableProcessors());
+	}
+
+	public static InputStream open(String fileName, int threads) throws IOException {
+		File file = new File(fileName);
+		if (fileName.endsWith(".bz2")) {
+			File index = MultistreamBzip2InputStream.getIndexFile(file);
+			if (index != null && threads > 1) {
+				return new BufferedInputStream(new MultistreamBzip2InputStream(file, index, threads), BUFFER_SIZE);
+			}
+			return new BZip2CompressorInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE), true);
+		} else if (fileName.endsWith(".gz")) {
+			return new GZIPInputStream(new FileInputStream(file), BUFFER_SIZE);
+		} else {
+			return new FileInputStream(file);
+		}
+	}
+
+}
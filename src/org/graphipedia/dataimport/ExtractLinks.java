@@ -26,45 +26,146 @@
  */
 package org.graphipedia.dataimport;
 
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 
-import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamWriter;
-
-import org.codehaus.stax2.XMLOutputFactory2;
 
 public class ExtractLinks {
 
+    private static final long REDIRECT_MEMORY = 256L * 1024 * 1024;
+    private static final String REDIRECTS = "redirects";
+
+    private File metricsFile;
+    private boolean resolveRedirects = true;
+
     public static void main(String[] args) throws Exception {
         if (args.length < 2) {
-            System.out.println("USAGE: ExtractLinks <input-file> <output-file>");
+            System.out.println("USAGE: ExtractLinks <input-file> <output-file> [threads] [--keep-redirects]");
             System.exit(255);
         }
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 1;
         ExtractLinks self = new ExtractLinks();
-        self.extract(args[0], args[1]);
+        self.setMetricsFile(new File(args[1] + ".metrics.jsonl"));
+        self.setResolveRedirects(!(args.length > 3 && "--keep-redirects".equals(args[3])));
+        self.extract(args[0], args[1], threads);
+    }
+
+    /**
+     * @param metricsFile JSON lines file where snapshots of {@link ImportMetrics} are
+     *        appended during the extraction, null for none
+     */
+    public void setMetricsFile(File metricsFile) {
+        this.metricsFile = metricsFile;
+    }
+
+    /**
+     * @param resolveRedirects whether to read the redirects of the dump first, so
+     *        that redirect pages are skipped and links to them point to their
+     *        target. True by default.
+     */
+    public void setResolveRedirects(boolean resolveRedirects) {
+        this.resolveRedirects = resolveRedirects;
     }
 
     public void extract(String inputFile, String outputFile) throws IOException, XMLStreamException {
-        System.out.println("Parsing pages and extracting links...");
+        extract(inputFile, outputFile, 1);
+    }
+
+    /**
+     * Extract links, categories and plain text of every page. With more than one
+     * thread, pages are processed in parallel but written in their original order,
+     * so the output is the same as with a single thread.
+     * Output files ending with .bin are written in the binary format of
+     * {@link BinaryLinkWriter}, any other name as XML.
+     */
+    public void extract(String inputFile, String outputFile, int threads) throws IOException, XMLStreamException {
+        extract(inputFile, outputFile, threads, null);
+    }
+
+    /**
+     * Extract pages, saving checkpoints from which an interrupted extraction can
+     * resume. Nothing is done if the checkpoint says that the extraction was finished.
+     * @param checkpoint null to always extract everything
+     */
+    public void extract(String inputFile, String outputFile, int threads, Checkpoint checkpoint)
+            throws IOException, XMLStreamException {
+        if (checkpoint != null && LinkExtractor.isDone(checkpoint)) {
+            System.out.println("Links already extracted into " + outputFile);
+            return;
+        }
+        MemoryBudget redirectBudget = null;
+        RedirectTable redirects = null;
+        if (resolveRedirects) {
+            redirectBudget = new MemoryBudget(REDIRECT_MEMORY, new File(outputFile).getAbsoluteFile().getParentFile());
+            redirects = readRedirects(inputFile, redirectBudget, checkpoint);
+        }
+
+        System.out.println("Parsing pages and extracting links with " + threads + " thread(s)...");
         
         long startTime = System.currentTimeMillis();
-        XMLOutputFactory outputFactory = XMLOutputFactory2.newInstance();
-        
-        XMLStreamWriter writer = outputFactory.createXMLStreamWriter(new FileOutputStream(outputFile), "UTF-8");
-        writer.writeStartDocument();
-        writer.writeStartElement("d");
+        PageWriter writer;
+        if (BinaryLinkWriter.isBinary(outputFile)) {
+            writer = new BinaryLinkWriter(new File(outputFile), checkpoint);
+        } else if (checkpoint != null) {
+            writer = new XmlPageWriter(new File(outputFile), checkpoint);
+        } else {
+            writer = new XmlPageWriter(new FileOutputStream(outputFile));
+        }
         
-        LinkExtractor linkExtractor = new LinkExtractor(writer);
-        linkExtractor.parse(inputFile);
+        ImportMetrics metrics = new ImportMetrics("extract");
+        LinkExtractor linkExtractor = new LinkExtractor(writer, threads, checkpoint);
+        linkExtractor.setMetrics(metrics);
+        linkExtractor.setRedirects(redirects);
+        if (metricsFile != null) {
+            metrics.report(metricsFile, ImportMetrics.DEFAULT_INTERVAL_MILLIS);
+        }
+        try {
+            linkExtractor.parse(inputFile);
+        } finally {
+            metrics.close();
+            if (redirects != null) {
+                redirects.free();
+                redirectBudget.close();
+            }
+        }
 
-        writer.writeEndElement();
-        writer.writeEndDocument();
         writer.close();
+        linkExtractor.done();
         
         long elapsedSeconds = (System.currentTimeMillis() - startTime) / 1000;
         System.out.printf("\n%d pages parsed in %d seconds.\n", linkExtractor.getPageCount(), elapsedSeconds);
+        if (linkExtractor.getOverBudgetCount() > 0) {
+            System.out.printf("%d pages over the parsing budget were stripped instead.\n", linkExtractor.getOverBudgetCount());
+        }
+        if (redirects != null) {
+            System.out.printf("%d links to redirects pointed to their target instead.\n", redirects.getResolvedLinkCount());
+        }
+        System.out.println("Slowest pages:");
+        for (SlowestPages.Timing timing : linkExtractor.getSlowestPages()) {
+            System.out.printf("%8d ms  %s\n", timing.getNanos() / 1000000, timing.getTitle());
+        }
+    }
+
+    /**
+     * Read the redirects of the dump, or load them if a previous run with the
+     * same checkpoint already did.
+     */
+    private RedirectTable readRedirects(String inputFile, MemoryBudget budget, Checkpoint checkpoint)
+            throws IOException, XMLStreamException {
+        if (checkpoint != null && checkpoint.getFile(REDIRECTS).isFile()) {
+            return RedirectTable.load(budget, checkpoint.getFile(REDIRECTS));
+        }
+        System.out.println("Reading redirects...");
+        long startTime = System.currentTimeMillis();
+        RedirectTable redirects = RedirectTable.read(inputFile, budget);
+        if (checkpoint != null) {
+            redirects.save(checkpoint.getFile(REDIRECTS));
+        }
+        long elapsedSeconds = (System.currentTimeMillis() - startTime) / 1000;
+        System.out.printf("%d redirects read in %d seconds.\n", redirects.size(), elapsedSeconds);
+        return redirects;
     }
 
 }
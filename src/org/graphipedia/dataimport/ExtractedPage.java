@@ -0,0 +1,129 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graphipedia.dataimport;
+
+import java.util.Set;
+
+/**
+ * Result of extracting a single Wikipedia page: its title, plain text,
+ * categories and links, ready to be written out.
+ * @author cotrino
+ *
+ */
+public class ExtractedPage {
+
+	private final String title;
+	private final boolean category;
+	private final String plainText;
+	private final Set<String> categories;
+	private final Set<String> links;
+	private final long hash;
+	private final long plainTextNanos;
+	private final long parseNanos;
+	private final boolean overBudget;
+
+	public ExtractedPage(String title, boolean category, String plainText, Set<String> categories, Set<String> links) {
+		this(title, category, plainText, categories, links, 0, 0, 0, false);
+	}
+
+	/**
+	 * @param hash content hash of the wiki markup, see {@link #hash(CharSequence)}
+	 * @param plainTextNanos part of parseNanos spent extracting the plain text
+	 * @param parseNanos time spent extracting the page
+	 * @param overBudget whether the plain text was stripped instead of parsed
+	 */
+	public ExtractedPage(String title, boolean category, String plainText, Set<String> categories, Set<String> links,
+			long hash, long plainTextNanos, long parseNanos, boolean overBudget) {
+		this.title = title;
+		this.category = category;
+		this.plainText = plainText;
+		this.categories = categories;
+		this.links = links;
+		this.hash = hash;
+		this.plainTextNanos = plainTextNanos;
+		this.parseNanos = parseNanos;
+		this.overBudget = overBudget;
+	}
+
+	public String getTitle() {
+		return title;
+	}
+
+	public boolean isCategory() {
+		return category;
+	}
+
+	/**
+	 * @return plain text of an article, null for categories or pages without text
+	 */
+	public String getPlainText() {
+		return plainText;
+	}
+
+	/**
+	 * @return category titles, null if the page had no text
+	 */
+	public Set<String> getCategories() {
+		return categories;
+	}
+
+	/**
+	 * @return linked page titles, null if the page had no text
+	 */
+	public Set<String> getLinks() {
+		return links;
+	}
+
+	/**
+	 * @return content hash of the wiki markup, 0 if the page had no text
+	 */
+	public long getHash() {
+		return hash;
+	}
+
+	/**
+	 * 64-bit FNV-1a hash of the wiki markup of a page. It only tells whether
+	 * a page changed between two dumps, it is not meant to be secure.
+	 * @param text
+	 * @return hash of the text, 0 for null
+	 */
+	public static long hash(CharSequence text) {
+		if (text == null) {
+			return 0;
+		}
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			hash = (hash ^ (c & 0xff)) * 0x100000001b3L;
+			hash = (hash ^ (c >>> 8)) * 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	public long getPlainTextNanos() {
+		return plainTextNanos;
+	}
+
+	public long getParseNanos() {
+		return parseNanos;
+	}
+
+	public boolean isOverBudget() {
+		return overBudget;
+	}
+
+}
@@ -0,0 +1,136 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graphipedia.dataimport;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Reads back the pages of a file written by {@link XmlPageWriter} or
+ * {@link BinaryLinkWriter}, whichever format it has, for tools that need whole
+ * pages rather than the individual elements of the XML format.
+ * @author cotrino
+ *
+ */
+public class ExtractedPageReader {
+
+	/**
+	 * Receives every page of the file, in order.
+	 */
+	public interface Handler {
+		void page(ExtractedPage page) throws IOException;
+	}
+
+	private ExtractedPageReader() {
+	}
+
+	/**
+	 * @param fileName extracted file, XML or binary
+	 * @param handler
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	public static void read(String fileName, Handler handler) throws IOException, XMLStreamException {
+		if (BinaryLinkReader.isBinary(fileName)) {
+			readBinary(fileName, handler);
+		} else {
+			new XmlPageParser(handler).parse(fileName);
+		}
+	}
+
+	private static void readBinary(String fileName, Handler handler) throws IOException {
+		try (BinaryLinkReader reader = new BinaryLinkReader(new File(fileName))) {
+			while (reader.next()) {
+				Set<String> categories = null;
+				Set<String> links = null;
+				if (reader.hasLinks()) {
+					categories = new LinkedHashSet<String>();
+					for (int i = 0; i < reader.getCategoryCount(); i++) {
+						categories.add(reader.getTitle(reader.getCategory(i)));
+					}
+					links = new LinkedHashSet<String>();
+					for (int i = 0; i < reader.getLinkCount(); i++) {
+						links.add(reader.getTitle(reader.getLink(i)));
+					}
+				}
+				handler.page(new ExtractedPage(reader.getTitle(), reader.isCategory(), reader.getText(),
+						categories, links, reader.getHash(), 0, 0, false));
+			}
+		}
+	}
+
+	private static class XmlPageParser extends SimpleStaxParser {
+
+		private static final int PAGE = 0;
+		private static final int TITLE = 1;
+		private static final int CATEGORY_TITLE = 2;
+		private static final int HASH = 3;
+		private static final int TEXT = 4;
+		private static final int CATEGORY = 5;
+		private static final int LINK = 6;
+
+		private final Handler handler;
+		private String title;
+		private boolean category;
+		private long hash;
+		private String text;
+		private Set<String> categories = new LinkedHashSet<String>();
+		private Set<String> links = new LinkedHashSet<String>();
+
+		private XmlPageParser(Handler handler) {
+			super(Arrays.asList("p", "t", "q", "h", "text", "c", "l"));
+			this.handler = handler;
+		}
+
+		@Override
+		protected void handleElement(int symbol, CharSequence value) {
+			if (symbol == TITLE) {
+				title = value.toString();
+				category = false;
+			} else if (symbol == CATEGORY_TITLE) {
+				title = value.toString();
+				category = true;
+			} else if (symbol == HASH) {
+				hash = Long.parseUnsignedLong(value.toString(), 16);
+			} else if (symbol == TEXT) {
+				text = value.toString();
+			} else if (symbol == CATEGORY) {
+				categories.add(value.toString());
+			} else if (symbol == LINK) {
+				links.add(value.toString());
+			} else if (symbol == PAGE) {
+				try {
+					handler.page(new ExtractedPage(title, category, text, categories, links, hash, 0, 0, false));
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+				title = null;
+				hash = 0;
+				text = null;
+				categories = new LinkedHashSet<String>();
+				links = new LinkedHashSet<String>();
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,160 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graphipedia.dataimport;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Figures about the pages of a graph, written to a properties file of the
+ * store directory by the import, so that the quiz reads them at once when it
+ * starts instead of scanning every page.
+ *
+ * The file is stale once the text store was written after it, which every
+ * import and update does: the figures are then about the previous graph.
+ * @author cotrino
+ *
+ */
+public class GraphStatistics {
+
+	public static final String FILE = "graph.stats";
+
+	private static final String PAGE_COUNT = "pageCount";
+	private static final String MAX_NODE_RANK = "maxNodeRank";
+	private static final String MIN_PAGE_ID = "minPageId";
+	private static final String MAX_PAGE_ID = "maxPageId";
+
+	private long pageCount;
+	private long maxNodeRank;
+	private long minPageId = -1;
+	private long maxPageId = -1;
+
+	/**
+	 * Statistics of no page, see {@link #addPage(long, long)}.
+	 */
+	public GraphStatistics() {
+	}
+
+	/**
+	 * @param pageCount
+	 * @param maxNodeRank highest nodeRank of a page, 0 if pages are not ranked
+	 * @param minPageId lowest node id of a page, -1 if there is none
+	 * @param maxPageId highest node id of a page, -1 if there is none
+	 */
+	public GraphStatistics(long pageCount, long maxNodeRank, long minPageId, long maxPageId) {
+		this.pageCount = pageCount;
+		this.maxNodeRank = maxNodeRank;
+		this.minPageId = minPageId;
+		this.maxPageId = maxPageId;
+	}
+
+	/**
+	 * Count a page.
+	 * @param nodeId
+	 * @param nodeRank
+	 */
+	public void addPage(long nodeId, long nodeRank) {
+		pageCount++;
+		maxNodeRank = Math.max(maxNodeRank, nodeRank);
+		minPageId = minPageId < 0 ? nodeId : Math.min(minPageId, nodeId);
+		maxPageId = Math.max(maxPageId, nodeId);
+	}
+
+	public long getPageCount() {
+		return pageCount;
+	}
+
+	public long getMaxNodeRank() {
+		return maxNodeRank;
+	}
+
+	public long getMinPageId() {
+		return minPageId;
+	}
+
+	public long getMaxPageId() {
+		return maxPageId;
+	}
+
+	/**
+	 * @param directory
+	 * @return whether the store directory has statistics
+	 */
+	public static boolean exists(File directory) {
+		return new File(directory, FILE).isFile();
+	}
+
+	/**
+	 * @param directory
+	 * @return whether the statistics of the store directory are missing, or
+	 *         older than its text store
+	 */
+	public static boolean isStale(File directory) {
+		File file = new File(directory, FILE);
+		File texts = new File(directory, TextStoreWriter.INDEX);
+		return !file.isFile() || file.lastModified() < texts.lastModified();
+	}
+
+	public static GraphStatistics load(File directory) throws IOException {
+		Properties properties = new Properties();
+		try (InputStream stream = new FileInputStream(new File(directory, FILE))) {
+			properties.load(stream);
+		}
+		try {
+			return new GraphStatistics(Long.parseLong(properties.getProperty(PAGE_COUNT)),
+					Long.parseLong(properties.getProperty(MAX_NODE_RANK)),
+					Long.parseLong(properties.getProperty(MIN_PAGE_ID)),
+					Long.parseLong(properties.getProperty(MAX_PAGE_ID)));
+		} catch (NumberFormatException e) {
+			throw new IOException("Corrupt statistics in " + directory, e);
+		}
+	}
+
+	/**
+	 * Write the statistics to the store directory, replacing the previous ones at once.
+	 * @param directory
+	 * @throws IOException
+	 */
+	public void save(File directory) throws IOException {
+		Properties properties = new Properties();
+		properties.setProperty(PAGE_COUNT, Long.toString(pageCount));
+		properties.setProperty(MAX_NODE_RANK, Long.toString(maxNodeRank));
+		properties.setProperty(MIN_PAGE_ID, Long.toString(minPageId));
+		properties.setProperty(MAX_PAGE_ID, Long.toString(maxPageId));
+		File file = new File(directory, FILE);
+		File temporary = new File(directory, FILE + ".tmp");
+		try (OutputStream stream = new FileOutputStream(temporary)) {
+			properties.store(stream, "Graph statistics");
+		}
+		Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d pages, max node rank %d, page ids from %d to %d",
+				pageCount, maxNodeRank, minPageId, maxPageId);
+	}
+
+}
@@ -0,0 +1,315 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graphipedia.dataimport;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Throughput and time spent per stage of a long running job, such as the
+ * extraction of links or the import of the graph.
+ *
+ * Stages add up the time spent in them and counters the items processed, both
+ * on {@link LongAdder}s, so that worker threads do not contend on them. Gauges
+ * read a value owned by someone else, such as a {@link ProgressCounter}, only
+ * when a snapshot is taken. Every interval, a snapshot with totals and rates
+ * since the previous one, plus garbage collection and heap figures, is
+ * appended as a JSON line to a file and summed up in one line on the console.
+ * Closing the metrics prints the time spent per stage.
+ * @author cotrino
+ *
+ */
+public class ImportMetrics implements Closeable {
+
+	public static final long DEFAULT_INTERVAL_MILLIS = 30 * 1000;
+
+	private static final long MEGABYTE = 1024 * 1024;
+
+	/**
+	 * Time spent in one stage, from any thread.
+	 */
+	public static class Stage {
+
+		private final String name;
+		private final LongAdder nanos = new LongAdder();
+		private final LongAdder calls = new LongAdder();
+
+		private Stage(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @param nanos time spent in one call of the stage
+		 */
+		public void add(long nanos) {
+			this.nanos.add(nanos);
+			calls.increment();
+		}
+
+		/**
+		 * Add the time elapsed since a call started.
+		 * @param start value of System.nanoTime() when the call started
+		 */
+		public void addSince(long start) {
+			add(System.nanoTime() - start);
+		}
+
+		public long getNanos() {
+			return nanos.sum();
+		}
+
+		public long getCalls() {
+			return calls.sum();
+		}
+
+	}
+
+	private static class Rate {
+
+		private final String name;
+		private final LongSupplier value;
+		private long lastValue;
+		private long perSecond;
+
+		private Rate(String name, LongSupplier value) {
+			this.name = name;
+			this.value = value;
+		}
+
+	}
+
+	private final String job;
+	private final Map<String, Stage> stages = new ConcurrentHashMap<String, Stage>();
+	private final List<Stage> stageOrder = new ArrayList<Stage>();
+	private final List<Rate> rates = new ArrayList<Rate>();
+	private final long startTime = System.nanoTime();
+	private final long startGcCount;
+	private final long startGcMillis;
+
+	private File file;
+	private ScheduledExecutorService timer;
+	private Writer output;
+	private long lastSnapshot = startTime;
+
+	/**
+	 * Metrics kept in memory until {@link #report(File, long)} is called.
+	 * @param job name of the job in the snapshots
+	 */
+	public ImportMetrics(String job) {
+		this.job = job;
+		this.startGcCount = getGcCount();
+		this.startGcMillis = getGcMillis();
+	}
+
+	/**
+	 * Start taking snapshots periodically.
+	 * @param file JSON lines file the snapshots are appended to
+	 * @param intervalMillis milliseconds between snapshots
+	 */
+	public synchronized void report(File file, long intervalMillis) {
+		if (timer != null) {
+			throw new IllegalStateException("Already reporting to " + this.file);
+		}
+		this.file = file;
+		timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, job + "-metrics");
+			thread.setDaemon(true);
+			return thread;
+		});
+		timer.scheduleAtFixedRate(this::takeSnapshot, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @param name
+	 * @return the stage with that name, created on first use
+	 */
+	public Stage stage(String name) {
+		Stage stage = stages.get(name);
+		if (stage == null) {
+			synchronized (stageOrder) {
+				stage = stages.get(name);
+				if (stage == null) {
+					stage = new Stage(name);
+					stageOrder.add(stage);
+					stages.put(name, stage);
+				}
+			}
+		}
+		return stage;
+	}
+
+	/**
+	 * Report the value of a counter kept elsewhere, with its rate per second.
+	 * @param name
+	 * @param value read from the thread taking snapshots
+	 */
+	public void gauge(String name, LongSupplier value) {
+		synchronized (rates) {
+			Rate rate = new Rate(name, value);
+			rate.lastValue = value.getAsLong();
+			rates.add(rate);
+		}
+	}
+
+	/**
+	 * @return a JSON object with the current totals, rates since the previous
+	 * snapshot, and garbage collection since the metrics were created
+	 */
+	public synchronized String snapshot() {
+		long now = System.nanoTime();
+		double seconds = Math.max(1, now - lastSnapshot) / 1e9;
+		lastSnapshot = now;
+		StringBuilder json = new StringBuilder(512);
+		json.append("{\"job\":\"").append(job).append('"');
+		json.append(",\"time\":").append(System.currentTimeMillis());
+		json.append(",\"elapsedMs\":").append((now - startTime) / 1000000);
+		json.append(",\"counters\":{");
+		synchronized (rates) {
+			for (int i = 0; i < rates.size(); i++) {
+				Rate rate = rates.get(i);
+				long value = rate.value.getAsLong();
+				json.append(i == 0 ? "" : ",").append('"').append(rate.name).append("\":{\"total\":").append(value);
+				rate.perSecond = Math.round((value - rate.lastValue) / seconds);
+				rate.lastValue = value;
+				json.append(",\"perSecond\":").append(rate.perSecond).append('}');
+			}
+		}
+		json.append("},\"stages\":{");
+		List<Stage> stages = getStages();
+		for (int i = 0; i < stages.size(); i++) {
+			Stage stage = stages.get(i);
+			json.append(i == 0 ? "" : ",").append('"').append(stage.getName()).append("\":{\"ms\":");
+			json.append(stage.getNanos() / 1000000).append(",\"calls\":").append(stage.getCalls()).append('}');
+		}
+		Runtime runtime = Runtime.getRuntime();
+		json.append("},\"gc\":{\"count\":").append(getGcCount() - startGcCount);
+		json.append(",\"ms\":").append(getGcMillis() - startGcMillis).append('}');
+		json.append(",\"heapUsedMb\":").append((runtime.totalMemory() - runtime.freeMemory()) / MEGABYTE);
+		json.append(",\"heapMaxMb\":").append(runtime.maxMemory() / MEGABYTE);
+		json.append('}');
+		return json.toString();
+	}
+
+	/**
+	 * @return stages in the order they were first used
+	 */
+	public List<Stage> getStages() {
+		synchronized (stageOrder) {
+			return new ArrayList<Stage>(stageOrder);
+		}
+	}
+
+	/**
+	 * Stop taking snapshots, write a last one and print the time spent per stage.
+	 * Stages of threads running in parallel may add up to more than the elapsed time.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (timer != null) {
+			timer.shutdown();
+			try {
+				timer.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			writeSnapshot(snapshot());
+			if (output != null) {
+				output.close();
+			}
+		}
+		long elapsedNanos = System.nanoTime() - startTime;
+		System.out.printf("Time per stage of %s (%d seconds, %d garbage collections taking %d ms):\n", job,
+				elapsedNanos / 1000000000, getGcCount() - startGcCount, getGcMillis() - startGcMillis);
+		for (Stage stage : getStages()) {
+			long calls = stage.getCalls();
+			System.out.printf("%16s %10.1f s %6.1f %% %12d calls %10.1f us/call\n", stage.getName(),
+					stage.getNanos() / 1e9, 100.0 * stage.getNanos() / elapsedNanos, calls,
+					calls == 0 ? 0.0 : stage.getNanos() / 1000.0 / calls);
+		}
+	}
+
+	private void takeSnapshot() {
+		try {
+			String snapshot = snapshot();
+			writeSnapshot(snapshot);
+			System.out.println(summarize());
+		} catch (IOException | RuntimeException e) {
+			// metrics must never stop the job
+			System.out.println("Cannot write metrics: " + e);
+		}
+	}
+
+	private synchronized void writeSnapshot(String snapshot) throws IOException {
+		if (output == null) {
+			output = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8);
+		}
+		output.write(snapshot);
+		output.write('\n');
+		output.flush();
+	}
+
+	private String summarize() {
+		StringBuilder line = new StringBuilder();
+		line.append(job).append(' ').append((System.nanoTime() - startTime) / 1000000000).append(" s:");
+		synchronized (rates) {
+			for (Rate rate : rates) {
+				line.append(' ').append(rate.lastValue).append(' ').append(rate.name);
+				line.append(" (").append(rate.perSecond).append("/s)");
+			}
+		}
+		line.append(", heap ").append((Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) / MEGABYTE);
+		line.append(" MB");
+		return line.toString();
+	}
+
+	private static long getGcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, collector.getCollectionCount());
+		}
+		return count;
+	}
+
+	private static long getGcMillis() {
+		long millis = 0;
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			millis += Math.max(0, collector.getCollectionTime());
+		}
+		return millis;
+	}
+
+}
@@ -26,195 +26,334 @@
  */
 package org.graphipedia.dataimport;
 
-import java.io.StringWriter;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
 
-import be.devijver.wikipedia.Visitor;
-import be.devijver.wikipedia.parser.ast.Document;
-import be.devijver.wikipedia.parser.ast.parser.DefaultASTParser;
-import be.devijver.wikipedia.parser.wikitext.MarkupParser;
-
 public class LinkExtractor extends SimpleStaxParser {
 
-	private static final Pattern LINK_PATTERN = Pattern.compile("\\[\\[(.+?)\\]\\]");
-	private static final Pattern CATEGORIES_PATTERN = Pattern.compile("(?im)\\s*(\\[\\[Category:.+\\]\\])+\\s*$");
-	private static final Pattern CATEGORY_PATTERN = Pattern.compile("\\[\\[Category:([^\\|]+)\\|*.*\\]\\]");
+	/**
+	 * Pages that may be waiting for a worker or for the writer, per worker thread.
+	 */
+	private static final int PAGES_IN_FLIGHT_PER_THREAD = 16;
+
+	/**
+	 * Pages reported by {@link #getSlowestPages()}.
+	 */
+	private static final int SLOWEST_PAGES = 10;
+
+	private static final int PAGE = 0;
+	private static final int TITLE = 1;
+	private static final int TEXT = 2;
 
-	private final XMLStreamWriter writer;
-	private final ProgressCounter pageCounter = new ProgressCounter();
+	private static final String STAGE = "extract";
+	private static final String INPUT_OFFSET = "input.offset";
+	private static final String ROOT_ELEMENT = "input.root";
+	private static final String PAGE_COUNT = "pages";
+	private static final String OVER_BUDGET_COUNT = "pages.overBudget";
+	private static final String REDIRECTED_LINK_COUNT = "links.redirected";
+
+	/**
+	 * A page with the input offset right after it, where to resume once it is written.
+	 */
+	private static class ParsedPage {
+
+		private final ExtractedPage page;
+		private final long inputOffset;
+
+		private ParsedPage(ExtractedPage page, long inputOffset) {
+			this.page = page;
+			this.inputOffset = inputOffset;
+		}
 
+	}
+
+	private final PageWriter writer;
+	private final Checkpoint checkpoint;
+	private final ProgressCounter pageCounter;
+	private final SlowestPages slowestPages = new SlowestPages(SLOWEST_PAGES);
+	private int overBudgetCount = 0;
+	private final int threads;
+	private RedirectTable redirects;
+
+	private OrderedPipeline<ParsedPage> pipeline;
 	private String title;
 	private String text;
+	private volatile long textLength = 0;
+
+	private ImportMetrics.Stage plainTextStage;
+	private ImportMetrics.Stage linksStage;
+	private ImportMetrics.Stage redirectsStage;
+	private ImportMetrics.Stage writeStage;
+	private ImportMetrics.Stage checkpointStage;
 
 	public LinkExtractor(XMLStreamWriter writer) {
-		super(Arrays.asList("page", "title", "text"));
+		this(new XmlPageWriter(writer), 1);
+	}
+
+	/**
+	 * @param writer
+	 * @param threads amount of threads extracting pages, 1 to do everything in the parsing thread
+	 */
+	public LinkExtractor(PageWriter writer, int threads) {
+		this(writer, threads, null);
+	}
+
+	/**
+	 * @param writer created with the same checkpoint
+	 * @param threads amount of threads extracting pages, 1 to do everything in the parsing thread
+	 * @param checkpoint saved periodically, null for none. If a previous run saved
+	 * it, parsing resumes after the last page it recorded.
+	 */
+	public LinkExtractor(PageWriter writer, int threads, Checkpoint checkpoint) {
+		super(Arrays.asList("page", "title", "text"), Arrays.asList("siteinfo", "contributor", "comment"));
 		this.writer = writer;
+		this.threads = threads;
+		this.checkpoint = checkpoint;
+		if (checkpoint != null) {
+			this.pageCounter = new ProgressCounter((int) checkpoint.getLong(PAGE_COUNT));
+			this.overBudgetCount = (int) checkpoint.getLong(OVER_BUDGET_COUNT);
+		} else {
+			this.pageCounter = new ProgressCounter();
+		}
 	}
 
 	public int getPageCount() {
 		return pageCounter.getCount();
 	}
 
+	/**
+	 * Skip redirect pages and write links to them as links to their target.
+	 * @param redirects null to keep redirects as ordinary pages
+	 */
+	public void setRedirects(RedirectTable redirects) {
+		this.redirects = redirects;
+		if (redirects != null && checkpoint != null) {
+			redirects.setResolvedLinkCount(checkpoint.getLong(REDIRECTED_LINK_COUNT));
+		}
+	}
+
+	/**
+	 * Measure the time spent reading the dump, extracting plain text, scanning
+	 * links and writing pages, and count pages and characters of wiki markup.
+	 * @param metrics
+	 */
+	public void setMetrics(ImportMetrics metrics) {
+		setReadStage(metrics.stage("xml"));
+		plainTextStage = metrics.stage("plainText");
+		linksStage = metrics.stage("links");
+		redirectsStage = metrics.stage("redirects");
+		writeStage = metrics.stage("write");
+		checkpointStage = metrics.stage("checkpoint");
+		metrics.gauge("pages", pageCounter::getCount);
+		metrics.gauge("chars", () -> textLength);
+	}
+
+	/**
+	 * @return pages whose plain text was stripped because they were over budget
+	 */
+	public int getOverBudgetCount() {
+		return overBudgetCount;
+	}
+
+	/**
+	 * @return pages that took longest to extract, slowest first
+	 */
+	public List<SlowestPages.Timing> getSlowestPages() {
+		return slowestPages.getSlowest();
+	}
+
+	/**
+	 * @param checkpoint
+	 * @return whether a previous run extracted the whole input
+	 */
+	public static boolean isDone(Checkpoint checkpoint) {
+		return checkpoint.isDone(STAGE);
+	}
+
 	@Override
-	protected void handleElement(String element, String value) {
-		if ("page".equals(element)) {
+	public void parse(String fileName) throws IOException, XMLStreamException {
+		if (threads <= 1) {
+			resume(fileName);
+			return;
+		}
+		pipeline = new OrderedPipeline<ParsedPage>("extract", threads,
+				threads * PAGES_IN_FLIGHT_PER_THREAD, this::writePage);
+		try {
+			resume(fileName);
+		} finally {
+			finishPipeline();
+		}
+	}
+
+	/**
+	 * Record that the whole input was extracted, once the writer is closed.
+	 * @throws IOException
+	 */
+	public void done() throws IOException {
+		if (checkpoint != null) {
+			checkpoint.done(STAGE);
+		}
+	}
+
+	private void resume(String fileName) throws IOException, XMLStreamException {
+		if (checkpoint != null && checkpoint.getLong(INPUT_OFFSET) > 0) {
+			System.out.printf("Resuming after %d pages...\n", pageCounter.getCount());
+			super.parse(fileName, checkpoint.getLong(INPUT_OFFSET), checkpoint.getString(ROOT_ELEMENT));
+		} else {
+			super.parse(fileName);
+		}
+	}
+
+	@Override
+	protected void handleElement(int symbol, CharSequence value) {
+		if (symbol == PAGE) {
+			long inputOffset = checkpoint != null ? getInputOffset() : 0;
 			if (!title.contains(":")) {
-				try {
-					writePage(title, text);
-				} catch (XMLStreamException streamException) {
-					throw new RuntimeException(streamException);
+				if (redirects == null || !RedirectTable.isRedirect(text)) {
+					handlePage(title, false, text, inputOffset);
 				}
 			} else if (title.contains("Category:")) {
-				title = title.substring(title.indexOf(':') + 1);
-				try {
-					writeCategory(title, text);
-				} catch (XMLStreamException streamException) {
-					throw new RuntimeException(streamException);
-				}
+				handlePage(title.substring(title.indexOf(':') + 1), true, text, inputOffset);
 				// System.out.println(title);
 			}
+			if (text != null) {
+				// only this thread writes it
+				textLength = textLength + text.length();
+			}
 			title = null;
 			text = null;
-		} else if ("title".equals(element)) {
-			title = value;
-		} else if ("text".equals(element)) {
-			text = value;
-		}
-	}
-
-	private void writePage(String title, String text) throws XMLStreamException {
-		writer.writeStartElement("p");
-
-		writer.writeStartElement("t");
-		writer.writeCharacters(title);
-		writer.writeEndElement();
-
-		
-		if (text != null) {
-			String plainText = getPlainText(text);
-			writer.writeStartElement("text");
-			writer.writeCharacters(plainText);
-			writer.writeEndElement();
-
-			// remove special text of the kind {{ ... }}
-			text = text.replaceAll("\\s*\\{\\{.+\\}\\}\\s*", "");
-			
-			// parse categories
-			Set<String> categories = parseCategories(text);
-			for (String category : categories) {
-				writer.writeStartElement("c");
-				writer.writeCharacters(category);
-				writer.writeEndElement();
-			}
+		} else if (symbol == TITLE) {
+			title = value.toString();
+		} else if (symbol == TEXT) {
+			text = value.toString();
+		}
+	}
 
-			// parse links
-			Set<String> links = parseLinks(text);
-			links.remove(title);
-			for (String link : links) {
-				writer.writeStartElement("l");
-				writer.writeCharacters(link);
-				writer.writeEndElement();
+	private void handlePage(String title, boolean category, String text, long inputOffset) {
+		if (pipeline != null) {
+			pipeline.submit(() -> new ParsedPage(extractPage(title, category, text), inputOffset));
+		} else {
+			try {
+				writePage(new ParsedPage(extractPage(title, category, text), inputOffset));
+			} catch (IOException ioException) {
+				throw new RuntimeException(ioException);
 			}
-
 		}
-
-		writer.writeEndElement();
-
-		pageCounter.increment();
 	}
 
-	private void writeCategory(String title, String text) throws XMLStreamException {
-		writer.writeStartElement("p");
-
-		writer.writeStartElement("q");
-		writer.writeCharacters(title);
-		writer.writeEndElement();
+	private void finishPipeline() throws IOException, XMLStreamException {
+		try {
+			pipeline.finish();
+		} catch (IOException | XMLStreamException | RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			pipeline = null;
+		}
+	}
 
-		if (text != null) {
-			// remove special text of the kind {{ ... }}
-			text = text.replaceAll("\\s*\\{\\{.+\\}\\}\\s*", "");
+	/**
+	 * Extract plain text, categories and links of a page. It does not depend
+	 * on the state of the extractor, so it may run in any thread.
+	 * @param title
+	 * @param category whether the page describes a category
+	 * @param text wiki markup of the page, may be null
+	 * @return
+	 */
+	public static ExtractedPage extractPage(String title, boolean category, String text) {
+		if (text == null) {
+			return new ExtractedPage(title, category, null, null, null);
+		}
+		long startTime = System.nanoTime();
+		String plainText = null;
+		boolean overBudget = false;
+		if (!category) {
+			plainText = PlainTextExtractor.extract(text);
+			if (plainText == null) {
+				plainText = PlainTextExtractor.strip(text);
+				overBudget = true;
+			}
+		}
+		long plainTextNanos = System.nanoTime() - startTime;
 
-			// parse categories
-			Set<String> categories = parseCategories(text);
-			categories.remove(title);
-			for (String category : categories) {
-				writer.writeStartElement("c");
-				writer.writeCharacters(category);
-				writer.writeEndElement();
+		// links and categories inside of templates {{ ... }} are ignored
+		Set<String> categories = new HashSet<String>();
+		Set<String> links = new HashSet<String>();
+		WikitextScanner.scan(text, new WikitextScanner.Handler() {
+			@Override
+			public void link(CharSequence text, int start, int end, int targetEnd) {
+				links.add(text.subSequence(start + 2, targetEnd).toString());
 			}
 
-			// parse links
-			Set<String> links = parseLinks(text);
-			links.remove(title);
-			for (String link : links) {
-				writer.writeStartElement("l");
-				writer.writeCharacters(link);
-				writer.writeEndElement();
+			@Override
+			public void category(CharSequence text, int start, int end, int nameStart, int nameEnd) {
+				categories.add(text.subSequence(nameStart, nameEnd).toString());
 			}
+		});
+		if (category) {
+			categories.remove(title);
 		}
-
-		writer.writeEndElement();
-
-		pageCounter.increment();
+		links.remove(title);
+		return new ExtractedPage(title, category, plainText, categories, links, ExtractedPage.hash(text),
+				plainTextNanos, System.nanoTime() - startTime, overBudget);
 	}
 
-	private Set<String> parseCategories(String text) {
-		Set<String> categories = new HashSet<String>();
-		if (text != null) {
-			Matcher matcher = CATEGORIES_PATTERN.matcher(text);
-			while (matcher.find()) {
-				String link = matcher.group(1);
-				Matcher matcher2 = CATEGORY_PATTERN.matcher(link);
-				if (matcher2.find()) {
-					categories.add(matcher2.group(1));
-				}
+	private void writePage(ParsedPage parsed) throws IOException {
+		ExtractedPage page = parsed.page;
+		long startTime = System.nanoTime();
+		if (redirects != null) {
+			// the table is not thread-safe, it is only used by the writing thread
+			page = redirects.resolve(page);
+			if (redirectsStage != null) {
+				redirectsStage.addSince(startTime);
+				startTime = System.nanoTime();
 			}
 		}
-		return categories;
-	}
-
-	private Set<String> parseLinks(String text) {
-		Set<String> links = new HashSet<String>();
-		if (text != null) {
-			Matcher matcher = LINK_PATTERN.matcher(text);
-			while (matcher.find()) {
-				String link = matcher.group(1);
-				if (!link.contains(":")) {
-					if (link.contains("|")) {
-						link = link.substring(0, link.lastIndexOf('|'));
-					}
-					links.add(link);
-				}
+		writer.writePage(page);
+		if (writeStage != null) {
+			writeStage.addSince(startTime);
+			plainTextStage.add(page.getPlainTextNanos());
+			linksStage.add(page.getParseNanos() - page.getPlainTextNanos());
+		}
+		pageCounter.increment();
+		slowestPages.add(page.getTitle(), page.getParseNanos());
+		if (page.isOverBudget()) {
+			overBudgetCount++;
+		}
+		if (checkpoint != null && checkpoint.isDue()) {
+			startTime = System.nanoTime();
+			writer.checkpoint(checkpoint);
+			checkpoint.setStage(STAGE);
+			checkpoint.set(INPUT_OFFSET, parsed.inputOffset);
+			checkpoint.set(ROOT_ELEMENT, getRootElement());
+			checkpoint.set(PAGE_COUNT, pageCounter.getCount());
+			checkpoint.set(OVER_BUDGET_COUNT, overBudgetCount);
+			if (redirects != null) {
+				checkpoint.set(REDIRECTED_LINK_COUNT, redirects.getResolvedLinkCount());
+			}
+			checkpoint.save();
+			if (checkpointStage != null) {
+				checkpointStage.addSince(startTime);
 			}
 		}
-		return links;
 	}
 
 	/**
 	 * Extract plain text from a wikipedia article, removing lists, tables, etc.
+	 * Articles over the budget of {@link PlainTextExtractor} are only stripped.
 	 * @param text
 	 * @return
 	 */
 	public static String getPlainText(String text) {
-		StringWriter sw = new StringWriter();
-		Visitor visitor = new PlainTextVisitor(sw, true);
-		if (visitor != null) {
-			try {
-				Document document = new MarkupParser(text).parseDocument();
-				DefaultASTParser parser = new DefaultASTParser(document);
-				parser.parse(visitor);
-			} catch (Exception e) {
-				// System.err.println("Error: "+e);
-			}
-		}
-		return sw.toString();
+		String plainText = PlainTextExtractor.extract(text);
+		return plainText != null ? plainText : PlainTextExtractor.strip(text);
 	}
 
 }
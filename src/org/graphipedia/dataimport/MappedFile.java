@@ -0,0 +1,87 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graphipedia.dataimport;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Read-only memory mapping of a file of any size. Java can only map 2 GB at
+ * once, so the file is mapped through a sliding window that is moved whenever
+ * a requested range falls outside of it. Sequential scans therefore remap only
+ * once per window.
+ *
+ * Not thread-safe: every thread should use its own instance.
+ * @author cotrino
+ *
+ */
+public class MappedFile implements Closeable {
+
+	private static final long WINDOW_SIZE = 1L << 30;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final long size;
+
+	private ByteBuffer window;
+	private long windowStart;
+	private long windowEnd;
+
+	public MappedFile(File file) throws IOException {
+		this.file = new RandomAccessFile(file, "r");
+		this.channel = this.file.getChannel();
+		this.size = channel.size();
+	}
+
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * Get a buffer positioned at the given file offset, with at least length bytes remaining.
+	 * The buffer is only valid until the next call.
+	 * @param position offset in the file
+	 * @param length bytes that will be read
+	 * @return
+	 * @throws IOException
+	 */
+	public ByteBuffer map(long position, int length) throws IOException {
+		if (position < 0 || position + length > size) {
+			throw new IOException("Range " + position + "+" + length + " outside of file of " + size + " bytes");
+		}
+		if (window == null || position < windowStart || position + length > windowEnd) {
+			long windowSize = Math.min(Math.max(WINDOW_SIZE, length), size - position);
+			window = channel.map(MapMode.READ_ONLY, position, windowSize);
+			windowStart = position;
+			windowEnd = position + windowSize;
+		}
+		window.position((int) (position - windowStart));
+		return window;
+	}
+
+	@Override
+	public void close() throws IOException {
+		window = null;
+		file.close();
+	}
+
+}
@@ -0,0 +1,142 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graphipedia.dataimport;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Hands out fixed-size pages of off-heap memory. Pages are allocated as direct
+ * buffers until the configured limit is reached; beyond it, they are
+ * memory-mapped from a spill file, so that the operating system may page them
+ * out when physical memory runs short.
+ *
+ * Not thread-safe.
+ * @author cotrino
+ *
+ */
+public class MemoryBudget implements Closeable {
+
+	public static final int DEFAULT_PAGE_SIZE = 16 * 1024 * 1024;
+
+	private final long limit;
+	private final File spillDirectory;
+	private final int pageSize;
+
+	private long allocated = 0;
+	private File spillFile;
+	private RandomAccessFile spill;
+	private long spillSize = 0;
+	private final Set<ByteBuffer> spilledPages = Collections.newSetFromMap(new IdentityHashMap<ByteBuffer, Boolean>());
+
+	/**
+	 * @param limit bytes that may be allocated in memory before spilling to disk
+	 * @param spillDirectory where to create the spill file, if needed
+	 */
+	public MemoryBudget(long limit, File spillDirectory) {
+		this(limit, spillDirectory, DEFAULT_PAGE_SIZE);
+	}
+
+	/**
+	 * @param limit bytes that may be allocated in memory before spilling to disk
+	 * @param spillDirectory where to create the spill file, if needed
+	 * @param pageSize size of every page, must be a power of two
+	 */
+	public MemoryBudget(long limit, File spillDirectory, int pageSize) {
+		if (Integer.bitCount(pageSize) != 1) {
+			throw new IllegalArgumentException("Page size must be a power of two: " + pageSize);
+		}
+		this.limit = limit;
+		this.spillDirectory = spillDirectory;
+		this.pageSize = pageSize;
+	}
+
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	/**
+	 * @return bytes allocated in memory
+	 */
+	public long getAllocated() {
+		return allocated;
+	}
+
+	/**
+	 * @return bytes mapped from the spill file
+	 */
+	public long getSpilled() {
+		return spillSize;
+	}
+
+	/**
+	 * Allocate a zeroed page.
+	 * @param size bytes, at most the page size
+	 * @return
+	 */
+	public ByteBuffer allocate(int size) {
+		if (size > pageSize) {
+			throw new IllegalArgumentException("Cannot allocate more than a page: " + size);
+		}
+		if (allocated + size <= limit) {
+			allocated += size;
+			return ByteBuffer.allocateDirect(size);
+		}
+		try {
+			if (spill == null) {
+				spillFile = File.createTempFile("index", ".spill", spillDirectory);
+				spillFile.deleteOnExit();
+				spill = new RandomAccessFile(spillFile, "rw");
+			}
+			ByteBuffer page = spill.getChannel().map(MapMode.READ_WRITE, spillSize, size);
+			spillSize += size;
+			spilledPages.add(page);
+			return page;
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot spill index to " + spillDirectory, e);
+		}
+	}
+
+	/**
+	 * Give back a page that is no longer used. Memory pages are returned to
+	 * the budget; spilled pages keep their place in the spill file.
+	 * @param page
+	 */
+	public void release(ByteBuffer page) {
+		if (!spilledPages.remove(page)) {
+			allocated -= page.capacity();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (spill != null) {
+			spilledPages.clear();
+			spill.close();
+			spillFile.delete();
+			spill = null;
+		}
+	}
+
+}
@@ -0,0 +1,207 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graphipedia.dataimport;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+/**
+ * Reads a multistream bzip2 Wikipedia dump (pages-articles-multistream.xml.bz2).
+ *
+ * Such dumps are a concatenation of independent bzip2 streams of about 100
+ * pages each, whose byte offsets are listed in the companion index file
+ * (lines of the form "offset:pageId:title"). Streams are decompressed in
+ * parallel and returned in their original order, so readers see the same
+ * XML as in the uncompressed dump.
+ * @author cotrino
+ *
+ */
+public class MultistreamBzip2InputStream extends InputStream {
+
+	private static final int STREAMS_IN_FLIGHT_PER_THREAD = 4;
+
+	private final FileChannel channel;
+	private final RandomAccessFile file;
+	private final long[] boundaries;
+	private final ExecutorService workers;
+	private final Deque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+	private final int window;
+
+	private int nextStream = 0;
+	private byte[] buffer = new byte[0];
+	private int position = 0;
+
+	public MultistreamBzip2InputStream(File dump, File index, int threads) throws IOException {
+		this.file = new RandomAccessFile(dump, "r");
+		this.channel = file.getChannel();
+		this.boundaries = readBoundaries(index, channel.size());
+		this.window = threads * STREAMS_IN_FLIGHT_PER_THREAD;
+		this.workers = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, "bzip2-worker");
+			thread.setDaemon(true);
+			return thread;
+		});
+		fill();
+	}
+
+	/**
+	 * Companion index of a multistream dump, following the naming of
+	 * dumps.wikimedia.org: xxx-multistream.xml.bz2 and xxx-multistream-index.txt.bz2
+	 * @param dump
+	 * @return index file, or null if there is none next to the dump
+	 */
+	public static File getIndexFile(File dump) {
+		String name = dump.getName();
+		if (!name.endsWith(".xml.bz2")) {
+			return null;
+		}
+		String indexName = name.substring(0, name.length() - ".xml.bz2".length()) + "-index.txt.bz2";
+		File index = new File(dump.getParentFile(), indexName);
+		return index.isFile() ? index : null;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!nextBuffer()) {
+			return -1;
+		}
+		return buffer[position++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!nextBuffer()) {
+			return -1;
+		}
+		int count = Math.min(len, buffer.length - position);
+		System.arraycopy(buffer, position, b, off, count);
+		position += count;
+		return count;
+	}
+
+	@Override
+	public void close() throws IOException {
+		workers.shutdownNow();
+		file.close();
+	}
+
+	/**
+	 * Make sure that there are bytes left in the current buffer.
+	 * @return false at the end of the dump
+	 */
+	private boolean nextBuffer() throws IOException {
+		while (position >= buffer.length) {
+			Future<byte[]> next = pending.poll();
+			if (next == null) {
+				return false;
+			}
+			try {
+				buffer = next.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			} catch (ExecutionException e) {
+				throw new IOException("Cannot decompress stream", e.getCause());
+			}
+			position = 0;
+			fill();
+		}
+		return true;
+	}
+
+	private void fill() {
+		while (pending.size() < window && nextStream < boundaries.length - 1) {
+			final long start = boundaries[nextStream];
+			final long end = boundaries[nextStream + 1];
+			pending.add(workers.submit(() -> decompress(start, end)));
+			nextStream++;
+		}
+	}
+
+	private byte[] decompress(long start, long end) throws IOException {
+		ByteBuffer compressed = ByteBuffer.allocate((int) (end - start));
+		while (compressed.hasRemaining()) {
+			if (channel.read(compressed, start + compressed.position()) < 0) {
+				throw new IOException("Unexpected end of dump at byte " + (start + compressed.position()));
+			}
+		}
+		ByteArrayOutputStream output = new ByteArrayOutputStream(compressed.capacity() * 5);
+		try (InputStream input = new BZip2CompressorInputStream(new ByteArrayInputStream(compressed.array()), true)) {
+			byte[] chunk = new byte[64 * 1024];
+			int count;
+			while ((count = input.read(chunk)) >= 0) {
+				output.write(chunk, 0, count);
+			}
+		}
+		return output.toByteArray();
+	}
+
+	/**
+	 * Offsets of every stream, starting with 0 for the header stream (siteinfo)
+	 * and ending with the dump size, after the footer stream.
+	 */
+	private static long[] readBoundaries(File index, long dumpSize) throws IOException {
+		long[] offsets = new long[1024];
+		int count = 1;
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new BZip2CompressorInputStream(new FileInputStream(index), true), "UTF-8"))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int colon = line.indexOf(':');
+				if (colon <= 0) {
+					continue;
+				}
+				long offset = Long.parseLong(line.substring(0, colon));
+				if (offset != offsets[count - 1]) {
+					if (count == offsets.length) {
+						offsets = Arrays.copyOf(offsets, count * 2);
+					}
+					offsets[count++] = offset;
+				}
+			}
+		}
+		if (offsets[count - 1] < dumpSize) {
+			if (count == offsets.length) {
+				offsets = Arrays.copyOf(offsets, count + 1);
+			}
+			offsets[count++] = dumpSize;
+		}
+		return Arrays.copyOf(offsets, count);
+	}
+
+}
@@ -0,0 +1,129 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graphipedia.dataimport;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs tasks on a pool of worker threads and hands their results to a single
+ * consumer thread in the same order in which the tasks were submitted.
+ *
+ * The amount of tasks in flight is bounded, so a fast producer blocks
+ * instead of filling up the heap when workers or consumer fall behind.
+ * @author cotrino
+ *
+ * @param <T> result of every task
+ */
+public class OrderedPipeline<T> {
+
+	/**
+	 * Receives the results of the tasks, always from the same thread.
+	 */
+	public interface Sink<T> {
+		void accept(T result) throws Exception;
+	}
+
+	private static final Future<Object> END_OF_INPUT = CompletableFuture.completedFuture(null);
+
+	private final ExecutorService workers;
+	private final BlockingQueue<Future<?>> results;
+	private final Thread consumer;
+	private final Sink<T> sink;
+	private volatile Throwable failure;
+
+	public OrderedPipeline(String name, int threads, int capacity, Sink<T> sink) {
+		this.sink = sink;
+		this.results = new ArrayBlockingQueue<Future<?>>(capacity);
+		this.workers = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, name + "-worker");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.consumer = new Thread(this::consume, name + "-writer");
+		this.consumer.setDaemon(true);
+		this.consumer.start();
+	}
+
+	/**
+	 * Queue a task, blocking while the pipeline is full.
+	 * @param task
+	 */
+	public void submit(Callable<T> task) {
+		checkFailure();
+		try {
+			results.put(workers.submit(task));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Wait until every submitted task has been consumed and release the threads.
+	 * @throws Exception first error thrown by a task or by the sink
+	 */
+	public void finish() throws Exception {
+		try {
+			results.put(END_OF_INPUT);
+			consumer.join();
+		} finally {
+			workers.shutdownNow();
+		}
+		if (failure instanceof Exception) {
+			throw (Exception) failure;
+		} else if (failure != null) {
+			throw new RuntimeException(failure);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void consume() {
+		try {
+			Future<?> result;
+			while ((result = results.take()) != END_OF_INPUT) {
+				if (failure != null) {
+					// keep draining so that the producer never blocks forever
+					result.cancel(true);
+					continue;
+				}
+				try {
+					sink.accept((T) result.get());
+				} catch (ExecutionException e) {
+					failure = e.getCause();
+				} catch (Throwable e) {
+					failure = e;
+				}
+			}
+		} catch (InterruptedException e) {
+			failure = e;
+		}
+	}
+
+	private void checkFailure() {
+		if (failure != null) {
+			throw new RuntimeException("Pipeline aborted", failure);
+		}
+	}
+
+}
@@ -0,0 +1,41 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graphipedia.dataimport;
+
+import java.io.IOException;
+
+/**
+ * Destination of the pages extracted by {@link LinkExtractor}.
+ * Pages are always written from a single thread.
+ * @author cotrino
+ *
+ */
+public interface PageWriter {
+
+	void writePage(ExtractedPage page) throws IOException;
+
+	/**
+	 * Flush the pages written so far and record in the checkpoint how to go on
+	 * writing after them, in a writer created with the same checkpoint.
+	 * @param checkpoint
+	 * @throws IOException
+	 */
+	void checkpoint(Checkpoint checkpoint) throws IOException;
+
+	void close() throws IOException;
+
+}
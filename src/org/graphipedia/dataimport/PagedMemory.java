@@ -0,0 +1,209 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graphipedia.dataimport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Off-heap byte space addressed by long offsets, made of pages taken from a
+ * {@link MemoryBudget}. Values never straddle two pages, as long as their
+ * size divides the page size or they are placed with {@link #append(int)}.
+ * @author cotrino
+ *
+ */
+class PagedMemory {
+
+	private final MemoryBudget budget;
+	private final int pageBits;
+	private final int pageMask;
+
+	private ByteBuffer[] pages = new ByteBuffer[16];
+	private int pageCount = 0;
+	private long capacity = 0;
+	private long end = 0;
+
+	PagedMemory(MemoryBudget budget) {
+		this.budget = budget;
+		this.pageBits = Integer.numberOfTrailingZeros(budget.getPageSize());
+		this.pageMask = budget.getPageSize() - 1;
+	}
+
+	/**
+	 * Allocate a zeroed area of the given size, starting at offset 0. Areas
+	 * smaller than a page take a single page of exactly that size.
+	 * @param budget
+	 * @param size
+	 * @return
+	 */
+	static PagedMemory allocate(MemoryBudget budget, long size) {
+		PagedMemory memory = new PagedMemory(budget);
+		while (memory.capacity < size) {
+			memory.addPage((int) Math.min(budget.getPageSize(), size - memory.capacity));
+		}
+		memory.end = size;
+		return memory;
+	}
+
+	/**
+	 * Reserve space at the end of the memory, skipping to a new page if the
+	 * current one does not have enough room left.
+	 * @param size bytes, at most the page size
+	 * @return offset of the reserved space
+	 */
+	long append(int size) {
+		long pageEnd = (end | pageMask) + 1;
+		if (end + size > pageEnd || end + size > capacity) {
+			if (end + size > pageEnd) {
+				end = pageEnd;
+			}
+			if (end + size > capacity) {
+				addPage(budget.getPageSize());
+				end = capacity - budget.getPageSize();
+			}
+		}
+		long offset = end;
+		end += size;
+		return offset;
+	}
+
+	byte get(long offset) {
+		return page(offset).get(index(offset));
+	}
+
+	void put(long offset, byte value) {
+		page(offset).put(index(offset), value);
+	}
+
+	int getShort(long offset) {
+		return page(offset).getShort(index(offset)) & 0xffff;
+	}
+
+	void putShort(long offset, int value) {
+		page(offset).putShort(index(offset), (short) value);
+	}
+
+	long getLong(long offset) {
+		return page(offset).getLong(index(offset));
+	}
+
+	void putLong(long offset, long value) {
+		page(offset).putLong(index(offset), value);
+	}
+
+	void get(long offset, byte[] bytes, int length) {
+		ByteBuffer page = page(offset).duplicate();
+		page.position(index(offset));
+		page.get(bytes, 0, length);
+	}
+
+	void put(long offset, byte[] bytes, int length) {
+		ByteBuffer page = page(offset).duplicate();
+		page.position(index(offset));
+		page.put(bytes, 0, length);
+	}
+
+	/**
+	 * @return bytes in use, up to the end of the last reserved space
+	 */
+	long size() {
+		return end;
+	}
+
+	/**
+	 * Reserve whole pages up to the given size, as if it had been filled with {@link #append(int)}.
+	 * @param size
+	 */
+	void extend(long size) {
+		while (capacity < size) {
+			addPage(budget.getPageSize());
+		}
+		end = Math.max(end, size);
+	}
+
+	/**
+	 * Write the bytes in use.
+	 * @param channel
+	 * @throws IOException
+	 */
+	void writeTo(WritableByteChannel channel) throws IOException {
+		for (int i = 0; i < pageCount; i++) {
+			ByteBuffer page = usedPart(i);
+			while (page.hasRemaining()) {
+				channel.write(page);
+			}
+		}
+	}
+
+	/**
+	 * Fill the bytes in use, as written by {@link #writeTo(WritableByteChannel)}.
+	 * @param channel
+	 * @throws IOException
+	 */
+	void readFrom(ReadableByteChannel channel) throws IOException {
+		for (int i = 0; i < pageCount; i++) {
+			ByteBuffer page = usedPart(i);
+			while (page.hasRemaining()) {
+				if (channel.read(page) < 0) {
+					throw new EOFException("Truncated snapshot");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Give all pages back to the budget.
+	 */
+	void free() {
+		for (int i = 0; i < pageCount; i++) {
+			budget.release(pages[i]);
+			pages[i] = null;
+		}
+		pageCount = 0;
+		capacity = 0;
+		end = 0;
+	}
+
+	private void addPage(int size) {
+		if (pageCount == pages.length) {
+			pages = Arrays.copyOf(pages, pageCount * 2);
+		}
+		pages[pageCount++] = budget.allocate(size);
+		capacity += budget.getPageSize();
+	}
+
+	private ByteBuffer usedPart(int index) {
+		ByteBuffer page = pages[index].duplicate();
+		long pageStart = (long) index << pageBits;
+		page.clear();
+		page.limit((int) Math.max(0, Math.min(page.capacity(), end - pageStart)));
+		return page;
+	}
+
+	private ByteBuffer page(long offset) {
+		return pages[(int) (offset >>> pageBits)];
+	}
+
+	private int index(long offset) {
+		return (int) offset & pageMask;
+	}
+
+}
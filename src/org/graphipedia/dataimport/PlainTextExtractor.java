@@ -0,0 +1,1083 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graphipedia.dataimport;
+
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringEscapeUtils;
+
+/**
+ * Extracts plain text from wiki markup in a single pass, writing directly into
+ * a buffer that is reused by every call from the same thread.
+ *
+ * It produces the same output as parsing the markup into a
+ * <code>be.devijver.wikipedia</code> document and walking it with
+ * {@link PlainTextVisitor}, including its quirks: paragraphs that end with a
+ * link or with bold or italic text are left out, lists, headings, indented
+ * and preformatted lines are skipped, and everything after a list item that
+ * the old parser could not handle is lost. Instead of building the document,
+ * the lexer below follows the same steps as <code>MarkupParser</code> and
+ * applies the effect of every visitor call as soon as it is known, undoing
+ * them when the old parser would have discarded a line.
+ *
+ * The only known difference are tables, whose contents are skipped without
+ * being parsed.
+ *
+ * Every article has a budget of length, steps and nesting, so that a few huge
+ * or malformed pages cannot stall an import. Articles over budget are not
+ * parsed, callers may fall back to {@link #strip(String)}.
+ * @author cotrino
+ *
+ */
+public class PlainTextExtractor {
+
+	private static final ThreadLocal<PlainTextExtractor> EXTRACTORS = ThreadLocal.withInitial(PlainTextExtractor::new);
+
+	/**
+	 * Buffers larger than this are not kept after a call.
+	 */
+	private static final int MAX_RETAINED_BUFFER = 1024 * 1024;
+
+	/**
+	 * Escaped form of every ISO-8859-1 character, as written by StringEscapeUtils.escapeHtml3.
+	 */
+	private static final String[] ESCAPES = new String[256];
+
+	static {
+		for (int c = 0; c < ESCAPES.length; c++) {
+			String character = String.valueOf((char) c);
+			String escaped = StringEscapeUtils.escapeHtml3(character);
+			if (!escaped.equals(character)) {
+				ESCAPES[c] = escaped;
+			}
+		}
+	}
+
+	// classes of the top level lines, which decide where lists start and end
+	private static final int NONE = 0;
+	private static final int PARAGRAPH = 1;
+	private static final int HEADING = 2;
+	private static final int UNORDERED_LIST = 3;
+	private static final int ORDERED_LIST = 4;
+	private static final int INDENT = 5;
+	private static final int LITERAL = 6;
+
+	// constructs that block the output, like the blockingOutput of PlainTextVisitor
+	private static final int OPEN = 0;
+	private static final int BLOCK_CAPTION = 1;
+	private static final int BLOCK_UNORDERED_LIST = 2;
+	private static final int BLOCK_ORDERED_LIST = 3;
+	private static final int BLOCK_LIST_ITEM = 4;
+	private static final int BLOCK_QUOTE = 5;
+	private static final int BLOCK_PRE = 6;
+	private static final int BLOCK_HEADING = 7;
+
+	private static final int MAX_HEADING_DEPTH = 6;
+
+	/**
+	 * Thrown where MarkupParser throws while parsing.
+	 */
+	private static class MarkupException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public synchronized Throwable fillInStackTrace() {
+			return this;
+		}
+
+	}
+
+	private static final MarkupException MARKUP_EXCEPTION = new MarkupException();
+
+	/**
+	 * Longest article parsed, in characters. Longer ones are left to {@link #strip(String)}.
+	 */
+	public static final int MAX_TEXT_LENGTH = 512 * 1024;
+
+	/**
+	 * Characters the parser may move over per character of the article. Unclosed
+	 * constructs make it look ahead again and again, well-formed articles need
+	 * less than 10.
+	 */
+	public static final int MAX_STEPS_PER_CHAR = 100;
+
+	/**
+	 * Deepest nesting of bold, italics and link captions.
+	 */
+	public static final int MAX_DEPTH = 64;
+
+	/**
+	 * Thrown when the article exceeds its budget of steps or nesting.
+	 */
+	private static class BudgetException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public synchronized Throwable fillInStackTrace() {
+			return this;
+		}
+
+	}
+
+	private static final BudgetException BUDGET_EXCEPTION = new BudgetException();
+
+	// cheap fallback for articles over budget
+	private static final Pattern TEMPLATE = Pattern.compile("\\{\\{[^{}]*\\}\\}");
+	private static final Pattern TABLE_LINE = Pattern.compile("(?m)^[ \\t]*[{|!].*$");
+	private static final Pattern TAG = Pattern.compile("<[^<>\\n]*>");
+	private static final Pattern FORMATTING = Pattern.compile("(?m)'{2,}|^[*#:;]+ *|^=+ *| *=+ *$");
+	private static final Pattern NEWLINES = Pattern.compile("\\n+");
+
+	// lexer
+	private String text;
+	private int position;
+	private int end;
+	private boolean inBold;
+	private boolean inItalics;
+	private char[] markers = new char[16];
+
+	// last construct found by the lexer
+	private int linkStart;
+	private int linkEnd;
+	private int captionStart;
+	private int captionEnd;
+	private int nowikiStart;
+	private int nowikiEnd;
+	private int headingStart;
+	private int headingEnd;
+	private char specialConstruct;
+
+	// output
+	private StringBuilder out = new StringBuilder();
+	private int blocking;
+	private int caption;
+	private int crashAt;
+	private boolean crashed;
+
+	// the end of the last list item depends on the line that follows it
+	private int lastClass;
+	private int pendingList;
+	private int pendingIndents;
+	private boolean pendingAbsorb;
+
+	// budget
+	private long steps;
+	private int depth;
+
+	private PlainTextExtractor() {
+	}
+
+	/**
+	 * @param text wiki markup
+	 * @return plain text with links kept as [[Target|label]], HTML escaped,
+	 * or null if the article is over budget
+	 */
+	public static String extract(String text) {
+		if (text.length() > MAX_TEXT_LENGTH) {
+			return null;
+		}
+		return EXTRACTORS.get().getPlainText(text);
+	}
+
+	/**
+	 * Remove markup with a few regular expressions, in linear time. Links are
+	 * kept as in {@link #extract(String)}, but nested templates, tables and
+	 * formatting are handled only roughly.
+	 * @param text wiki markup
+	 * @return plain text, HTML escaped
+	 */
+	public static String strip(String text) {
+		String stripped = text;
+		for (int i = 0; i < MAX_DEPTH; i++) {
+			String inner = TEMPLATE.matcher(stripped).replaceAll("");
+			if (inner.length() == stripped.length()) {
+				break;
+			}
+			stripped = inner;
+		}
+		stripped = TABLE_LINE.matcher(stripped).replaceAll("");
+		stripped = TAG.matcher(stripped).replaceAll("");
+		stripped = FORMATTING.matcher(stripped).replaceAll("");
+		stripped = NEWLINES.matcher(stripped).replaceAll("");
+		return StringEscapeUtils.escapeHtml3(StringEscapeUtils.unescapeHtml3(stripped.trim()));
+	}
+
+	private String getPlainText(String text) {
+		this.text = text;
+		position = 0;
+		end = text.length();
+		inBold = false;
+		inItalics = false;
+		out.setLength(0);
+		blocking = OPEN;
+		caption = 0;
+		crashAt = -1;
+		crashed = false;
+		lastClass = NONE;
+		pendingList = NONE;
+		pendingIndents = 0;
+		pendingAbsorb = false;
+		steps = (long) MAX_STEPS_PER_CHAR * end;
+		depth = 0;
+		try {
+			while (hasNextChar()) {
+				parseStartOfLine();
+				moveToNextChar();
+			}
+			return out.toString();
+		} catch (MarkupException e) {
+			// the old parser failed before producing anything
+			return "";
+		} catch (BudgetException e) {
+			return null;
+		} finally {
+			this.text = null;
+			if (out.capacity() > MAX_RETAINED_BUFFER) {
+				out = new StringBuilder();
+			}
+		}
+	}
+
+	/*
+	 * Lines
+	 */
+
+	private void parseStartOfLine() {
+		char c = currentChar();
+		if ((c == '*' || c == '#' || c == ':') && !isNextBeyondEnd()) {
+			parseListItem();
+			return;
+		} else if (c == '=' && !isNextBeyondEnd()) {
+			int initialPosition = position;
+			moveToNextChar();
+			int depth = currentChar() == '=' ? parseHeading() : -1;
+			if (depth > 0) {
+				visitHeading(depth);
+				return;
+			}
+			position = initialPosition;
+		} else if (c == ' ' && !isNextBeyondEnd()) {
+			moveToNextChar();
+			parseLiteral();
+			return;
+		}
+		if (c == '{' && parseSpecialConstruct()) {
+			resolvePending(PARAGRAPH, false);
+			visitSpecialConstruct();
+			lastClass = PARAGRAPH;
+			return;
+		}
+		parseParagraph();
+	}
+
+	private void parseParagraph() {
+		int markOut = out.length();
+		int markBlocking = blocking;
+		int markCaption = caption;
+		int markCrash = crashAt;
+		int markLastClass = lastClass;
+		int markPendingList = pendingList;
+		int markPendingIndents = pendingIndents;
+		boolean markPendingAbsorb = pendingAbsorb;
+		resolvePending(PARAGRAPH, false);
+		if (parseContentList()) {
+			lastClass = PARAGRAPH;
+			checkCrash();
+		} else {
+			// empty paragraphs are not added to the document
+			out.setLength(markOut);
+			blocking = markBlocking;
+			caption = markCaption;
+			crashAt = markCrash;
+			lastClass = markLastClass;
+			pendingList = markPendingList;
+			pendingIndents = markPendingIndents;
+			pendingAbsorb = markPendingAbsorb;
+		}
+	}
+
+	private void parseLiteral() {
+		resolvePending(LITERAL, false);
+		if (lastClass != LITERAL) {
+			// consecutive literals are visited as one
+			block(BLOCK_PRE);
+		}
+		int start = out.length();
+		if (!parseContentList()) {
+			crash(start);
+		}
+		lastClass = LITERAL;
+		checkCrash();
+	}
+
+	private void parseListItem() {
+		int count = 0;
+		boolean content = false;
+		markers[count++] = currentChar();
+		moveToNextChar();
+		for (;;) {
+			char c = currentChar();
+			if (c == '*' || c == '#' || c == ':') {
+				if (isNextBeyondEnd()) {
+					break;
+				}
+				if (count == markers.length) {
+					markers = Arrays.copyOf(markers, count * 2);
+				}
+				markers[count++] = c;
+				moveToNextChar();
+			} else if (c == ' ') {
+				if (!isNextBeyondEnd()) {
+					moveToNextChar();
+					content = true;
+				}
+				break;
+			} else {
+				content = true;
+				break;
+			}
+		}
+
+		int itemClass = getClass(markers[0]);
+		int start = out.length();
+		int nested;
+		int leadingIndents = 0;
+		int list = NONE;
+		if (resolvePending(itemClass, count > 1 && markers[1] != ':')) {
+			// visited as part of the previous list item
+			nested = 1;
+		} else {
+			while (leadingIndents < count && markers[leadingIndents] == ':') {
+				block(BLOCK_QUOTE);
+				leadingIndents++;
+			}
+			nested = leadingIndents;
+			if (nested < count) {
+				list = getClass(markers[nested++]);
+				if (lastClass != itemClass) {
+					block(getBlock(list));
+				}
+				block(BLOCK_LIST_ITEM);
+			}
+		}
+		for (int i = nested; i < count; i++) {
+			if (markers[i] == ':') {
+				block(BLOCK_QUOTE);
+			} else {
+				block(getBlock(getClass(markers[i])));
+				block(BLOCK_LIST_ITEM);
+			}
+		}
+		if (!content || !parseContentList()) {
+			crash(start);
+		}
+		for (int i = count - 1; i >= nested; i--) {
+			if (markers[i] == ':') {
+				unblock(BLOCK_QUOTE);
+			} else {
+				unblock(BLOCK_LIST_ITEM);
+				unblock(getBlock(getClass(markers[i])));
+			}
+		}
+		if (list != NONE) {
+			pendingList = list;
+			pendingIndents = leadingIndents;
+			pendingAbsorb = true;
+		} else {
+			for (int i = 0; i < leadingIndents; i++) {
+				unblock(BLOCK_QUOTE);
+			}
+		}
+		lastClass = itemClass;
+		checkCrash();
+	}
+
+	/**
+	 * Finish the previous list item, now that the next line is known.
+	 * @param nextClass class of the next line
+	 * @param nestedList whether the next line is a list item whose content is another list item
+	 * @return true if the next line belongs to the previous list item
+	 */
+	private boolean resolvePending(int nextClass, boolean nestedList) {
+		if (pendingList == NONE) {
+			return false;
+		}
+		if (pendingAbsorb && nestedList) {
+			pendingAbsorb = false;
+			return true;
+		}
+		unblock(BLOCK_LIST_ITEM);
+		if (nextClass != lastClass) {
+			unblock(getBlock(pendingList));
+		}
+		for (int i = 0; i < pendingIndents; i++) {
+			unblock(BLOCK_QUOTE);
+		}
+		pendingList = NONE;
+		return false;
+	}
+
+	private static int getClass(char marker) {
+		return marker == '*' ? UNORDERED_LIST : marker == '#' ? ORDERED_LIST : INDENT;
+	}
+
+	private static int getBlock(int list) {
+		return list == UNORDERED_LIST ? BLOCK_UNORDERED_LIST : BLOCK_ORDERED_LIST;
+	}
+
+	/**
+	 * @return levels of the heading, or -1 if it is not a heading
+	 */
+	private int parseHeading() {
+		// counted in a loop, a line of '=' being as long as the page
+		int depth = 0;
+		while (currentChar() == '=') {
+			if (isNextBeyondEnd()) {
+				return -1;
+			}
+			moveToNextChar();
+			depth++;
+		}
+		headingStart = position;
+		while (hasNextChar()) {
+			char c = currentChar();
+			if (c == '=' && isNextChar('=')) {
+				break;
+			}
+			moveToNextChar();
+		}
+		headingEnd = position;
+		for (int i = 0; i < depth; i++) {
+			if (isNextBeyondEnd()) {
+				return -1;
+			}
+			moveToNextChar();
+			if (currentChar() != '=') {
+				return -1;
+			}
+		}
+		return depth;
+	}
+
+	private void visitHeading(int depth) {
+		resolvePending(HEADING, false);
+		lastClass = HEADING;
+		if (crashed) {
+			return;
+		}
+		if (depth > MAX_HEADING_DEPTH) {
+			crash(out.length());
+		} else {
+			int start = headingStart;
+			int stop = headingEnd;
+			block(BLOCK_HEADING + depth);
+			parseNested(start, stop);
+			unblock(BLOCK_HEADING + depth);
+		}
+		checkCrash();
+	}
+
+	/*
+	 * Content of a line
+	 */
+
+	/**
+	 * @return false where MarkupParser.parseContentList returns null
+	 */
+	private boolean parseContentList() {
+		if (++depth > MAX_DEPTH) {
+			throw BUDGET_EXCEPTION;
+		}
+		try {
+			return parseContents();
+		} finally {
+			depth--;
+		}
+	}
+
+	private boolean parseContents() {
+		int markOut = out.length();
+		int markBlocking = blocking;
+		int markCaption = caption;
+		int markCrash = crashAt;
+		int charsStart = -1;
+		int charsEnd = -1;
+
+		while (hasNextChar()) {
+			int at = position;
+			char c = currentChar();
+			step: {
+				if (c == '\n') {
+					if (charsStart >= 0) {
+						handleString(charsStart, charsEnd);
+						return true;
+					}
+					out.setLength(markOut);
+					blocking = markBlocking;
+					caption = markCaption;
+					crashAt = markCrash;
+					return false;
+				} else if (c == '[') {
+					int kind = parseSquareBracket();
+					if (kind != 0) {
+						if (charsStart >= 0) {
+							handleString(charsStart, charsEnd);
+							charsStart = -1;
+						}
+						visitLink(kind);
+						break step;
+					}
+				} else if (c == '\'') {
+					int quote = parseSingleQuote();
+					if (quote != QUOTE_NONE) {
+						if (charsStart >= 0) {
+							handleString(charsStart, charsEnd);
+							charsStart = -1;
+						}
+						if (quote == QUOTE_END) {
+							return true;
+						}
+						int start = out.length();
+						if (!parseContentList()) {
+							crash(start);
+						}
+						break step;
+					}
+				} else if (c == '<' || c == '{') {
+					boolean found;
+					if (c == '<') {
+						found = parsePre();
+						if (found) {
+							specialConstruct = 'p';
+						} else if (parseNowiki()) {
+							specialConstruct = 'n';
+							found = true;
+						}
+					} else {
+						found = parseSpecialConstruct();
+					}
+					if (found) {
+						if (charsStart >= 0) {
+							handleString(charsStart, charsEnd);
+							charsStart = -1;
+						}
+						visitSpecialConstruct();
+						if (isNextBeyondEnd() || text.charAt(position + 1) == '\n') {
+							return true;
+						}
+						break step;
+					}
+				}
+
+				if (charsStart < 0) {
+					charsStart = at;
+				}
+				charsEnd = at + 1;
+				if (isNextBeyondEnd()) {
+					handleString(charsStart, charsEnd);
+					return true;
+				}
+			}
+			moveToNextChar();
+		}
+		if (isNextBeyondEnd()) {
+			return true;
+		}
+		throw MARKUP_EXCEPTION;
+	}
+
+	/**
+	 * Parse a link caption or heading, as PlainTextVisitor does with a new MarkupParser.
+	 */
+	private void parseNested(int from, int to) {
+		int savedPosition = position;
+		int savedEnd = end;
+		boolean savedBold = inBold;
+		boolean savedItalics = inItalics;
+		int start = out.length();
+		int crashBefore = crashAt;
+		boolean parsed;
+		position = from;
+		end = to;
+		inBold = false;
+		inItalics = false;
+		try {
+			parsed = parseContentList();
+		} catch (MarkupException e) {
+			parsed = false;
+		} finally {
+			position = savedPosition;
+			end = savedEnd;
+			inBold = savedBold;
+			inItalics = savedItalics;
+		}
+		if (!parsed) {
+			crashAt = crashBefore;
+			crash(start);
+		}
+	}
+
+	private static final int QUOTE_NONE = 0;
+	private static final int QUOTE_END = 1;
+	private static final int QUOTE_START = 2;
+
+	private int parseSingleQuote() {
+		if (isNextBeyondEnd()) {
+			return QUOTE_NONE;
+		}
+		moveToNextChar();
+		if (currentChar() != '\'') {
+			position -= 1;
+			return QUOTE_NONE;
+		}
+		if (isNextBeyondEnd() && (inBold || inItalics)) {
+			return QUOTE_END;
+		}
+		boolean bold = false;
+		if (!isNextBeyondEnd()) {
+			moveToNextChar();
+			if (currentChar() != '\'') {
+				position -= 1;
+			} else {
+				bold = true;
+			}
+		}
+		if (bold ? inBold : inItalics) {
+			if (bold) {
+				inBold = false;
+			} else {
+				inItalics = false;
+			}
+			return QUOTE_END;
+		}
+		if (isNextBeyondEnd()) {
+			return QUOTE_NONE;
+		}
+		moveToNextChar();
+		if (bold) {
+			inBold = true;
+		} else {
+			inItalics = true;
+		}
+		return QUOTE_START;
+	}
+
+	private static final int SMART_LINK = 1;
+	private static final int NORMAL_LINK = 2;
+
+	/**
+	 * @return kind of link, or 0 if there is none
+	 */
+	private int parseSquareBracket() {
+		if (isNextBeyondEnd()) {
+			return 0;
+		}
+		int initialPosition = position;
+		moveToNextChar();
+		int kind;
+		if (currentChar() == '[') {
+			if (isNextBeyondEnd()) {
+				return 0;
+			}
+			moveToNextChar();
+			kind = parseLink('|') ? SMART_LINK : 0;
+			// closing second ] is optional
+			if (!isNextBeyondEnd()) {
+				moveToNextChar();
+				if (currentChar() != ']') {
+					position -= 1;
+				}
+			}
+		} else {
+			kind = parseLink(' ') ? NORMAL_LINK : 0;
+		}
+		if (kind == 0) {
+			position = initialPosition;
+		}
+		return kind;
+	}
+
+	private boolean parseLink(char separator) {
+		linkStart = position;
+		linkEnd = -1;
+		captionStart = -1;
+		while (hasNextChar()) {
+			char c = currentChar();
+			if (c == '\n' || (c != ']' && isNextBeyondEnd())) {
+				return false;
+			} else if (c == ']') {
+				break;
+			} else if (c == separator && captionStart < 0) {
+				linkEnd = position;
+				captionStart = position + 1;
+			}
+			moveToNextChar();
+		}
+		if (captionStart < 0) {
+			linkEnd = position;
+		}
+		captionEnd = position;
+		return true;
+	}
+
+	private boolean parsePre() {
+		if (isNextBeyondEnd() || !lookaheadForTag("pre>")) {
+			return false;
+		}
+		int initialPosition = position;
+		moveToNextChar();
+		position += "pre>".length() - 1;
+
+		int tagPosition = position;
+		moveToNextChar();
+		consumeWhitespaces();
+		if (isNextBeyondEnd() || currentChar() != '<') {
+			position = initialPosition;
+			return false;
+		}
+		if (!parseNowiki()) {
+			throw MARKUP_EXCEPTION;
+		}
+		tagPosition = position;
+		moveToNextChar();
+		if (!consumeWhitespaces()) {
+			position = tagPosition;
+		} else {
+			position -= 1;
+		}
+		position += "</pre>".length();
+		return true;
+	}
+
+	private boolean parseNowiki() {
+		if (isNextBeyondEnd() || !lookaheadForTag("nowiki>")) {
+			return false;
+		}
+		int initialPosition = position;
+		moveToNextChar();
+		position += "nowiki>".length() - 1;
+
+		nowikiStart = position + 1;
+		while (!isNextBeyondEnd() && !lookaheadForTag("</nowiki>")) {
+			moveToNextChar();
+		}
+		if (isNextBeyondEnd()) {
+			position = initialPosition;
+			return false;
+		}
+		nowikiEnd = position + 1;
+		position += "</nowiki>".length();
+		return true;
+	}
+
+	private boolean lookaheadForTag(String tag) {
+		int initialPosition = position;
+		for (int i = 0; i < tag.length(); i++) {
+			if (isNextBeyondEnd()) {
+				position = initialPosition;
+				return false;
+			}
+			moveToNextChar();
+			if (currentChar() != tag.charAt(i)) {
+				position = initialPosition;
+				return false;
+			}
+		}
+		position = initialPosition;
+		return true;
+	}
+
+	/**
+	 * Templates, tables and other constructs between curly braces.
+	 */
+	private boolean parseSpecialConstruct() {
+		int initialPosition = position;
+		moveToNextChar();
+		char nextChar = currentChar();
+		if (nextChar == ' ' || nextChar == '\t' || nextChar == '\n') {
+			position = initialPosition;
+			return false;
+		}
+		char charToFind = nextChar;
+		if (nextChar == '{') {
+			charToFind = '}';
+		} else if (nextChar == '(') {
+			charToFind = ')';
+		} else if (nextChar == '[') {
+			charToFind = ']';
+		}
+		int r = find(charToFind, '}');
+		int beforeScan = position;
+		while (r > 0) {
+			int x = find('{', nextChar);
+			if (x > 0 && x <= r) {
+				int afterOpening = position + x + 2;
+				position = beforeScan + r + 2;
+				int y = find(charToFind, '}');
+				if (y < 0) {
+					// improper nesting of special constructs
+					throw MARKUP_EXCEPTION;
+				}
+				r += 2 + y;
+				position = afterOpening;
+			} else {
+				break;
+			}
+		}
+		if (r > 0) {
+			specialConstruct = nextChar;
+			position = beforeScan + r + 2;
+			return true;
+		}
+		position = initialPosition;
+		return false;
+	}
+
+	/**
+	 * Offset of the sequence after the current position, as ParserSupport.find does.
+	 */
+	private int find(char first, char second) {
+		int counter = 0;
+		int atStart = position;
+		while (!isNextBeyondEnd()) {
+			counter++;
+			int initialPosition = position;
+			moveToNextChar();
+			if (currentChar() == first && !isNextBeyondEnd()) {
+				moveToNextChar();
+				if (currentChar() == second) {
+					position = atStart;
+					return counter - 1;
+				}
+			}
+			position = initialPosition;
+			moveToNextChar();
+		}
+		position = atStart;
+		return -1;
+	}
+
+	private boolean consumeWhitespaces() {
+		boolean consumed = false;
+		int initialPosition = position;
+		while (!isNextBeyondEnd()) {
+			char c = currentChar();
+			if (c != ' ' && c != '\t' && c != '\n') {
+				break;
+			}
+			consumed = true;
+			moveToNextChar();
+		}
+		if (!consumed) {
+			position = initialPosition;
+		}
+		return consumed;
+	}
+
+	private boolean hasNextChar() {
+		return position < end;
+	}
+
+	private boolean isNextBeyondEnd() {
+		return position + 1 >= end;
+	}
+
+	private boolean isNextChar(char c) {
+		return !isNextBeyondEnd() && text.charAt(position + 1) == c;
+	}
+
+	private char currentChar() {
+		if (position >= end) {
+			throw MARKUP_EXCEPTION;
+		}
+		return text.charAt(position);
+	}
+
+	private void moveToNextChar() {
+		if (hasNextChar()) {
+			position++;
+			if (--steps < 0) {
+				throw BUDGET_EXCEPTION;
+			}
+		}
+	}
+
+	/*
+	 * Output, with the same effects as the calls to PlainTextVisitor
+	 */
+
+	private void visitLink(int kind) {
+		if (crashed) {
+			return;
+		}
+		boolean hasCaption = captionStart >= 0 && captionEnd > captionStart;
+		if (!hasCaption) {
+			if (blocking == OPEN) {
+				out.append("[[");
+				appendEncoded(linkStart, linkEnd);
+				out.append("]]");
+			}
+			return;
+		}
+		int start = captionStart;
+		int stop = captionEnd;
+		caption++;
+		if (kind == SMART_LINK) {
+			if (blocking == OPEN && indexOf(':', linkStart, linkEnd) >= 0) {
+				// ignore "Category:", "File:", "Image:"...
+				blocking = BLOCK_CAPTION;
+			}
+			if (blocking == OPEN) {
+				out.append("[[");
+				appendEncoded(linkStart, linkEnd);
+				out.append('|');
+			}
+		} else if (blocking == OPEN) {
+			out.append("[[");
+		}
+		parseNested(start, stop);
+		closeCaption();
+	}
+
+	private void closeCaption() {
+		if (blocking == OPEN) {
+			out.append("]]");
+		}
+		caption--;
+		if (blocking == BLOCK_CAPTION && caption == 0) {
+			blocking = OPEN;
+		}
+	}
+
+	private void visitSpecialConstruct() {
+		if (crashed) {
+			return;
+		}
+		if (specialConstruct == 'p') {
+			block(BLOCK_PRE);
+			out.append(text, nowikiStart, nowikiEnd);
+			unblock(BLOCK_PRE);
+		} else if (specialConstruct == 'n') {
+			out.append(text, nowikiStart, nowikiEnd);
+		}
+		// tables leave the output as it was; templates are ignored
+	}
+
+	/**
+	 * Output a run of characters, like PlainTextVisitor.handleString.
+	 */
+	private void handleString(int start, int stop) {
+		if (crashed) {
+			return;
+		}
+		int opening = indexOfPair('[', start, stop);
+		int closing = indexOfPair(']', start, stop);
+		boolean containsBoth = opening >= 0 && closing > 0;
+		if (opening > 0 && !containsBoth) {
+			caption++;
+			if (blocking == OPEN) {
+				out.append("[[");
+			}
+		}
+		if (blocking == OPEN) {
+			appendEncoded(start, stop);
+		}
+		if (closing > 0 && !containsBoth) {
+			closeCaption();
+		}
+	}
+
+	/**
+	 * @return offset of the first pair of the given bracket, relative to start, or -1
+	 */
+	private int indexOfPair(char bracket, int start, int stop) {
+		for (int i = start; i < stop - 1; i++) {
+			if (text.charAt(i) == bracket && text.charAt(i + 1) == bracket) {
+				return i - start;
+			}
+		}
+		return -1;
+	}
+
+	private int indexOf(char c, int start, int stop) {
+		for (int i = start; i < stop; i++) {
+			if (text.charAt(i) == c) {
+				return i - start;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Append text with HTML 3 entities, as escapeHtml3(unescapeHtml3(text)) does.
+	 */
+	private void appendEncoded(int start, int stop) {
+		if (indexOf('&', start, stop) >= 0) {
+			String unescaped = StringEscapeUtils.unescapeHtml3(text.substring(start, stop));
+			appendEscaped(unescaped, 0, unescaped.length());
+		} else {
+			appendEscaped(text, start, stop);
+		}
+	}
+
+	private void appendEscaped(String s, int start, int stop) {
+		int run = start;
+		for (int i = start; i < stop; i++) {
+			char c = s.charAt(i);
+			if (c < ESCAPES.length && ESCAPES[c] != null) {
+				out.append(s, run, i).append(ESCAPES[c]);
+				run = i + 1;
+			}
+		}
+		out.append(s, run, stop);
+	}
+
+	private void block(int construct) {
+		if (blocking == OPEN) {
+			blocking = construct;
+		}
+	}
+
+	private void unblock(int construct) {
+		if (blocking == construct) {
+			blocking = OPEN;
+		}
+	}
+
+	/**
+	 * The old visitor throws at this point of the output, if it ever gets there.
+	 */
+	private void crash(int at) {
+		if (crashAt < 0) {
+			crashAt = at;
+		}
+	}
+
+	/**
+	 * Called once a line is known to be visited.
+	 */
+	private void checkCrash() {
+		if (crashAt >= 0 && !crashed) {
+			out.setLength(crashAt);
+			crashed = true;
+		}
+	}
+
+}
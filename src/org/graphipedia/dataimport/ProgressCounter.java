@@ -21,25 +21,33 @@
 //
 package org.graphipedia.dataimport;
 
+/**
+ * Counts the items processed by a single thread. Progress is not printed
+ * here any more, but reported by {@link ImportMetrics} through a gauge, so
+ * the count may be read from any thread.
+ */
 public class ProgressCounter {
 
-    private static final int THOUSAND = 1000;
-    private static final int SMALL_STEP = 1 * THOUSAND;
-    private static final int BIG_STEP = 50 * THOUSAND;
+    private volatile int count;
 
-    private int count = 0;
+    public ProgressCounter() {
+        this(0);
+    }
+
+    /**
+     * @param count where to start counting, when resuming a previous run
+     */
+    public ProgressCounter(int count) {
+        this.count = count;
+    }
 
     public int getCount() {
         return count;
     }
 
     public void increment() {
-        count++;
-        if (count % BIG_STEP == 0) {
-            System.out.println(". "+ count / THOUSAND +"k");
-        } else if (count % SMALL_STEP == 0) {
-            System.out.print(".");
-        }
+        // only the owning thread writes
+        count = count + 1;
     }
 
 }
@@ -0,0 +1,290 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graphipedia.dataimport;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Redirect pages of a dump and the title each one points to, read by a quick
+ * pass over the dump before extracting links, so that links to a redirect are
+ * written as links to its target.
+ *
+ * Redirect titles live in a {@link TitleIndex} whose values are offsets of the
+ * target titles, kept as UTF-8 bytes in the same {@link MemoryBudget}; beyond
+ * its limit, both spill to a memory-mapped file. Only articles are considered:
+ * redirects from or to other namespaces are ignored.
+ *
+ * Not thread-safe.
+ * @author cotrino
+ *
+ */
+public class RedirectTable {
+
+	/**
+	 * Redirects followed at most from a link, in case of double redirects or loops.
+	 */
+	private static final int MAX_HOPS = 5;
+	private static final int MAX_TITLE_LENGTH = 255;
+	private static final String REDIRECT = "#REDIRECT";
+	private static final String TARGETS = ".targets";
+
+	/**
+	 * Collects redirects from the title and the beginning of the text of each page.
+	 */
+	private static class Reader extends SimpleStaxParser {
+
+		private static final int PAGE = 0;
+		private static final int TITLE = 1;
+		private static final int TEXT = 2;
+
+		private final RedirectTable table;
+		private String title;
+		private String target;
+
+		private Reader(RedirectTable table) {
+			super(Arrays.asList("page", "title", "text"), Arrays.asList("siteinfo", "contributor", "comment"));
+			this.table = table;
+		}
+
+		@Override
+		protected void handleElement(int symbol, CharSequence value) {
+			if (symbol == PAGE) {
+				if (title != null && target != null && !title.contains(":") && !target.contains(":")) {
+					table.put(title, target);
+				}
+				title = null;
+				target = null;
+			} else if (symbol == TITLE) {
+				title = value.toString();
+			} else if (symbol == TEXT) {
+				target = getTarget(value);
+			}
+		}
+
+	}
+
+	private final TitleIndex redirects;
+	private final PagedMemory targets;
+	private long resolvedLinkCount = 0;
+
+	public RedirectTable(MemoryBudget budget) {
+		this(new TitleIndex(budget), new PagedMemory(budget));
+	}
+
+	private RedirectTable(TitleIndex redirects, PagedMemory targets) {
+		this.redirects = redirects;
+		this.targets = targets;
+	}
+
+	/**
+	 * Read the redirects of a dump.
+	 * @param fileName dump, compressed or not
+	 * @param budget
+	 * @return
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	public static RedirectTable read(String fileName, MemoryBudget budget) throws IOException, XMLStreamException {
+		RedirectTable table = new RedirectTable(budget);
+		new Reader(table).parse(fileName);
+		return table;
+	}
+
+	/**
+	 * Load a table written by {@link #save(File)}.
+	 * @param budget
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static RedirectTable load(MemoryBudget budget, File file) throws IOException {
+		TitleIndex redirects = TitleIndex.load(budget, file);
+		PagedMemory targets = new PagedMemory(budget);
+		try (DataInputStream input = new DataInputStream(new FileInputStream(file.getPath() + TARGETS))) {
+			targets.extend(input.readLong());
+			targets.readFrom(Channels.newChannel(input));
+		}
+		return new RedirectTable(redirects, targets);
+	}
+
+	/**
+	 * Write the whole table, replacing any previous one only once it is complete.
+	 * @param file
+	 * @throws IOException
+	 */
+	public void save(File file) throws IOException {
+		File temporary = new File(file.getPath() + ".tmp");
+		File temporaryTargets = new File(file.getPath() + TARGETS + ".tmp");
+		redirects.save(temporary);
+		try (DataOutputStream output = new DataOutputStream(new FileOutputStream(temporaryTargets))) {
+			output.writeLong(targets.size());
+			output.flush();
+			targets.writeTo(Channels.newChannel(output));
+		}
+		Files.move(temporaryTargets.toPath(), new File(file.getPath() + TARGETS).toPath(),
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		// moved last, the table is only loaded if this one exists
+		Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * @return amount of redirects
+	 */
+	public int size() {
+		return redirects.size();
+	}
+
+	/**
+	 * @return links rewritten by {@link #resolve(ExtractedPage)} so far
+	 */
+	public long getResolvedLinkCount() {
+		return resolvedLinkCount;
+	}
+
+	public void setResolvedLinkCount(long resolvedLinkCount) {
+		this.resolvedLinkCount = resolvedLinkCount;
+	}
+
+	/**
+	 * @param title
+	 * @param target title the redirect points to
+	 */
+	public void put(String title, String target) {
+		byte[] bytes = target.getBytes(StandardCharsets.UTF_8);
+		long offset = targets.append(2 + bytes.length);
+		targets.putShort(offset, bytes.length);
+		targets.put(offset + 2, bytes, bytes.length);
+		redirects.put(title, offset);
+	}
+
+	/**
+	 * @param title
+	 * @return the page a title leads to, following redirects, or the title itself
+	 */
+	public String resolve(String title) {
+		String resolved = title;
+		for (int hop = 0; hop < MAX_HOPS && resolved.length() <= MAX_TITLE_LENGTH; hop++) {
+			long offset = redirects.get(resolved);
+			if (offset == TitleIndex.NOT_FOUND && !resolved.isEmpty() && Character.isLowerCase(resolved.charAt(0))) {
+				// links may start in lower case, titles never do
+				offset = redirects.get(Character.toUpperCase(resolved.charAt(0)) + resolved.substring(1));
+			}
+			if (offset == TitleIndex.NOT_FOUND) {
+				break;
+			}
+			byte[] bytes = new byte[targets.getShort(offset)];
+			targets.get(offset + 2, bytes, bytes.length);
+			resolved = new String(bytes, StandardCharsets.UTF_8);
+		}
+		return resolved;
+	}
+
+	/**
+	 * @param page
+	 * @return the page with its links to redirects replaced by links to their targets
+	 */
+	public ExtractedPage resolve(ExtractedPage page) {
+		if (page.getLinks() == null) {
+			return page;
+		}
+		Set<String> links = new HashSet<String>();
+		for (String link : page.getLinks()) {
+			String resolved = resolve(link);
+			if (!resolved.equals(link)) {
+				resolvedLinkCount++;
+			}
+			links.add(resolved);
+		}
+		links.remove(page.getTitle());
+		return new ExtractedPage(page.getTitle(), page.isCategory(), page.getPlainText(), page.getCategories(), links,
+				page.getHash(), page.getPlainTextNanos(), page.getParseNanos(), page.isOverBudget());
+	}
+
+	/**
+	 * Give the memory back to the budget.
+	 */
+	public void free() {
+		redirects.free();
+		targets.free();
+	}
+
+	/**
+	 * @param text wiki markup of a page
+	 * @return whether the page is a redirect
+	 */
+	public static boolean isRedirect(CharSequence text) {
+		return getTarget(text) != null;
+	}
+
+	/**
+	 * Parse "#REDIRECT [[Target#Section]]", in any case, as MediaWiki does.
+	 * @param text wiki markup of a page, may be null
+	 * @return title the redirect points to, without section and with its first
+	 *         letter in upper case, or null if the page is not a redirect
+	 */
+	public static String getTarget(CharSequence text) {
+		if (text == null) {
+			return null;
+		}
+		int length = text.length();
+		int i = 0;
+		while (i < length && Character.isWhitespace(text.charAt(i))) {
+			i++;
+		}
+		if (length - i < REDIRECT.length()) {
+			return null;
+		}
+		for (int j = 0; j < REDIRECT.length(); j++, i++) {
+			if (Character.toUpperCase(text.charAt(i)) != REDIRECT.charAt(j)) {
+				return null;
+			}
+		}
+		while (i < length && (Character.isWhitespace(text.charAt(i)) || text.charAt(i) == ':')) {
+			i++;
+		}
+		if (i + 1 >= length || text.charAt(i) != '[' || text.charAt(i + 1) != '[') {
+			return null;
+		}
+		int start = i + 2;
+		int end = start;
+		while (end < length && text.charAt(end) != ']' && text.charAt(end) != '|' && text.charAt(end) != '#'
+				&& text.charAt(end) != '\n') {
+			end++;
+		}
+		String target = text.subSequence(start, end).toString().replace('_', ' ').trim();
+		if (target.isEmpty()) {
+			return null;
+		}
+		return Character.toUpperCase(target.charAt(0)) + target.substring(1);
+	}
+
+}
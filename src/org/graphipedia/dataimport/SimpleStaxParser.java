@@ -21,77 +21,237 @@
 //
 package org.graphipedia.dataimport;
 
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.LinkedList;
+import java.io.InputStreamReader;
+import java.io.PushbackReader;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamReader;
 import javax.xml.stream.events.XMLEvent;
 
 import org.codehaus.stax2.XMLInputFactory2;
+import org.codehaus.stax2.XMLStreamReader2;
 
+/**
+ * Streams the elements of an XML file to {@link #handleElement(int, CharSequence)}.
+ *
+ * Interesting elements are identified by their position in the list given to
+ * the constructor, their symbol. Their text is collected in a buffer that is
+ * reused for every element, and the text of any other element is never read.
+ * Elements listed as skipped are jumped over with all their children.
+ *
+ * A parse may be resumed from the offset of any element that was handled, see
+ * {@link #getInputOffset()}.
+ */
 public abstract class SimpleStaxParser {
 
     private static final String STDIN_FILENAME = "-";
     private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory2.newInstance();
 
-    private final List<String> interestingElements;
+    static {
+        // element names are then compared by reference
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory2.P_INTERN_NAMES, Boolean.TRUE);
+    }
+
+    /**
+     * Symbol of the elements that are not interesting.
+     */
+    protected static final int NONE = -1;
+
+    private final String[] interestingElements;
+    private final String[] skippedElements;
+
+    private int[] symbolStack = new int[16];
+    private char[] textBuffer = new char[4096];
+    private CharBuffer textView = CharBuffer.wrap(textBuffer);
+
+    private XMLStreamReader2 reader;
+    private long offsetBase;
+    private ImportMetrics.Stage readStage;
+    private long lastHandled;
+    private String rootElement;
 
     public SimpleStaxParser(List<String> interestingElements) {
-        this.interestingElements = interestingElements;
+        this(interestingElements, Collections.<String>emptyList());
+    }
+
+    /**
+     * @param interestingElements elements passed to {@link #handleElement(int, CharSequence)},
+     * their symbol is their position in this list
+     * @param skippedElements elements whose whole subtree is ignored
+     */
+    public SimpleStaxParser(List<String> interestingElements, List<String> skippedElements) {
+        this.interestingElements = intern(interestingElements);
+        this.skippedElements = intern(skippedElements);
     }
 
-    protected abstract void handleElement(String element, String value);
+    /**
+     * @param symbol position of the element in the list of interesting elements
+     * @param value trimmed text of the element. It is a view over a buffer that is
+     * overwritten by the next element, call toString() to keep it.
+     */
+    protected abstract void handleElement(int symbol, CharSequence value);
 
+    /**
+     * Parse a file, "-" for the standard input. Files ending with .gz or .bz2
+     * are decompressed on the fly.
+     */
     public void parse(String fileName) throws IOException, XMLStreamException {
-        if (STDIN_FILENAME.equals(fileName)) {
-            parse(System.in);
-        } else {
-            parse(new FileInputStream(fileName));
-        }
+        parse(fileName, 0, null);
     }
 
-    private void parse(InputStream inputStream) throws IOException, XMLStreamException {
-        XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(inputStream, "UTF-8");
+    /**
+     * Parse a file from the given offset on, as if its root element had just been opened.
+     * @param fileName
+     * @param offset characters to skip, as returned by {@link #getInputOffset()}, 0 to parse everything
+     * @param rootElement name of the root element, as returned by {@link #getRootElement()}
+     */
+    public void parse(String fileName, long offset, String rootElement) throws IOException, XMLStreamException {
+        InputStream inputStream = STDIN_FILENAME.equals(fileName) ? System.in : DumpInputStreams.open(fileName);
         try {
-            parseElements(reader);
+            if (offset > 0) {
+                Reader input = new InputStreamReader(inputStream, StandardCharsets.UTF_8);
+                long skipped = 0;
+                while (skipped < offset) {
+                    long count = input.skip(offset - skipped);
+                    if (count <= 0) {
+                        throw new IOException("Cannot resume " + fileName + " at offset " + offset);
+                    }
+                    skipped += count;
+                }
+                String start = "<" + rootElement + ">";
+                PushbackReader resumed = new PushbackReader(input, start.length());
+                resumed.unread(start.toCharArray());
+                this.rootElement = rootElement;
+                this.offsetBase = offset - start.length();
+                reader = (XMLStreamReader2) XML_INPUT_FACTORY.createXMLStreamReader(resumed);
+            } else {
+                this.rootElement = null;
+                this.offsetBase = 0;
+                reader = (XMLStreamReader2) XML_INPUT_FACTORY.createXMLStreamReader(inputStream, "UTF-8");
+            }
+            try {
+                parseElements(reader);
+            } finally {
+                reader.close();
+                reader = null;
+            }
         } finally {
-            reader.close();
             inputStream.close();
         }
     }
 
-    private void parseElements(XMLStreamReader reader) throws XMLStreamException {
-        LinkedList<String> elementStack = new LinkedList<String>();
-        StringBuilder textBuffer = new StringBuilder();
-        
+    /**
+     * @return characters of the input up to the end of the element being handled
+     */
+    protected long getInputOffset() {
+        try {
+            return offsetBase + reader.getLocationInfo().getEndingCharOffset();
+        } catch (XMLStreamException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Time spent reading the input, that is, everything but {@link #handleElement(int, CharSequence)}.
+     * @param readStage null not to measure it
+     */
+    public void setReadStage(ImportMetrics.Stage readStage) {
+        this.readStage = readStage;
+    }
+
+    /**
+     * @return name of the root element of the input, needed to resume it
+     */
+    public String getRootElement() {
+        return rootElement;
+    }
+
+    private void parseElements(XMLStreamReader2 reader) throws XMLStreamException {
+        int depth = 0;
+        int textLength = 0;
+        lastHandled = System.nanoTime();
+
         while (reader.hasNext()) {
             switch (reader.next()) {
             case XMLEvent.START_ELEMENT:
-                elementStack.push(reader.getName().getLocalPart());
-                textBuffer.setLength(0);
+                String name = reader.getLocalName();
+                if (rootElement == null) {
+                    rootElement = name;
+                }
+                if (indexOf(skippedElements, name) != NONE) {
+                    reader.skipElement();
+                    textLength = 0;
+                    break;
+                }
+                if (depth == symbolStack.length) {
+                    symbolStack = Arrays.copyOf(symbolStack, depth * 2);
+                }
+                symbolStack[depth++] = indexOf(interestingElements, name);
+                textLength = 0;
                 break;
             case XMLEvent.END_ELEMENT:
-                String element = elementStack.pop();
-                if (isInteresting(element)) {
-                    handleElement(element, textBuffer.toString().trim());
+                int symbol = symbolStack[--depth];
+                if (symbol != NONE && readStage != null) {
+                    readStage.addSince(lastHandled);
+                    handleElement(symbol, trim(textLength));
+                    lastHandled = System.nanoTime();
+                } else if (symbol != NONE) {
+                    handleElement(symbol, trim(textLength));
                 }
                 break;
             case XMLEvent.CHARACTERS:
-                if (isInteresting(elementStack.peek())) {
-                    textBuffer.append(reader.getText());
+                if (depth > 0 && symbolStack[depth - 1] != NONE) {
+                    int length = reader.getTextLength();
+                    if (textLength + length > textBuffer.length) {
+                        textBuffer = Arrays.copyOf(textBuffer, Math.max(textBuffer.length * 2, textLength + length));
+                        textView = CharBuffer.wrap(textBuffer);
+                    }
+                    textLength += reader.getTextCharacters(0, textBuffer, textLength, length);
                 }
                 break;
             }
         }
     }
 
-    private boolean isInteresting(String element) {
-        return interestingElements.contains(element);
+    private CharSequence trim(int length) {
+        int start = 0;
+        int end = length;
+        while (start < end && textBuffer[start] <= ' ') {
+            start++;
+        }
+        while (end > start && textBuffer[end - 1] <= ' ') {
+            end--;
+        }
+        textView.limit(end).position(start);
+        return textView;
+    }
+
+    /**
+     * @return position of an interned name, compared by reference
+     */
+    private static int indexOf(String[] names, String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i] == name) {
+                return i;
+            }
+        }
+        return NONE;
+    }
+
+    private static String[] intern(List<String> names) {
+        String[] interned = new String[names.size()];
+        for (int i = 0; i < interned.length; i++) {
+            interned[i] = names.get(i).intern();
+        }
+        return interned;
     }
 
 }
@@ -0,0 +1,97 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graphipedia.dataimport;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps the pages that took longest to extract, to find out which ones
+ * stretch an import. Pages may be added from any thread.
+ * @author cotrino
+ *
+ */
+public class SlowestPages {
+
+	public static class Timing implements Comparable<Timing> {
+
+		private final String title;
+		private final long nanos;
+
+		public Timing(String title, long nanos) {
+			this.title = title;
+			this.nanos = nanos;
+		}
+
+		public String getTitle() {
+			return title;
+		}
+
+		public long getNanos() {
+			return nanos;
+		}
+
+		@Override
+		public int compareTo(Timing other) {
+			return Long.compare(nanos, other.nanos);
+		}
+
+	}
+
+	private final int size;
+	// fastest of the kept pages on top
+	private final PriorityQueue<Timing> slowest;
+	private volatile long threshold = -1;
+
+	/**
+	 * @param size amount of pages to keep
+	 */
+	public SlowestPages(int size) {
+		this.size = size;
+		this.slowest = new PriorityQueue<Timing>(Math.max(1, size));
+	}
+
+	public void add(String title, long nanos) {
+		if (size == 0 || nanos <= threshold) {
+			return;
+		}
+		synchronized (slowest) {
+			slowest.add(new Timing(title, nanos));
+			if (slowest.size() > size) {
+				slowest.poll();
+			}
+			if (slowest.size() == size) {
+				threshold = slowest.peek().getNanos();
+			}
+		}
+	}
+
+	/**
+	 * @return kept pages, slowest first
+	 */
+	public List<Timing> getSlowest() {
+		List<Timing> timings;
+		synchronized (slowest) {
+			timings = new ArrayList<Timing>(slowest);
+		}
+		Collections.sort(timings, Collections.reverseOrder());
+		return timings;
+	}
+
+}
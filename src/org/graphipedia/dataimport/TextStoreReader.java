@@ -0,0 +1,118 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graphipedia.dataimport;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the text of a node from the files written by {@link TextStoreWriter},
+ * both memory-mapped. The last block read is kept inflated, since pages
+ * created one after the other are likely to share it.
+ *
+ * Thread-safe, texts are read one at a time.
+ * @author cotrino
+ *
+ */
+public class TextStoreReader implements Closeable {
+
+	private final MappedFile data;
+	private final MappedFile index;
+	private final Inflater inflater = new Inflater();
+
+	private byte[] compressed = new byte[TextStoreWriter.BLOCK_SIZE];
+	private byte[] block = new byte[TextStoreWriter.BLOCK_SIZE];
+	private long blockPosition = -1;
+
+	public TextStoreReader(File directory) throws IOException {
+		this.data = new MappedFile(new File(directory, TextStoreWriter.DATA));
+		this.index = new MappedFile(new File(directory, TextStoreWriter.INDEX));
+	}
+
+	/**
+	 * @param directory
+	 * @return whether the directory has a text store
+	 */
+	public static boolean exists(File directory) {
+		return new File(directory, TextStoreWriter.INDEX).isFile();
+	}
+
+	/**
+	 * @return node ids below which nodes may have a text
+	 */
+	public long size() {
+		return index.size() / TextStoreWriter.ENTRY_SIZE;
+	}
+
+	/**
+	 * @param nodeId
+	 * @return text of the node, null if it has none
+	 * @throws IOException
+	 */
+	public synchronized String get(long nodeId) throws IOException {
+		if (nodeId < 0 || (nodeId + 1) * TextStoreWriter.ENTRY_SIZE > index.size()) {
+			return null;
+		}
+		ByteBuffer entry = index.map(nodeId * TextStoreWriter.ENTRY_SIZE, TextStoreWriter.ENTRY_SIZE);
+		long position = entry.getLong() - 1;
+		int offset = entry.getInt();
+		int length = entry.getInt();
+		if (position < 0) {
+			return null;
+		}
+		if (position != blockPosition) {
+			readBlock(position);
+		}
+		return new String(block, offset, length, StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		inflater.end();
+		data.close();
+		index.close();
+	}
+
+	private void readBlock(long position) throws IOException {
+		ByteBuffer header = data.map(position, TextStoreWriter.BLOCK_HEADER_SIZE);
+		int compressedLength = header.getInt();
+		int length = header.getInt();
+		if (compressedLength > compressed.length) {
+			compressed = new byte[compressedLength];
+		}
+		if (length > block.length) {
+			block = new byte[length];
+		}
+		data.map(position + TextStoreWriter.BLOCK_HEADER_SIZE, compressedLength).get(compressed, 0, compressedLength);
+		inflater.reset();
+		inflater.setInput(compressed, 0, compressedLength);
+		try {
+			if (inflater.inflate(block, 0, length) != length) {
+				throw new IOException("Truncated text block at " + position);
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupt text block at " + position, e);
+		}
+		blockPosition = position;
+	}
+
+}
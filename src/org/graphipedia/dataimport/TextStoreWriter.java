@@ -0,0 +1,183 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graphipedia.dataimport;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * Keeps the plain text of pages out of the graph, in two files of the store
+ * directory that are read back by {@link TextStoreReader}.
+ *
+ * <pre>
+ * text.data:  blocks of int compressed length, int length, then the
+ *             deflated UTF-8 texts of the block, one after the other
+ * text.index: an entry per node id, at node id * ENTRY_SIZE:
+ *             long block offset plus one (0 for no text),
+ *             int offset of the text in the block, int byte length
+ * </pre>
+ *
+ * Texts are gathered into blocks of about {@link #BLOCK_SIZE} bytes, so that
+ * they compress well together, while reading one of them only inflates its
+ * block. Index entries are written once their block is, so the index never
+ * refers to data that is not in the file yet. Both files are appended to
+ * when opened again: replaced texts are left in the data file, unreferenced.
+ * @author cotrino
+ *
+ */
+public class TextStoreWriter implements Closeable {
+
+	public static final String DATA = "text.data";
+	public static final String INDEX = "text.index";
+	public static final int BLOCK_SIZE = 64 * 1024;
+	public static final int BLOCK_HEADER_SIZE = 8;
+	public static final int ENTRY_SIZE = 16;
+
+	private final RandomAccessFile dataFile;
+	private final RandomAccessFile indexFile;
+	private final FileChannel data;
+	private final FileChannel index;
+	private final Deflater deflater = new Deflater();
+	private final ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+	private long dataPosition;
+
+	private byte[] block = new byte[BLOCK_SIZE];
+	private int blockLength;
+	private byte[] compressed = new byte[BLOCK_HEADER_SIZE + BLOCK_SIZE];
+
+	private long[] pendingIds = new long[256];
+	private int[] pendingOffsets = new int[256];
+	private int pendingCount;
+
+	/**
+	 * @param directory where the files are, created if they do not exist yet
+	 * @throws IOException
+	 */
+	public TextStoreWriter(File directory) throws IOException {
+		directory.mkdirs();
+		this.dataFile = new RandomAccessFile(new File(directory, DATA), "rw");
+		this.indexFile = new RandomAccessFile(new File(directory, INDEX), "rw");
+		this.data = dataFile.getChannel();
+		this.index = indexFile.getChannel();
+		this.dataPosition = data.size();
+	}
+
+	/**
+	 * Set the text of a node, replacing the one it had.
+	 * @param nodeId
+	 * @param text
+	 * @throws IOException
+	 */
+	public void put(long nodeId, String text) throws IOException {
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		if (blockLength > 0 && blockLength + bytes.length > BLOCK_SIZE) {
+			writeBlock();
+		}
+		if (blockLength + bytes.length > block.length) {
+			block = Arrays.copyOf(block, blockLength + bytes.length);
+		}
+		if (pendingCount == pendingIds.length) {
+			pendingIds = Arrays.copyOf(pendingIds, pendingCount * 2);
+			pendingOffsets = Arrays.copyOf(pendingOffsets, pendingCount * 2);
+		}
+		pendingIds[pendingCount] = nodeId;
+		pendingOffsets[pendingCount++] = blockLength;
+		System.arraycopy(bytes, 0, block, blockLength, bytes.length);
+		blockLength += bytes.length;
+	}
+
+	/**
+	 * Forget the text of a node, if it had any.
+	 * @param nodeId
+	 * @throws IOException
+	 */
+	public void remove(long nodeId) throws IOException {
+		for (int i = 0; i < pendingCount; i++) {
+			if (pendingIds[i] == nodeId) {
+				pendingIds[i] = -1;
+			}
+		}
+		if (nodeId * ENTRY_SIZE < index.size()) {
+			writeEntry(nodeId, 0, 0, 0);
+		}
+	}
+
+	/**
+	 * Write the texts put so far, so that the files may be copied.
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		if (pendingCount > 0) {
+			writeBlock();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		flush();
+		deflater.end();
+		dataFile.close();
+		indexFile.close();
+	}
+
+	private void writeBlock() throws IOException {
+		deflater.reset();
+		deflater.setInput(block, 0, blockLength);
+		deflater.finish();
+		int compressedLength = 0;
+		while (!deflater.finished()) {
+			if (BLOCK_HEADER_SIZE + compressedLength == compressed.length) {
+				compressed = Arrays.copyOf(compressed, compressed.length * 2);
+			}
+			compressedLength += deflater.deflate(compressed, BLOCK_HEADER_SIZE + compressedLength,
+					compressed.length - BLOCK_HEADER_SIZE - compressedLength);
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(compressed, 0, BLOCK_HEADER_SIZE + compressedLength);
+		buffer.putInt(compressedLength).putInt(blockLength).rewind();
+		write(data, buffer, dataPosition);
+
+		for (int i = 0; i < pendingCount; i++) {
+			if (pendingIds[i] >= 0) {
+				int end = i + 1 < pendingCount ? pendingOffsets[i + 1] : blockLength;
+				writeEntry(pendingIds[i], dataPosition + 1, pendingOffsets[i], end - pendingOffsets[i]);
+			}
+		}
+		dataPosition += buffer.limit();
+		blockLength = 0;
+		pendingCount = 0;
+	}
+
+	private void writeEntry(long nodeId, long block, int offset, int length) throws IOException {
+		entry.clear();
+		entry.putLong(block).putInt(offset).putInt(length).flip();
+		write(index, entry, nodeId * ENTRY_SIZE);
+	}
+
+	private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+}
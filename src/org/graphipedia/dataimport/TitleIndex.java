@@ -0,0 +1,284 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graphipedia.dataimport;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Map from titles to primitive long values (typically node ids), stored
+ * off-heap so that millions of titles do not weigh on the Java heap.
+ *
+ * Titles are kept as UTF-8 bytes in an append-only key area. An open
+ * addressing hash table of 16-byte slots points into it: the first long of a
+ * slot holds 24 bits of the hash and the key offset, the second one the value.
+ * Both areas come from a {@link MemoryBudget}, which spills to a memory-mapped
+ * file once its limit is reached.
+ *
+ * Not thread-safe.
+ * @author cotrino
+ *
+ */
+public class TitleIndex {
+
+	public static final long NOT_FOUND = -1;
+
+	private static final int SLOT_SIZE = 16;
+	private static final int INITIAL_CAPACITY = 1 << 16;
+	private static final double MAX_LOAD = 0.7;
+	private static final int OFFSET_BITS = 40;
+	private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+	private static final int MAX_KEY_LENGTH = 0xffff;
+	private static final int SNAPSHOT_HEADER_SIZE = 16;
+
+	private final MemoryBudget budget;
+	private final PagedMemory keys;
+	private PagedMemory slots;
+	private int capacity;
+	private int size = 0;
+
+	private byte[] key = new byte[1024];
+	private int keyLength;
+	private byte[] candidate = new byte[1024];
+
+	public TitleIndex(MemoryBudget budget) {
+		this(budget, INITIAL_CAPACITY);
+	}
+
+	private TitleIndex(MemoryBudget budget, int capacity) {
+		this.budget = budget;
+		this.keys = new PagedMemory(budget);
+		this.capacity = capacity;
+		this.slots = PagedMemory.allocate(budget, (long) capacity * SLOT_SIZE);
+	}
+
+	/**
+	 * Read an index written by {@link #save(File)}.
+	 * @param budget
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static TitleIndex load(MemoryBudget budget, File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER_SIZE);
+			while (header.hasRemaining()) {
+				if (channel.read(header) < 0) {
+					throw new EOFException("Truncated snapshot " + file);
+				}
+			}
+			header.flip();
+			TitleIndex index = new TitleIndex(budget, header.getInt());
+			index.size = header.getInt();
+			index.keys.extend(header.getLong());
+			index.slots.readFrom(channel);
+			index.keys.readFrom(channel);
+			return index;
+		}
+	}
+
+	/**
+	 * Write the whole index to a file, so that it can be loaded again by a later run.
+	 * @param file
+	 * @throws IOException
+	 */
+	public void save(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER_SIZE);
+			header.putInt(capacity).putInt(size).putLong(keys.size()).flip();
+			while (header.hasRemaining()) {
+				channel.write(header);
+			}
+			slots.writeTo(channel);
+			keys.writeTo(channel);
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Associate a value with a title, replacing any previous one.
+	 * @param title
+	 * @param value any value but {@link #NOT_FOUND}
+	 */
+	public void put(CharSequence title, long value) {
+		encode(title);
+		long hash = hash(key, keyLength);
+		long slot = find(hash);
+		if (slots.getLong(slot) == 0) {
+			slots.putLong(slot, reference(hash, storeKey()));
+			size++;
+		}
+		slots.putLong(slot + 8, value);
+		if (size > capacity * MAX_LOAD) {
+			resize();
+		}
+	}
+
+	/**
+	 * @param title
+	 * @return the value of the title, or {@link #NOT_FOUND}
+	 */
+	public long get(CharSequence title) {
+		encode(title);
+		long slot = find(hash(key, keyLength));
+		if (slots.getLong(slot) == 0) {
+			return NOT_FOUND;
+		}
+		return slots.getLong(slot + 8);
+	}
+
+	/**
+	 * Give the memory back to the budget.
+	 */
+	public void free() {
+		slots.free();
+		keys.free();
+	}
+
+	/**
+	 * @return offset of the slot holding the current key, or of the empty slot where it belongs
+	 */
+	private long find(long hash) {
+		long tag = tag(hash);
+		int mask = capacity - 1;
+		int index = (int) hash & mask;
+		while (true) {
+			long slot = (long) index * SLOT_SIZE;
+			long reference = slots.getLong(slot);
+			if (reference == 0) {
+				return slot;
+			}
+			if ((reference & ~OFFSET_MASK) == tag && keyEquals((reference & OFFSET_MASK) - 1)) {
+				return slot;
+			}
+			index = (index + 1) & mask;
+		}
+	}
+
+	private boolean keyEquals(long offset) {
+		int length = keys.getShort(offset);
+		if (length != keyLength) {
+			return false;
+		}
+		keys.get(offset + 2, candidate, length);
+		for (int i = 0; i < length; i++) {
+			if (candidate[i] != key[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private long storeKey() {
+		long offset = keys.append(2 + keyLength);
+		keys.putShort(offset, keyLength);
+		keys.put(offset + 2, key, keyLength);
+		return offset;
+	}
+
+	private void resize() {
+		PagedMemory oldSlots = slots;
+		int oldCapacity = capacity;
+		capacity *= 2;
+		slots = PagedMemory.allocate(budget, (long) capacity * SLOT_SIZE);
+		int mask = capacity - 1;
+		byte[] bytes = candidate;
+		for (int i = 0; i < oldCapacity; i++) {
+			long reference = oldSlots.getLong((long) i * SLOT_SIZE);
+			if (reference == 0) {
+				continue;
+			}
+			long offset = (reference & OFFSET_MASK) - 1;
+			int length = keys.getShort(offset);
+			keys.get(offset + 2, bytes, length);
+			int index = (int) hash(bytes, length) & mask;
+			while (slots.getLong((long) index * SLOT_SIZE) != 0) {
+				index = (index + 1) & mask;
+			}
+			long slot = (long) index * SLOT_SIZE;
+			slots.putLong(slot, reference);
+			slots.putLong(slot + 8, oldSlots.getLong((long) i * SLOT_SIZE + 8));
+		}
+		oldSlots.free();
+	}
+
+	/**
+	 * Encode the title as UTF-8 into the key buffer, without intermediate objects.
+	 */
+	private void encode(CharSequence title) {
+		int length = title.length();
+		if (key.length < length * 3) {
+			key = new byte[length * 3];
+			candidate = new byte[length * 3];
+		}
+		int position = 0;
+		for (int i = 0; i < length; i++) {
+			char c = title.charAt(i);
+			if (c < 0x80) {
+				key[position++] = (byte) c;
+			} else if (c < 0x800) {
+				key[position++] = (byte) (0xc0 | (c >> 6));
+				key[position++] = (byte) (0x80 | (c & 0x3f));
+			} else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(title.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, title.charAt(++i));
+				key[position++] = (byte) (0xf0 | (codePoint >> 18));
+				key[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+				key[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+				key[position++] = (byte) (0x80 | (codePoint & 0x3f));
+			} else {
+				key[position++] = (byte) (0xe0 | (c >> 12));
+				key[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+				key[position++] = (byte) (0x80 | (c & 0x3f));
+			}
+		}
+		if (position > MAX_KEY_LENGTH) {
+			throw new IllegalArgumentException("Title too long: " + position + " bytes");
+		}
+		keyLength = position;
+	}
+
+	private static long reference(long hash, long offset) {
+		return tag(hash) | (offset + 1);
+	}
+
+	private static long tag(long hash) {
+		return (hash >>> OFFSET_BITS) << OFFSET_BITS;
+	}
+
+	/**
+	 * 64-bit FNV-1a, finished with a multiplication to spread the low bits.
+	 */
+	private static long hash(byte[] bytes, int length) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < length; i++) {
+			hash ^= bytes[i] & 0xff;
+			hash *= 0x100000001b3L;
+		}
+		hash ^= hash >>> 29;
+		hash *= 0xbf58476d1ce4e5b9L;
+		return hash ^ (hash >>> 32);
+	}
+
+}
@@ -0,0 +1,164 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graphipedia.dataimport;
+
+/**
+ * Finds links, categories and templates of wiki markup in a single traversal,
+ * without regular expressions and without copying the text.
+ *
+ * <ul>
+ * <li>Templates <code>{{ ... }}</code> may be nested; only the outermost span
+ * is reported and nothing inside of it is considered a link or category.</li>
+ * <li>Categories are <code>[[Category:Name|sort key]]</code>, with a case
+ * insensitive prefix.</li>
+ * <li>Links are <code>[[Target|label]]</code> whose target has no namespace
+ * (no colon). Links nested in the caption of files and images are found
+ * too, while the file itself is not reported.</li>
+ * </ul>
+ * Links and categories never span several lines.
+ * @author cotrino
+ *
+ */
+public class WikitextScanner {
+
+	private static final String CATEGORY_PREFIX = "Category:";
+
+	/**
+	 * Receives what the scanner finds, in the order it appears in the text.
+	 * Offsets refer to the scanned text; end offsets are exclusive.
+	 */
+	public interface Handler {
+
+		/**
+		 * @param text scanned text
+		 * @param start offset of the opening brackets
+		 * @param end offset after the closing brackets
+		 * @param targetEnd end of the target, which starts at start + 2; if it
+		 *        is lower than end - 2, the label starts at targetEnd + 1
+		 */
+		default void link(CharSequence text, int start, int end, int targetEnd) {
+		}
+
+		/**
+		 * @param text scanned text
+		 * @param start offset of the opening brackets
+		 * @param end offset after the closing brackets
+		 * @param nameStart start of the category name, after its prefix
+		 * @param nameEnd end of the category name, before the sort key if any
+		 */
+		default void category(CharSequence text, int start, int end, int nameStart, int nameEnd) {
+		}
+
+		/**
+		 * @param text scanned text
+		 * @param start offset of the outermost opening braces
+		 * @param end offset after its closing braces
+		 */
+		default void template(CharSequence text, int start, int end) {
+		}
+
+	}
+
+	private WikitextScanner() {
+	}
+
+	public static void scan(CharSequence text, Handler handler) {
+		scan(text, 0, text.length(), true, handler);
+	}
+
+	private static void scan(CharSequence text, int from, int to, boolean templates, Handler handler) {
+		int depth = 0;
+		int templateStart = 0;
+		int i = from;
+		while (i < to - 1) {
+			char c = text.charAt(i);
+			char next = text.charAt(i + 1);
+			if (templates && c == '{' && next == '{') {
+				if (depth++ == 0) {
+					templateStart = i;
+				}
+				i += 2;
+			} else if (depth > 0) {
+				if (c == '}' && next == '}') {
+					if (--depth == 0) {
+						handler.template(text, templateStart, i + 2);
+					}
+					i += 2;
+				} else {
+					i++;
+				}
+			} else if (c == '[' && next == '[') {
+				i = scanLink(text, i, to, handler);
+			} else {
+				i++;
+			}
+		}
+		if (depth > 0) {
+			// a template that is never closed is just text
+			scan(text, templateStart + 2, to, false, handler);
+		}
+	}
+
+	/**
+	 * @return offset where scanning goes on
+	 */
+	private static int scanLink(CharSequence text, int start, int to, Handler handler) {
+		int targetStart = start + 2;
+		int targetEnd = -1;
+		boolean namespace = false;
+		for (int i = targetStart; i < to; i++) {
+			char c = text.charAt(i);
+			if (c == '\n') {
+				break;
+			} else if (c == ']' && i + 1 < to && text.charAt(i + 1) == ']') {
+				if (targetEnd < 0) {
+					targetEnd = i;
+				}
+				if (!namespace) {
+					handler.link(text, start, i + 2, targetEnd);
+				} else if (isCategory(text, targetStart, targetEnd)) {
+					handler.category(text, start, i + 2, targetStart + CATEGORY_PREFIX.length(), targetEnd);
+				} else {
+					// files and images may have links in their captions
+					break;
+				}
+				return i + 2;
+			} else if (c == '|' && targetEnd < 0) {
+				targetEnd = i;
+			} else if (c == ':' && targetEnd < 0) {
+				namespace = true;
+			} else if (c == '[' && !namespace && targetEnd < 0) {
+				// [[ inside of a target cannot be a link
+				break;
+			}
+		}
+		return targetStart;
+	}
+
+	private static boolean isCategory(CharSequence text, int targetStart, int targetEnd) {
+		if (targetEnd - targetStart <= CATEGORY_PREFIX.length()) {
+			return false;
+		}
+		for (int i = 0; i < CATEGORY_PREFIX.length(); i++) {
+			if (Character.toLowerCase(text.charAt(targetStart + i)) != Character.toLowerCase(CATEGORY_PREFIX.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
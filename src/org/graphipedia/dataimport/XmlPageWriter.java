@@ -0,0 +1,187 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graphipedia.dataimport;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.codehaus.stax2.XMLOutputFactory2;
+
+/**
+ * Writes extracted pages as XML: a root element d containing one p element
+ * per page, with its title (t for pages, q for categories), content hash (h,
+ * in hexadecimal), plain text, categories (c) and links (l).
+ * @author cotrino
+ *
+ */
+public class XmlPageWriter implements PageWriter {
+
+	private static final XMLOutputFactory XML_OUTPUT_FACTORY = XMLOutputFactory2.newInstance();
+	// continues a document whose root element was opened by a previous run
+	private static final XMLOutputFactory RESUME_OUTPUT_FACTORY = XMLOutputFactory2.newInstance();
+
+	static {
+		RESUME_OUTPUT_FACTORY.setProperty("com.ctc.wstx.outputValidateStructure", Boolean.FALSE);
+	}
+
+	private static final String OUTPUT_LENGTH = "output.length";
+	private static final byte[] END_OF_DOCUMENT = "</d>".getBytes(StandardCharsets.UTF_8);
+
+	private final XMLStreamWriter writer;
+	private final OutputStream outputStream;
+	private final FileChannel channel;
+	private final boolean resumed;
+
+	/**
+	 * Write a whole document into the given stream.
+	 * @param outputStream
+	 * @throws IOException
+	 */
+	public XmlPageWriter(OutputStream outputStream) throws IOException {
+		this(outputStream, false);
+	}
+
+	/**
+	 * Write a whole document into a file. If the checkpoint was saved while
+	 * writing it, the pages written after the checkpoint are discarded and
+	 * writing goes on from there.
+	 * @param file
+	 * @param checkpoint
+	 * @throws IOException
+	 */
+	public XmlPageWriter(File file, Checkpoint checkpoint) throws IOException {
+		this(open(file, checkpoint.getLong(OUTPUT_LENGTH)), checkpoint.getLong(OUTPUT_LENGTH) > 0);
+	}
+
+	private XmlPageWriter(OutputStream outputStream, boolean resumed) throws IOException {
+		try {
+			this.outputStream = outputStream;
+			this.channel = outputStream instanceof FileOutputStream ? ((FileOutputStream) outputStream).getChannel() : null;
+			this.resumed = resumed;
+			if (resumed) {
+				this.writer = RESUME_OUTPUT_FACTORY.createXMLStreamWriter(outputStream, "UTF-8");
+			} else {
+				this.writer = XML_OUTPUT_FACTORY.createXMLStreamWriter(outputStream, "UTF-8");
+				writer.writeStartDocument();
+				writer.writeStartElement("d");
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Write just the page elements into a document handled by the caller.
+	 * @param writer
+	 */
+	public XmlPageWriter(XMLStreamWriter writer) {
+		this.outputStream = null;
+		this.channel = null;
+		this.resumed = false;
+		this.writer = writer;
+	}
+
+	@Override
+	public void writePage(ExtractedPage page) throws IOException {
+		try {
+			writer.writeStartElement("p");
+
+			writeElement(page.isCategory() ? "q" : "t", page.getTitle());
+			if (page.getHash() != 0) {
+				writeElement("h", Long.toHexString(page.getHash()));
+			}
+			if (page.getPlainText() != null) {
+				writeElement("text", page.getPlainText());
+			}
+			if (page.getCategories() != null) {
+				for (String category : page.getCategories()) {
+					writeElement("c", category);
+				}
+			}
+			if (page.getLinks() != null) {
+				for (String link : page.getLinks()) {
+					writeElement("l", link);
+				}
+			}
+
+			writer.writeEndElement();
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+	}
+
+	@Override
+	public void checkpoint(Checkpoint checkpoint) throws IOException {
+		if (channel == null) {
+			throw new IllegalStateException("Only documents written into a file can be checkpointed");
+		}
+		try {
+			writer.flush();
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+		outputStream.flush();
+		checkpoint.set(OUTPUT_LENGTH, channel.position());
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (outputStream == null) {
+			return;
+		}
+		try {
+			if (resumed) {
+				writer.close();
+				outputStream.write(END_OF_DOCUMENT);
+			} else {
+				writer.writeEndElement();
+				writer.writeEndDocument();
+				writer.close();
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		} finally {
+			outputStream.close();
+		}
+	}
+
+	private static FileOutputStream open(File file, long length) throws IOException {
+		if (length == 0) {
+			return new FileOutputStream(file);
+		}
+		try (RandomAccessFile truncated = new RandomAccessFile(file, "rw")) {
+			truncated.setLength(length);
+		}
+		return new FileOutputStream(file, true);
+	}
+
+	private void writeElement(String element, String value) throws XMLStreamException {
+		writer.writeStartElement(element);
+		writer.writeCharacters(value);
+		writer.writeEndElement();
+	}
+
+}
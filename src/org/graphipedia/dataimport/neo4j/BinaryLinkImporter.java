@@ -0,0 +1,247 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graphipedia.dataimport.neo4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import org.graphipedia.dataimport.BinaryLinkReader;
+import org.graphipedia.dataimport.ImportMetrics;
+import org.graphipedia.dataimport.MemoryBudget;
+import org.graphipedia.dataimport.ProgressCounter;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.helpers.collection.MapUtil;
+import org.neo4j.unsafe.batchinsert.BatchInserter;
+
+/**
+ * Imports a file written by {@link org.graphipedia.dataimport.BinaryLinkWriter}.
+ *
+ * Both passes are sequential scans of the memory-mapped file. Titles are
+ * already dictionary-encoded, so the title to node id index is just a table
+ * indexed by title id, kept off-heap in {@link TitleNodes}.
+ * @author cotrino
+ *
+ */
+public class BinaryLinkImporter {
+
+    private static final String PAGES = "pages";
+    private static final String LINKS = "links";
+    private static final String BAD_LINKS = "badLinks";
+    private static final String NODE_IDS = "node-ids";
+
+    private final File file;
+    private final ImportGraph graph;
+    private final MemoryBudget budget;
+
+    private final ProgressCounter pageCounter;
+    private final ProgressCounter linkCounter;
+    private int badLinkCount;
+    private final ImportMetrics.Stage readStage;
+    private final ImportMetrics.Stage insertStage;
+
+    private BatchInserter inserter;
+    private TitleNodes titleNodes;
+
+    /**
+     * @param budget memory for the node ids of every title
+     */
+    public BinaryLinkImporter(BatchInserter inserter, String fileName, MemoryBudget budget) {
+        this(inserter, fileName, budget, null);
+    }
+
+    /**
+     * @param graph where to save checkpoints, and whose index memory is used
+     */
+    public BinaryLinkImporter(BatchInserter inserter, String fileName, ImportGraph graph) {
+        this(inserter, fileName, graph.getIndexBudget(), graph);
+    }
+
+    private BinaryLinkImporter(BatchInserter inserter, String fileName, MemoryBudget budget, ImportGraph graph) {
+        this.inserter = inserter;
+        this.file = new File(fileName);
+        this.graph = graph;
+        this.budget = budget;
+        this.pageCounter = new ProgressCounter((int) getSavedCount(ImportGraph.NODES, PAGES));
+        this.linkCounter = new ProgressCounter((int) getSavedCount(ImportGraph.RELATIONSHIPS, LINKS));
+        this.badLinkCount = (int) getSavedCount(ImportGraph.RELATIONSHIPS, BAD_LINKS);
+        if (graph == null) {
+            this.readStage = null;
+            this.insertStage = null;
+        } else {
+            ImportMetrics metrics = graph.getMetrics();
+            this.readStage = metrics.stage("read");
+            this.insertStage = metrics.stage("insert");
+            metrics.gauge("pages", pageCounter::getCount);
+            metrics.gauge("links", linkCounter::getCount);
+        }
+    }
+
+    public int getPageCount() {
+        return pageCounter.getCount();
+    }
+
+    public int getLinkCount() {
+        return linkCounter.getCount();
+    }
+
+    public int getBadLinkCount() {
+        return badLinkCount;
+    }
+
+    public void createNodes() throws IOException {
+        try (BinaryLinkReader reader = new BinaryLinkReader(file)) {
+            long position = graph == null ? 0 : graph.getResumePosition(ImportGraph.NODES);
+            if (position > 0) {
+                System.out.println("Resuming from the last checkpoint...");
+                loadNodeIds(reader.getTitleCount());
+                reader.seek(position);
+            } else {
+                titleNodes = new TitleNodes(budget, reader.getTitleCount());
+            }
+            while (next(reader)) {
+                Map<String, Object> properties = MapUtil.map("title", reader.getTitle());
+                if (reader.getHash() != 0) {
+                    properties.put("hash", reader.getHash());
+                }
+                long startTime = System.nanoTime();
+                if (reader.isCategory()) {
+                    long nodeId = inserter.createNode(properties, WikiCategory.Category);
+                    titleNodes.setCategory(reader.getTitleId(), nodeId);
+                    if (graph != null && CategoryTree.ROOT.equals(properties.get("title"))) {
+                        // titles are not in the title index, but the category tree needs its root
+                        graph.getCategoryIndex().put(CategoryTree.ROOT, nodeId);
+                    }
+                } else {
+                    titleNodes.setPage(reader.getTitleId(), inserter.createNode(properties, WikiLabel.Page));
+                }
+                if (insertStage != null) {
+                    insertStage.addSince(startTime);
+                }
+                pageCounter.increment();
+                if (graph != null && graph.isCheckpointDue()) {
+                    graph.setSavedCount(ImportGraph.NODES, PAGES, pageCounter.getCount());
+                    checkpoint(ImportGraph.NODES, reader.getPosition());
+                }
+            }
+        }
+        if (graph != null && graph.getCheckpoint() != null) {
+            // kept by the checkpoint that ends the stage
+            saveNodeIds();
+        }
+    }
+
+    public void createRelationships() throws IOException {
+        try (BinaryLinkReader reader = new BinaryLinkReader(file)) {
+            if (titleNodes == null) {
+                if (graph == null || graph.getCheckpoint() == null) {
+                    throw new IllegalStateException("Nodes must be created before relationships");
+                }
+                loadNodeIds(reader.getTitleCount());
+            }
+            long position = graph == null ? 0 : graph.getResumePosition(ImportGraph.RELATIONSHIPS);
+            if (position > 0) {
+                System.out.println("Resuming from the last checkpoint...");
+                reader.seek(position);
+            }
+            while (next(reader)) {
+                long nodeId = reader.isCategory() ? titleNodes.getCategory(reader.getTitleId())
+                        : titleNodes.getPage(reader.getTitleId());
+                if (reader.hasText()) {
+                    String text = reader.getText();
+                    long startTime = System.nanoTime();
+                    if (graph == null) {
+                        inserter.setNodeProperty(nodeId, "text", text);
+                    } else {
+                        graph.putText(nodeId, text);
+                        inserter.setNodeProperty(nodeId, ImportGraph.TEXT_LENGTH, text.length());
+                    }
+                    if (insertStage != null) {
+                        insertStage.addSince(startTime);
+                    }
+                }
+                for (int i = 0; i < reader.getCategoryCount(); i++) {
+                    createRelationship(nodeId, titleNodes.getCategory(reader.getCategory(i)),
+                            WikiRelationship.In_Category);
+                }
+                for (int i = 0; i < reader.getLinkCount(); i++) {
+                    createRelationship(nodeId, titleNodes.getPage(reader.getLink(i)), WikiRelationship.Link);
+                }
+                if (graph != null && graph.isCheckpointDue()) {
+                    graph.setSavedCount(ImportGraph.RELATIONSHIPS, LINKS, linkCounter.getCount());
+                    graph.setSavedCount(ImportGraph.RELATIONSHIPS, BAD_LINKS, badLinkCount);
+                    checkpoint(ImportGraph.RELATIONSHIPS, reader.getPosition());
+                }
+            }
+        }
+        if (graph != null && graph.getCheckpoint() != null) {
+            saveNodeIds();
+        }
+        titleNodes.free();
+        titleNodes = null;
+    }
+
+    void setInserter(BatchInserter inserter) {
+        this.inserter = inserter;
+    }
+
+    private void checkpoint(String stage, long position) throws IOException {
+        saveNodeIds();
+        inserter = graph.checkpoint(stage, position, null);
+    }
+
+    /**
+     * Node ids are not kept in the title index, every checkpoint needs its own copy.
+     */
+    private void saveNodeIds() throws IOException {
+        titleNodes.save(graph.getCheckpoint().getSnapshot(NODE_IDS));
+    }
+
+    private void loadNodeIds(int titleCount) throws IOException {
+        titleNodes = TitleNodes.load(budget, titleCount, graph.getCheckpoint().getSavedSnapshot(NODE_IDS));
+    }
+
+    private long getSavedCount(String stage, String counter) {
+        return graph == null ? 0 : graph.getSavedCount(stage, counter);
+    }
+
+    private boolean next(BinaryLinkReader reader) throws IOException {
+        long startTime = System.nanoTime();
+        boolean found = reader.next();
+        if (readStage != null) {
+            readStage.addSince(startTime);
+        }
+        return found;
+    }
+
+    private void createRelationship(long nodeId, long linkNodeId, RelationshipType type) {
+        if (linkNodeId != TitleNodes.NONE) {
+            long startTime = System.nanoTime();
+            inserter.createRelationship(nodeId, linkNodeId, type, null);
+            if (insertStage != null) {
+                insertStage.addSince(startTime);
+            }
+            if (graph != null) {
+                graph.relationshipCreated(nodeId, linkNodeId, type);
+            }
+            linkCounter.increment();
+        } else {
+            badLinkCount++;
+        }
+    }
+
+}
@@ -0,0 +1,155 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graphipedia.dataimport.neo4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.graphipedia.dataimport.MemoryBudget;
+import org.neo4j.unsafe.batchinsert.BatchInserter;
+
+/**
+ * Shortest path of every page and category to the root category, computed
+ * once while importing so that readers only have to follow parents.
+ *
+ * In_Category relationships are recorded while they are created. Once the
+ * import is done, a breadth-first search from the root goes down the members
+ * of each category, and every node reached gets the category it was reached
+ * from as "categoryParent" (a node id) and its distance to the root as
+ * "categoryDepth". Nodes that are not below the root get neither.
+ * @author cotrino
+ *
+ */
+public class CategoryTree {
+
+    public static final String ROOT = "Articles";
+    public static final String PARENT = "categoryParent";
+    public static final String DEPTH = "categoryDepth";
+
+    private static final int NONE = -1;
+
+    private final EdgeList memberships;
+
+    private int[] parents;
+    private int[] depths;
+    private int reachedCount;
+
+    /**
+     * @param budget off-heap memory the relationships are recorded in
+     */
+    public CategoryTree(MemoryBudget budget) {
+        this.memberships = new EdgeList(budget);
+    }
+
+    /**
+     * Record an In_Category relationship.
+     * @param member page or category
+     * @param category
+     */
+    public void add(long member, long category) {
+        memberships.add(member, category);
+    }
+
+    public long getMembershipCount() {
+        return memberships.size();
+    }
+
+    /**
+     * @return nodes below the root, the root included
+     */
+    public int getReachedCount() {
+        return reachedCount;
+    }
+
+    /**
+     * @param nodeId
+     * @return category the node is reached from, -1 for the root and nodes not below it
+     */
+    public long getParent(long nodeId) {
+        return parents[(int) nodeId];
+    }
+
+    /**
+     * @param nodeId
+     * @return distance of the node to the root, -1 for nodes not below it
+     */
+    public int getDepth(long nodeId) {
+        return depths[(int) nodeId];
+    }
+
+    /**
+     * Search the tree. Recorded relationships are released while the member
+     * rows are built.
+     * @param nodeCount nodes in the store, at least the highest recorded node id plus one
+     * @param root node id of the root category, or -1 if there is none
+     */
+    public void compute(int nodeCount, long root) {
+        nodeCount = Math.max(nodeCount, memberships.getMaxNodeId() + 1);
+        EdgeList.Rows members = memberships.toRows(nodeCount, false);
+        parents = new int[nodeCount];
+        depths = new int[nodeCount];
+        Arrays.fill(parents, NONE);
+        Arrays.fill(depths, NONE);
+        reachedCount = 0;
+        if (root < 0 || root >= nodeCount) {
+            members.free();
+            return;
+        }
+        int[] queue = new int[nodeCount];
+        queue[reachedCount++] = (int) root;
+        depths[(int) root] = 0;
+        for (int head = 0; head < reachedCount; head++) {
+            int category = queue[head];
+            for (int i = members.getStart(category); i < members.getEnd(category); i++) {
+                int member = members.get(i);
+                if (depths[member] == NONE) {
+                    parents[member] = category;
+                    depths[member] = depths[category] + 1;
+                    queue[reachedCount++] = member;
+                }
+            }
+        }
+        members.free();
+    }
+
+    /**
+     * Set the "categoryParent" and "categoryDepth" properties of every node below the root.
+     * @param inserter
+     */
+    public void write(BatchInserter inserter) {
+        for (int node = 0; node < depths.length; node++) {
+            if (parents[node] != NONE) {
+                inserter.setNodeProperty(node, PARENT, (long) parents[node]);
+            }
+            if (depths[node] != NONE) {
+                inserter.setNodeProperty(node, DEPTH, depths[node]);
+            }
+        }
+    }
+
+    public void save(File file) throws IOException {
+        memberships.save(file);
+    }
+
+    public static CategoryTree load(MemoryBudget budget, File file) throws IOException {
+        CategoryTree tree = new CategoryTree(budget);
+        tree.memberships.load(file);
+        return tree;
+    }
+
+}
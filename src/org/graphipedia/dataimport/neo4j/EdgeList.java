@@ -0,0 +1,212 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graphipedia.dataimport.neo4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.graphipedia.dataimport.MemoryBudget;
+
+/**
+ * Relationships recorded as pairs of node ids while they are created, in
+ * off-heap pages of a {@link MemoryBudget}: a full dump records hundreds of
+ * millions of them, which spill to disk along with the title index instead
+ * of filling the heap. Node ids of a store written by a batch inserter start
+ * at 0 and stay below 2^31 for any Wikipedia.
+ * @author cotrino
+ *
+ */
+class EdgeList {
+
+    private static final int EDGE_SIZE = 8;
+
+    private final MemoryBudget budget;
+    private final int pageBits;
+    private final int pageMask;
+
+    private ByteBuffer[] pages = new ByteBuffer[16];
+    private long size = 0;
+    private int maxNodeId = -1;
+
+    EdgeList(MemoryBudget budget) {
+        this.budget = budget;
+        this.pageBits = Integer.numberOfTrailingZeros(budget.getPageSize() / EDGE_SIZE);
+        this.pageMask = (1 << pageBits) - 1;
+    }
+
+    void add(long source, long target) {
+        int page = (int) (size >>> pageBits);
+        int index = (int) (size & pageMask);
+        if (index == 0) {
+            if (page == pages.length) {
+                pages = Arrays.copyOf(pages, page * 2);
+            }
+            pages[page] = budget.allocate(budget.getPageSize());
+        }
+        pages[page].putInt(index * EDGE_SIZE, (int) source);
+        pages[page].putInt(index * EDGE_SIZE + 4, (int) target);
+        maxNodeId = Math.max(maxNodeId, (int) Math.max(source, target));
+        size++;
+    }
+
+    long size() {
+        return size;
+    }
+
+    int getMaxNodeId() {
+        return maxNodeId;
+    }
+
+    int getSource(long i) {
+        return pages[(int) (i >>> pageBits)].getInt((int) (i & pageMask) * EDGE_SIZE);
+    }
+
+    int getTarget(long i) {
+        return pages[(int) (i >>> pageBits)].getInt((int) (i & pageMask) * EDGE_SIZE + 4);
+    }
+
+    /**
+     * Group the relationships by target node (or by source node if reversed),
+     * in compressed rows taken from the same budget. Relationships are released
+     * on the way, this list is empty afterwards.
+     * @param nodeCount nodes in the store, above the highest recorded node id
+     * @param bySource
+     * @return the other end of the relationships of each node
+     */
+    Rows toRows(int nodeCount, boolean bySource) {
+        if (size >= Integer.MAX_VALUE) {
+            throw new IllegalStateException("Too many relationships: " + size);
+        }
+        int key = bySource ? 0 : 4;
+        int value = bySource ? 4 : 0;
+        int[] offsets = new int[nodeCount + 1];
+        for (long i = 0; i < size; i++) {
+            offsets[pages[(int) (i >>> pageBits)].getInt((int) (i & pageMask) * EDGE_SIZE + key) + 1]++;
+        }
+        for (int node = 0; node < nodeCount; node++) {
+            offsets[node + 1] += offsets[node];
+        }
+        Rows rows = new Rows(budget, offsets);
+        int[] next = Arrays.copyOf(offsets, nodeCount);
+        for (long i = 0; i < size; i++) {
+            int page = (int) (i >>> pageBits);
+            int index = (int) (i & pageMask);
+            ByteBuffer edges = pages[page];
+            rows.set(next[edges.getInt(index * EDGE_SIZE + key)]++, edges.getInt(index * EDGE_SIZE + value));
+            if (index == pageMask || i == size - 1) {
+                budget.release(edges);
+                pages[page] = null;
+            }
+        }
+        pages = new ByteBuffer[16];
+        size = 0;
+        maxNodeId = -1;
+        return rows;
+    }
+
+    void save(File file) throws IOException {
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file), 1024 * 1024))) {
+            output.writeLong(size);
+            for (long i = 0; i < size; i++) {
+                output.writeInt(getSource(i));
+                output.writeInt(getTarget(i));
+            }
+        }
+    }
+
+    void load(File file) throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file), 1024 * 1024))) {
+            long count = input.readLong();
+            for (long i = 0; i < count; i++) {
+                add(input.readInt(), input.readInt());
+            }
+        }
+    }
+
+    /**
+     * Relationships grouped by one of their ends (CSR): the other ends of
+     * those of a node are at {@link #getStart(int)} up to {@link #getEnd(int)}.
+     * Read by several threads at once once filled.
+     */
+    static class Rows {
+
+        private static final int END_SIZE = 4;
+
+        private final MemoryBudget budget;
+        private final int[] offsets;
+        private final int pageBits;
+        private final int pageMask;
+        private final ByteBuffer[] pages;
+
+        private Rows(MemoryBudget budget, int[] offsets) {
+            this.budget = budget;
+            this.offsets = offsets;
+            this.pageBits = Integer.numberOfTrailingZeros(budget.getPageSize() / END_SIZE);
+            this.pageMask = (1 << pageBits) - 1;
+            long size = offsets[offsets.length - 1];
+            this.pages = new ByteBuffer[(int) ((size + pageMask) >>> pageBits)];
+            for (int page = 0; page < pages.length; page++) {
+                long entries = Math.min(size - ((long) page << pageBits), 1 << pageBits);
+                pages[page] = budget.allocate((int) entries * END_SIZE);
+            }
+        }
+
+        int getStart(int node) {
+            return offsets[node];
+        }
+
+        int getEnd(int node) {
+            return offsets[node + 1];
+        }
+
+        /**
+         * @param i between the start of a node and its end
+         * @return node at the other end of the relationship
+         */
+        int get(int i) {
+            return pages[i >>> pageBits].getInt((i & pageMask) * END_SIZE);
+        }
+
+        private void set(int i, int node) {
+            pages[i >>> pageBits].putInt((i & pageMask) * END_SIZE, node);
+        }
+
+        /**
+         * Give the pages back to the budget.
+         */
+        void free() {
+            for (int page = 0; page < pages.length; page++) {
+                if (pages[page] != null) {
+                    budget.release(pages[page]);
+                    pages[page] = null;
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,559 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graphipedia.dataimport.neo4j;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.regex.Pattern;
+
+import org.graphipedia.dataimport.ExtractedPage;
+import org.graphipedia.dataimport.ExtractedPageReader;
+import org.graphipedia.dataimport.GraphStatistics;
+import org.graphipedia.dataimport.MemoryBudget;
+import org.graphipedia.dataimport.TextStoreWriter;
+import org.graphipedia.dataimport.TitleIndex;
+import org.neo4j.unsafe.batchinsert.BatchInserter;
+import org.neo4j.unsafe.batchinsert.BatchInserters;
+
+/**
+ * Alternative to {@link ImportGraph}: writes the graph of an extracted file as
+ * the CSV files of the Neo4j bulk import tool (neo4j-import), which builds a
+ * new store offline much faster than the batch inserter.
+ *
+ * Node ids are assigned in file order, as the batch inserter would, and given
+ * to the tool as actual ids, so that ranks and category parents can refer to
+ * them. The file is read three times: to assign ids, to write relationships
+ * while recording them for {@link NodeRank} and {@link CategoryTree}, and to
+ * write nodes with their rank and category path. The reading thread only
+ * resolves titles and records relationships: rows are handed out in batches
+ * to several writer threads, each formatting them into a data file of its own
+ * (nodes-0.csv, nodes-1.csv...), all of which are given to the tool. Texts go
+ * to a text store next to the CSV files, written by yet another thread, and
+ * moved into the store directory by {@link #finish(File, String)} once the
+ * tool is done.
+ * @author cotrino
+ *
+ */
+public class ExportCsv {
+
+    // data files are named after these, see getDataFiles
+    public static final String NODES = "nodes";
+    public static final String NODES_HEADER = "nodes-header.csv";
+    public static final String RELATIONSHIPS = "relationships";
+    public static final String RELATIONSHIPS_HEADER = "relationships-header.csv";
+
+    private static final long MEGABYTE = 1024 * 1024;
+    private static final long DEFAULT_INDEX_MEMORY = 1024 * MEGABYTE;
+
+    private static final int DEFAULT_WRITERS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private static final int TEXT_QUEUE_SIZE = 1024;
+    private static final int BATCH_SIZE = 1024;
+
+    private static final String NODE_COLUMNS = ":ID,title,hash:long," + ImportGraph.TEXT_LENGTH + ":int,"
+            + NodeRank.PROPERTY + ":long," + CategoryTree.PARENT + ":long," + CategoryTree.DEPTH + ":int,:LABEL";
+    private static final String RELATIONSHIP_COLUMNS = ":START_ID,:END_ID,:TYPE";
+
+    private final File csvDir;
+    private final int writers;
+    private final MemoryBudget indexBudget;
+    private final TitleIndex pageIndex;
+    private final TitleIndex categoryIndex;
+    private final NodeRank nodeRank;
+    private final CategoryTree categoryTree;
+    private final GraphStatistics statistics = new GraphStatistics();
+
+    private long nodeCount;
+    private long nodeId;
+    private long root = TitleIndex.NOT_FOUND;
+    private long linkCount;
+    private long badLinkCount;
+    private NodeBatch nodeBatch;
+    private RelationshipBatch relationshipBatch;
+
+    public ExportCsv(File csvDir) {
+        this(csvDir, DEFAULT_INDEX_MEMORY, DEFAULT_WRITERS);
+    }
+
+    /**
+     * @param csvDir where the CSV files are written, created if it does not exist
+     * @param indexMemory bytes of memory for the title index and the relationships
+     *        recorded for ranking; beyond it, they spill to a memory-mapped file in the CSV directory
+     * @param writers threads writing nodes and relationships, and data files of each
+     */
+    public ExportCsv(File csvDir, long indexMemory, int writers) {
+        csvDir.mkdirs();
+        this.csvDir = csvDir;
+        this.writers = writers;
+        indexBudget = new MemoryBudget(indexMemory, csvDir);
+        pageIndex = new TitleIndex(indexBudget);
+        categoryIndex = new TitleIndex(indexBudget);
+        nodeRank = new NodeRank(indexBudget);
+        categoryTree = new CategoryTree(indexBudget);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 3 && "--finish".equals(args[0])) {
+            finish(new File(args[1]), args[2]);
+            return;
+        }
+        if (args.length < 2) {
+            System.out.println("USAGE: ExportCsv <input-file> <csv-dir> [index-memory-MB] [writers]");
+            System.out.println("       ExportCsv --finish <csv-dir> <data-dir>");
+            System.exit(255);
+        }
+        File csvDir = new File(args[1]);
+        long indexMemory = args.length > 2 ? Long.parseLong(args[2]) * MEGABYTE : DEFAULT_INDEX_MEMORY;
+        int writers = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_WRITERS;
+        ExportCsv exporter = new ExportCsv(csvDir, indexMemory, writers);
+        exporter.export(args[0]);
+        System.out.println("Import them into a new store with:");
+        System.out.println(String.join(" ", getImportCommand("neo4j-import", csvDir, "<data-dir>")));
+        System.out.println("then run ExportCsv --finish " + csvDir + " <data-dir>");
+    }
+
+    /**
+     * @param tool path of the neo4j-import executable
+     * @param csvDir
+     * @param dataDir Neo4j store directory to create, which must not exist
+     * @return command line importing the CSV files written to the directory,
+     *         every data file of a kind after the header
+     */
+    public static List<String> getImportCommand(String tool, File csvDir, String dataDir) {
+        return Arrays.asList(tool, "--into", dataDir, "--id-type", "ACTUAL",
+                "--nodes", files(csvDir, NODES_HEADER, NODES),
+                "--relationships", files(csvDir, RELATIONSHIPS_HEADER, RELATIONSHIPS));
+    }
+
+    public long getNodeCount() {
+        return nodeCount;
+    }
+
+    public long getLinkCount() {
+        return linkCount;
+    }
+
+    public long getBadLinkCount() {
+        return badLinkCount;
+    }
+
+    /**
+     * Write the CSV files and the text store of an extracted file.
+     * @param fileName extracted file, XML or binary
+     * @throws Exception
+     */
+    public void export(String fileName) throws Exception {
+        long startTime = System.currentTimeMillis();
+        System.out.println("Numbering nodes...");
+        ExtractedPageReader.read(fileName, page -> {
+            if (page.isCategory()) {
+                categoryIndex.put(page.getTitle(), nodeCount);
+                if (CategoryTree.ROOT.equals(page.getTitle())) {
+                    root = nodeCount;
+                }
+            } else {
+                pageIndex.put(page.getTitle(), nodeCount);
+            }
+            nodeCount++;
+        });
+        System.out.printf("%d nodes numbered in %d seconds.\n", nodeCount, seconds(startTime));
+
+        System.out.println("Writing relationships...");
+        writeHeader(RELATIONSHIPS_HEADER, RELATIONSHIP_COLUMNS);
+        try (CsvFiles<RelationshipBatch> relationships = new CsvFiles<RelationshipBatch>(csvDir, RELATIONSHIPS,
+                writers, ExportCsv::writeRelationships)) {
+            nodeId = 0;
+            relationshipBatch = new RelationshipBatch();
+            ExtractedPageReader.read(fileName, page -> {
+                if (page.getLinks() != null) {
+                    for (String link : page.getLinks()) {
+                        addRelationship(relationships, nodeId, pageIndex.get(link), WikiRelationship.Link);
+                    }
+                }
+                if (page.getCategories() != null) {
+                    for (String category : page.getCategories()) {
+                        addRelationship(relationships, nodeId, categoryIndex.get(category),
+                                WikiRelationship.In_Category);
+                    }
+                }
+                nodeId++;
+            });
+            relationships.submit(relationshipBatch);
+            relationshipBatch = null;
+        }
+        pageIndex.free();
+        categoryIndex.free();
+        System.out.printf("%d links written in %d seconds; %d broken links ignored\n",
+                linkCount, seconds(startTime), badLinkCount);
+
+        System.out.println("Ranking nodes...");
+        nodeRank.compute((int) nodeCount, Runtime.getRuntime().availableProcessors());
+        categoryTree.compute((int) nodeCount, root);
+        indexBudget.close();
+        System.out.printf("%d nodes ranked in %d iterations, %d found below category %s.\n",
+                nodeCount, nodeRank.getIterations(), categoryTree.getReachedCount(), CategoryTree.ROOT);
+
+        System.out.println("Writing nodes...");
+        writeHeader(NODES_HEADER, NODE_COLUMNS);
+        new File(csvDir, TextStoreWriter.DATA).delete();
+        new File(csvDir, TextStoreWriter.INDEX).delete();
+        try (CsvFiles<NodeBatch> nodes = new CsvFiles<NodeBatch>(csvDir, NODES, writers, this::writeNodes);
+                TextStoreWriter textStore = new TextStoreWriter(csvDir);
+                Background texts = new Background("text-writer", TEXT_QUEUE_SIZE)) {
+            nodeId = 0;
+            nodeBatch = new NodeBatch(0);
+            ExtractedPageReader.read(fileName, page -> {
+                long id = nodeId++;
+                nodeBatch.pages.add(page);
+                if (nodeBatch.pages.size() == BATCH_SIZE) {
+                    nodes.submit(nodeBatch);
+                    nodeBatch = new NodeBatch(nodeId);
+                }
+                if (!page.isCategory()) {
+                    statistics.addPage(id, nodeRank.getScaledRank(id));
+                }
+                String text = page.getPlainText();
+                if (text != null) {
+                    texts.submit(() -> textStore.put(id, text));
+                }
+            });
+            nodes.submit(nodeBatch);
+            nodeBatch = null;
+        }
+        statistics.save(csvDir);
+        System.out.printf("%d nodes written in %d seconds.\n", nodeCount, seconds(startTime));
+    }
+
+    /**
+     * Complete a store created by neo4j-import from the CSV files: move the text
+     * store and the graph statistics into it, and create the indexes on titles,
+     * which the tool does not.
+     * @param csvDir
+     * @param dataDir Neo4j store directory
+     * @throws IOException
+     */
+    public static void finish(File csvDir, String dataDir) throws IOException {
+        File store = new File(dataDir);
+        for (String name : Arrays.asList(TextStoreWriter.DATA, TextStoreWriter.INDEX, GraphStatistics.FILE)) {
+            Files.move(new File(csvDir, name).toPath(), new File(store, name).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+        BatchInserter inserter = BatchInserters.inserter(dataDir);
+        inserter.createDeferredSchemaIndex(WikiLabel.Page).on("title").create();
+        inserter.createDeferredSchemaIndex(WikiCategory.Category).on("title").create();
+        inserter.shutdown();
+    }
+
+    /**
+     * @return data files of one kind written to the directory, in order
+     */
+    public static List<File> getDataFiles(File csvDir, String name) {
+        List<File> files = new ArrayList<File>();
+        for (int i = 0; getDataFile(csvDir, name, i).isFile(); i++) {
+            files.add(getDataFile(csvDir, name, i));
+        }
+        return files;
+    }
+
+    private static File getDataFile(File csvDir, String name, int index) {
+        return new File(csvDir, name + "-" + index + ".csv");
+    }
+
+    private void addRelationship(CsvFiles<RelationshipBatch> relationships, long source, long target,
+            WikiRelationship type) throws IOException {
+        if (target == TitleIndex.NOT_FOUND) {
+            badLinkCount++;
+            return;
+        }
+        RelationshipBatch batch = relationshipBatch;
+        batch.sources[batch.size] = source;
+        batch.targets[batch.size] = target;
+        batch.types[batch.size++] = type;
+        if (batch.size == BATCH_SIZE) {
+            relationships.submit(batch);
+            relationshipBatch = new RelationshipBatch();
+        }
+        nodeRank.add(source, target);
+        if (type == WikiRelationship.In_Category) {
+            categoryTree.add(source, target);
+        }
+        linkCount++;
+    }
+
+    /**
+     * Format relationships, on a writer thread.
+     */
+    private static void writeRelationships(RelationshipBatch batch, StringBuilder rows) {
+        for (int i = 0; i < batch.size; i++) {
+            rows.append(batch.sources[i]).append(',').append(batch.targets[i]).append(',')
+                    .append(batch.types[i].name()).append('\n');
+        }
+    }
+
+    /**
+     * Format nodes, on a writer thread: ranks and the category tree are only read by then.
+     */
+    private void writeNodes(NodeBatch batch, StringBuilder rows) {
+        long id = batch.firstId;
+        for (ExtractedPage page : batch.pages) {
+            writeNode(rows, id++, page);
+        }
+    }
+
+    private void writeNode(StringBuilder row, long nodeId, ExtractedPage page) {
+        row.append(nodeId).append(',');
+        quote(row, page.getTitle()).append(',');
+        if (page.getHash() != 0) {
+            row.append(page.getHash());
+        }
+        row.append(',');
+        if (page.getPlainText() != null) {
+            row.append(page.getPlainText().length());
+        }
+        row.append(',').append(nodeRank.getScaledRank(nodeId)).append(',');
+        if (categoryTree.getParent(nodeId) >= 0) {
+            row.append(categoryTree.getParent(nodeId));
+        }
+        row.append(',');
+        if (categoryTree.getDepth(nodeId) >= 0) {
+            row.append(categoryTree.getDepth(nodeId));
+        }
+        row.append(',').append(page.isCategory() ? WikiCategory.Category.name() : WikiLabel.Page.name());
+        row.append('\n');
+    }
+
+    private void writeHeader(String name, String columns) throws IOException {
+        Files.write(new File(csvDir, name).toPath(), (columns + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Append a string field, quoted, with its quotes doubled.
+     */
+    static StringBuilder quote(StringBuilder row, String value) {
+        row.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                row.append('"');
+            }
+            row.append(c);
+        }
+        return row.append('"');
+    }
+
+    private static String files(File csvDir, String header, String name) {
+        StringBuilder files = new StringBuilder(new File(csvDir, header).getPath());
+        for (File file : getDataFiles(csvDir, name)) {
+            files.append(',').append(file.getPath());
+        }
+        return files.toString();
+    }
+
+    private static long seconds(long startTime) {
+        return (System.currentTimeMillis() - startTime) / 1000;
+    }
+
+    private interface Task {
+        void run() throws IOException;
+    }
+
+    /**
+     * Runs tasks in order on a thread of its own, behind a bounded queue so
+     * that a slow disk holds the reading thread back instead of filling memory.
+     */
+    private static class Background implements Closeable {
+
+        private static final Task END = () -> {};
+
+        private final BlockingQueue<Task> tasks;
+        private final Thread thread;
+        private volatile IOException failure;
+
+        /**
+         * @param name of the thread
+         * @param capacity tasks that may wait to be run
+         */
+        Background(String name, int capacity) {
+            tasks = new ArrayBlockingQueue<Task>(capacity);
+            thread = new Thread(this::runTasks, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void submit(Task task) throws IOException {
+            if (failure != null) {
+                throw failure;
+            }
+            put(task);
+        }
+
+        private void runTasks() {
+            try {
+                for (Task task = tasks.take(); task != END; task = tasks.take()) {
+                    if (failure == null) {
+                        try {
+                            task.run();
+                        } catch (IOException e) {
+                            failure = e;
+                        } catch (RuntimeException e) {
+                            failure = new IOException(e);
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                failure = new IOException("Interrupted while writing", e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            put(END);
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while writing", e);
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        private void put(Task task) throws IOException {
+            try {
+                tasks.put(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while writing", e);
+            }
+        }
+
+    }
+
+    /**
+     * Consecutive pages, the first of them with the given node id.
+     */
+    private static class NodeBatch {
+
+        final long firstId;
+        final List<ExtractedPage> pages = new ArrayList<ExtractedPage>(BATCH_SIZE);
+
+        NodeBatch(long firstId) {
+            this.firstId = firstId;
+        }
+
+    }
+
+    /**
+     * Relationships whose ends were resolved by the reading thread.
+     */
+    private static class RelationshipBatch {
+
+        final long[] sources = new long[BATCH_SIZE];
+        final long[] targets = new long[BATCH_SIZE];
+        final WikiRelationship[] types = new WikiRelationship[BATCH_SIZE];
+        int size;
+
+    }
+
+    private interface Formatter<T> {
+        void format(T batch, StringBuilder rows);
+    }
+
+    /**
+     * Data files of one kind, each formatted and written by a {@link Background}
+     * thread of its own. Batches of rows are handed to the threads in turn, so
+     * the files get about as many rows each. Any data files left by a previous
+     * export are removed first.
+     */
+    private static class CsvFiles<T> implements Closeable {
+
+        private static final int QUEUE_SIZE = 4;
+        private static final int BUFFER_SIZE = 1024 * 1024;
+
+        private final Formatter<T> formatter;
+        private final Writer[] outputs;
+        private final Background[] writers;
+        // each used by the thread of its file only
+        private final StringBuilder[] chunks;
+        private int next = 0;
+
+        CsvFiles(File csvDir, String name, int count, Formatter<T> formatter) throws IOException {
+            String stale = Pattern.quote(name) + "-\\d+\\.csv";
+            for (File file : csvDir.listFiles((dir, fileName) -> fileName.matches(stale))) {
+                Files.delete(file.toPath());
+            }
+            this.formatter = formatter;
+            outputs = new Writer[count];
+            writers = new Background[count];
+            chunks = new StringBuilder[count];
+            for (int i = 0; i < count; i++) {
+                File file = getDataFile(csvDir, name, i);
+                outputs[i] = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),
+                        StandardCharsets.UTF_8), BUFFER_SIZE);
+                writers[i] = new Background(file.getName() + "-writer", QUEUE_SIZE);
+                chunks[i] = new StringBuilder();
+            }
+        }
+
+        void submit(T batch) throws IOException {
+            int i = next;
+            next = (next + 1) % writers.length;
+            writers[i].submit(() -> {
+                chunks[i].setLength(0);
+                formatter.format(batch, chunks[i]);
+                outputs[i].append(chunks[i]);
+            });
+        }
+
+        @Override
+        public void close() throws IOException {
+            IOException failure = null;
+            for (int i = 0; i < writers.length; i++) {
+                try {
+                    writers[i].close();
+                } catch (IOException e) {
+                    failure = failure == null ? e : failure;
+                }
+            }
+            for (Writer output : outputs) {
+                try {
+                    output.close();
+                } catch (IOException e) {
+                    failure = failure == null ? e : failure;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+    }
+
+}
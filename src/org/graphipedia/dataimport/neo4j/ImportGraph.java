@@ -21,57 +21,460 @@
 //
 package org.graphipedia.dataimport.neo4j;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
+import org.apache.commons.io.FileUtils;
+import org.graphipedia.dataimport.BinaryLinkReader;
+import org.graphipedia.dataimport.Checkpoint;
+import org.graphipedia.dataimport.GraphStatistics;
+import org.graphipedia.dataimport.ImportMetrics;
+import org.graphipedia.dataimport.MemoryBudget;
+import org.graphipedia.dataimport.SimpleStaxParser;
+import org.graphipedia.dataimport.TextStoreWriter;
+import org.graphipedia.dataimport.TitleIndex;
+import org.neo4j.graphdb.RelationshipType;
 import org.neo4j.unsafe.batchinsert.BatchInserter;
 import org.neo4j.unsafe.batchinsert.BatchInserters;
 
 public class ImportGraph {
 
-    private final BatchInserter inserter;
-    private final Map<String, Long> inMemoryIndex;
+    /**
+     * Property with the length of the text of a node, the text itself being
+     * kept in the text store of the store directory, see {@link TextStoreWriter}.
+     */
+    public static final String TEXT_LENGTH = "textLength";
 
-    public ImportGraph(String dataDir) {
+    private static final long MEGABYTE = 1024 * 1024;
+    private static final long DEFAULT_INDEX_MEMORY = 1024 * MEGABYTE;
+
+    static final String NODES = "nodes";
+    static final String RELATIONSHIPS = "relationships";
+    static final String SINGLE_PASS = "single-pass";
+
+    private static final String POSITION = "position";
+    private static final String ROOT_ELEMENT = "root";
+    private static final String STORE = "store";
+    private static final String PAGE_INDEX = "page-index";
+    private static final String CATEGORY_INDEX = "category-index";
+    private static final String NODE_RANK = "node-rank";
+    private static final String CATEGORY_TREE = "category-tree";
+
+    private final String dataDir;
+    private final File spillDirectory;
+    private final Checkpoint checkpoint;
+    private final MemoryBudget indexBudget;
+    private final TitleIndex pageIndex;
+    private final TitleIndex categoryIndex;
+    private final NodeRank nodeRank;
+    private final CategoryTree categoryTree;
+    private final ImportMetrics metrics = new ImportMetrics("import");
+    private final TextStoreWriter texts;
+    private BatchInserter inserter;
+    private BinaryLinkImporter binaryImporter;
+
+    public ImportGraph(String dataDir) throws IOException {
+        this(dataDir, DEFAULT_INDEX_MEMORY);
+    }
+
+    /**
+     * @param dataDir Neo4j store directory
+     * @param indexMemory bytes of memory for the title index and the relationships
+     *        recorded for ranking; beyond it, they spill to a memory-mapped file next to the store directory
+     */
+    public ImportGraph(String dataDir, long indexMemory) throws IOException {
+        this(dataDir, indexMemory, null);
+    }
+
+    public ImportGraph(String dataDir, Checkpoint checkpoint) throws IOException {
+        this(dataDir, DEFAULT_INDEX_MEMORY, checkpoint);
+    }
+
+    /**
+     * @param dataDir Neo4j store directory
+     * @param indexMemory bytes of memory for the title index and the relationships
+     *        recorded for ranking; beyond it, they spill to a memory-mapped file next to the store directory
+     * @param checkpoint saved periodically, null for none. If a previous run saved
+     *        it, the store and the title indexes are restored as they were then, and
+     *        the import goes on from there.
+     */
+    public ImportGraph(String dataDir, long indexMemory, Checkpoint checkpoint) throws IOException {
+        this.dataDir = dataDir;
+        this.checkpoint = checkpoint;
+        spillDirectory = new File(dataDir).getAbsoluteFile().getParentFile();
+        indexBudget = new MemoryBudget(indexMemory, spillDirectory);
+        if (checkpoint != null && checkpoint.isResumed()) {
+            System.out.println("Restoring the graph saved by the last checkpoint...");
+            File store = new File(dataDir);
+            FileUtils.deleteDirectory(store);
+            FileUtils.copyDirectory(checkpoint.getSavedSnapshot(STORE), store);
+            pageIndex = TitleIndex.load(indexBudget, checkpoint.getSavedSnapshot(PAGE_INDEX));
+            categoryIndex = TitleIndex.load(indexBudget, checkpoint.getSavedSnapshot(CATEGORY_INDEX));
+            nodeRank = NodeRank.load(indexBudget, checkpoint.getSavedSnapshot(NODE_RANK));
+            categoryTree = CategoryTree.load(indexBudget, checkpoint.getSavedSnapshot(CATEGORY_TREE));
+        } else {
+            pageIndex = new TitleIndex(indexBudget);
+            categoryIndex = new TitleIndex(indexBudget);
+            nodeRank = new NodeRank(indexBudget);
+            categoryTree = new CategoryTree(indexBudget);
+        }
         inserter = BatchInserters.inserter(dataDir);
-        inserter.createDeferredSchemaIndex(WikiLabel.Page).on("title").create();
-        inMemoryIndex = new HashMap<String, Long>();
+        texts = new TextStoreWriter(new File(dataDir));
     }
 
     public static void main(String[] args) throws Exception {
         if (args.length < 2) {
-            System.out.println("USAGE: ImportGraph <input-file> <data-dir>");
+            System.out.println("USAGE: ImportGraph <input-file> <data-dir> [index-memory-MB] [--two-pass]");
             System.exit(255);
         }
         String inputFile = args[0];
         String dataDir = args[1];
-        ImportGraph importer = new ImportGraph(dataDir);
-        importer.createNodes(inputFile);
-        importer.createRelationships(inputFile);
+        long indexMemory = DEFAULT_INDEX_MEMORY;
+        boolean twoPass = false;
+        for (int i = 2; i < args.length; i++) {
+            if ("--two-pass".equals(args[i])) {
+                twoPass = true;
+            } else {
+                indexMemory = Long.parseLong(args[i]) * MEGABYTE;
+            }
+        }
+        ImportGraph importer = new ImportGraph(dataDir, indexMemory);
+        importer.getMetrics().report(new File(dataDir + ".metrics.jsonl"), ImportMetrics.DEFAULT_INTERVAL_MILLIS);
+        if (twoPass) {
+            importer.createNodes(inputFile);
+            importer.createRelationships(inputFile);
+        } else {
+            importer.importSinglePass(inputFile);
+        }
         importer.finish();
     }
 
     public void createNodes(String fileName) throws Exception {
+        if (isDone(NODES)) {
+            System.out.println("Pages already imported.");
+            return;
+        }
+        if (BinaryLinkReader.isBinary(fileName)) {
+            createNodesFromBinary(fileName);
+            finishStage(NODES);
+            return;
+        }
         System.out.println("Importing pages...");
-        NodeCreator nodeCreator = new NodeCreator(inserter, inMemoryIndex);
+        NodeCreator nodeCreator = new NodeCreator(inserter, pageIndex, categoryIndex, this);
         long startTime = System.currentTimeMillis();
-        nodeCreator.parse(fileName);
+        parse(nodeCreator, fileName, NODES);
+        finishStage(NODES);
         long elapsedSeconds = (System.currentTimeMillis() - startTime) / 1000;
         System.out.printf("\n%d pages imported in %d seconds.\n", nodeCreator.getPageCount(), elapsedSeconds);
     }
 
     public void createRelationships(String fileName) throws Exception {
+        if (isDone(RELATIONSHIPS)) {
+            System.out.println("Links already imported.");
+            return;
+        }
+        if (BinaryLinkReader.isBinary(fileName)) {
+            createRelationshipsFromBinary(fileName);
+            finishStage(RELATIONSHIPS);
+            return;
+        }
         System.out.println("Importing links...");
-        RelationshipCreator relationshipCreator = new RelationshipCreator(inserter, inMemoryIndex);
+        RelationshipCreator relationshipCreator = new RelationshipCreator(inserter, pageIndex, categoryIndex, this);
         long startTime = System.currentTimeMillis();
-        relationshipCreator.parse(fileName);
+        parse(relationshipCreator, fileName, RELATIONSHIPS);
+        finishStage(RELATIONSHIPS);
         long elapsedSeconds = (System.currentTimeMillis() - startTime) / 1000;
         System.out.printf("\n%d links imported in %d seconds; %d broken links ignored\n",
                 relationshipCreator.getLinkCount(), elapsedSeconds, relationshipCreator.getBadLinkCount());
     }
 
-    public void finish() {
+    /**
+     * Create nodes and relationships reading the extracted XML file only once.
+     * Binary files already keep their text and links apart from the title
+     * table, so they are still imported with two sequential scans.
+     * @param fileName
+     * @throws Exception
+     */
+    public void importSinglePass(String fileName) throws Exception {
+        if (BinaryLinkReader.isBinary(fileName)) {
+            createNodes(fileName);
+            createRelationships(fileName);
+            return;
+        }
+        if (isDone(SINGLE_PASS)) {
+            System.out.println("Pages and links already imported.");
+            return;
+        }
+        System.out.println("Importing pages and links...");
+        SinglePassCreator creator = new SinglePassCreator(inserter, pageIndex, categoryIndex, spillDirectory, this);
+        long startTime = System.currentTimeMillis();
+        parse(creator, fileName, SINGLE_PASS);
+        finishStage(SINGLE_PASS);
+        long elapsedSeconds = (System.currentTimeMillis() - startTime) / 1000;
+        System.out.printf("\n%d pages and %d links imported in %d seconds; %d broken links ignored (%d links resolved after the parse)\n",
+                creator.getPageCount(), creator.getLinkCount(), elapsedSeconds, creator.getBadLinkCount(),
+                creator.getSpilledLinkCount() - creator.getBadLinkCount());
+    }
+
+    private void createNodesFromBinary(String fileName) throws Exception {
+        System.out.println("Importing pages from binary file...");
+        binaryImporter = new BinaryLinkImporter(inserter, fileName, this);
+        long startTime = System.currentTimeMillis();
+        binaryImporter.createNodes();
+        long elapsedSeconds = (System.currentTimeMillis() - startTime) / 1000;
+        System.out.printf("\n%d pages imported in %d seconds.\n", binaryImporter.getPageCount(), elapsedSeconds);
+    }
+
+    private void createRelationshipsFromBinary(String fileName) throws Exception {
+        if (binaryImporter == null) {
+            if (!isDone(NODES)) {
+                throw new IllegalStateException("Nodes must be created before relationships");
+            }
+            binaryImporter = new BinaryLinkImporter(inserter, fileName, this);
+        } else {
+            // a checkpoint at the end of the nodes opened a new inserter
+            binaryImporter.setInserter(inserter);
+        }
+        System.out.println("Importing links from binary file...");
+        long startTime = System.currentTimeMillis();
+        binaryImporter.createRelationships();
+        long elapsedSeconds = (System.currentTimeMillis() - startTime) / 1000;
+        System.out.printf("\n%d links imported in %d seconds; %d broken links ignored\n",
+                binaryImporter.getLinkCount(), elapsedSeconds, binaryImporter.getBadLinkCount());
+    }
+
+    public void finish() throws IOException {
+        int nodeCount = countNodes();
+        rankNodes(nodeCount);
+        searchCategoryTree(nodeCount);
+        GraphStatistics statistics = countPages(nodeCount);
+        long startTime = System.nanoTime();
+        // created last, so that checkpoints do not have to populate it
+        inserter.createDeferredSchemaIndex(WikiLabel.Page).on("title").create();
+        inserter.createDeferredSchemaIndex(WikiCategory.Category).on("title").create();
         inserter.shutdown();
+        texts.close();
+        // written after the text store, so that it is not taken as stale
+        statistics.save(new File(dataDir));
+        metrics.stage("shutdown").addSince(startTime);
+        metrics.close();
+        if (indexBudget.getSpilled() > 0) {
+            System.out.printf("Title index and ranking used %d MB of memory and %d MB of spill file.\n",
+                    indexBudget.getAllocated() / MEGABYTE, indexBudget.getSpilled() / MEGABYTE);
+        }
+        pageIndex.free();
+        categoryIndex.free();
+        indexBudget.close();
+    }
+
+    /**
+     * Compute the PageRank of every node over the relationships created by the
+     * import, and write it as the "nodeRank" property.
+     */
+    private void rankNodes(int nodeCount) {
+        System.out.println("Ranking nodes...");
+        long startTime = System.nanoTime();
+        long edgeCount = nodeRank.getEdgeCount();
+        nodeRank.compute(nodeCount, Runtime.getRuntime().availableProcessors());
+        nodeRank.write(inserter);
+        metrics.stage("rank").addSince(startTime);
+        long elapsedSeconds = (System.nanoTime() - startTime) / 1000000000L;
+        System.out.printf("%d nodes ranked over %d relationships in %d iterations in %d seconds.\n",
+                nodeCount, edgeCount, nodeRank.getIterations(), elapsedSeconds);
+    }
+
+    /**
+     * Find the shortest path of every node to the root category, and write the
+     * parent and depth of each node in it.
+     */
+    private void searchCategoryTree(int nodeCount) {
+        long startTime = System.nanoTime();
+        long root = categoryIndex.get(CategoryTree.ROOT);
+        categoryTree.compute(nodeCount, root);
+        categoryTree.write(inserter);
+        metrics.stage("categories").addSince(startTime);
+        long elapsedSeconds = (System.nanoTime() - startTime) / 1000000000L;
+        if (root == TitleIndex.NOT_FOUND) {
+            System.out.printf("Category %s not found, pages have no category path.\n", CategoryTree.ROOT);
+        } else {
+            System.out.printf("%d nodes found below category %s in %d seconds.\n",
+                    categoryTree.getReachedCount(), CategoryTree.ROOT, elapsedSeconds);
+        }
+    }
+
+    /**
+     * Count the pages of the graph once, so that the quiz does not have to,
+     * see {@link GraphStatistics}.
+     */
+    private GraphStatistics countPages(int nodeCount) {
+        GraphStatistics statistics = new GraphStatistics();
+        for (int node = 0; node < nodeCount; node++) {
+            if (inserter.nodeHasLabel(node, WikiLabel.Page)) {
+                statistics.addPage(node, nodeRank.getScaledRank(node));
+            }
+        }
+        System.out.println("Graph statistics: " + statistics);
+        return statistics;
+    }
+
+    /**
+     * @return nodes created so far, whose ids go from 0 to the count
+     */
+    private int countNodes() {
+        int nodeCount = 0;
+        while (inserter.nodeExists(nodeCount)) {
+            nodeCount++;
+        }
+        return nodeCount;
+    }
+
+    /**
+     * @return metrics of the import, call {@link ImportMetrics#report(File, long)} to
+     *         take snapshots of them while importing
+     */
+    public ImportMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return checkpoint of the import, null if there is none
+     */
+    Checkpoint getCheckpoint() {
+        return checkpoint;
+    }
+
+    TitleIndex getCategoryIndex() {
+        return categoryIndex;
+    }
+
+    /**
+     * @return memory of the title index and of the relationships recorded for ranking
+     */
+    MemoryBudget getIndexBudget() {
+        return indexBudget;
+    }
+
+    /**
+     * Keep the text of a node in the text store, replacing the "text" property
+     * it used to have. Callers set its {@link #TEXT_LENGTH} property instead.
+     * @param nodeId
+     * @param text
+     * @throws IOException
+     */
+    void putText(long nodeId, String text) throws IOException {
+        texts.put(nodeId, text);
+    }
+
+    /**
+     * Record a relationship just created, to rank nodes and search the category
+     * tree at the end of the import.
+     * @param source
+     * @param target
+     * @param type
+     */
+    void relationshipCreated(long source, long target, RelationshipType type) {
+        nodeRank.add(source, target);
+        if (type == WikiRelationship.In_Category) {
+            categoryTree.add(source, target);
+        }
+    }
+
+    /**
+     * @return whether a checkpoint should be saved now
+     */
+    boolean isCheckpointDue() {
+        return checkpoint != null && checkpoint.isDue();
+    }
+
+    /**
+     * @param stage
+     * @param counter
+     * @return value of a counter of the stage when the checkpoint was saved, 0 if there is none
+     */
+    long getSavedCount(String stage, String counter) {
+        return checkpoint == null ? 0 : checkpoint.getLong(stage + "." + counter);
+    }
+
+    void setSavedCount(String stage, String counter, long value) {
+        checkpoint.set(stage + "." + counter, value);
+    }
+
+    /**
+     * @param stage
+     * @return where the stage was when the checkpoint was saved, 0 to start it from the beginning
+     */
+    long getResumePosition(String stage) {
+        if (checkpoint == null || !stage.equals(checkpoint.getStage()) || checkpoint.isDone(stage)) {
+            return 0;
+        }
+        return checkpoint.getLong(POSITION);
+    }
+
+    /**
+     * Save everything imported so far and where the stage may resume. The batch
+     * inserter only writes a consistent store when it is shut down, so it is shut
+     * down, the store copied and the inserter opened again: callers must go on
+     * with the returned one. Counters and other snapshots of the stage must be put
+     * into the checkpoint before.
+     * @param stage
+     * @param position offset in the input where the stage may resume
+     * @param rootElement root element of XML input, null for binary input
+     * @return the new batch inserter
+     * @throws IOException
+     */
+    BatchInserter checkpoint(String stage, long position, String rootElement) throws IOException {
+        long startTime = System.nanoTime();
+        saveCheckpoint();
+        checkpoint.setStage(stage);
+        checkpoint.set(POSITION, position);
+        if (rootElement != null) {
+            checkpoint.set(ROOT_ELEMENT, rootElement);
+        }
+        checkpoint.save();
+        inserter = BatchInserters.inserter(dataDir);
+        metrics.stage("checkpoint").addSince(startTime);
+        return inserter;
+    }
+
+    private boolean isDone(String stage) {
+        return checkpoint != null && checkpoint.isDone(stage);
+    }
+
+    private void finishStage(String stage) throws IOException {
+        if (checkpoint == null) {
+            return;
+        }
+        saveCheckpoint();
+        checkpoint.done(stage);
+        inserter = BatchInserters.inserter(dataDir);
+    }
+
+    private void saveCheckpoint() throws IOException {
+        inserter.shutdown();
+        texts.flush();
+        File copy = checkpoint.getSnapshot(STORE + ".tmp");
+        FileUtils.deleteDirectory(copy);
+        FileUtils.copyDirectory(new File(dataDir), copy);
+        // left by a run that stopped before saving the checkpoint it was written for
+        FileUtils.deleteDirectory(checkpoint.getSnapshot(STORE));
+        Files.move(copy.toPath(), checkpoint.getSnapshot(STORE).toPath(), StandardCopyOption.ATOMIC_MOVE);
+        pageIndex.save(checkpoint.getSnapshot(PAGE_INDEX));
+        categoryIndex.save(checkpoint.getSnapshot(CATEGORY_INDEX));
+        nodeRank.save(checkpoint.getSnapshot(NODE_RANK));
+        categoryTree.save(checkpoint.getSnapshot(CATEGORY_TREE));
+    }
+
+    private void parse(SimpleStaxParser parser, String fileName, String stage) throws Exception {
+        parser.setReadStage(metrics.stage("xml"));
+        long position = getResumePosition(stage);
+        if (position > 0) {
+            System.out.println("Resuming from the last checkpoint...");
+            parser.parse(fileName, position, checkpoint.getString(ROOT_ELEMENT));
+        } else {
+            parser.parse(fileName);
+        }
     }
 
 }
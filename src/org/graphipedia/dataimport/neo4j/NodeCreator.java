@@ -26,25 +26,59 @@
  */
 package org.graphipedia.dataimport.neo4j;
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Map;
 
+import org.graphipedia.dataimport.ImportMetrics;
 import org.graphipedia.dataimport.ProgressCounter;
 import org.graphipedia.dataimport.SimpleStaxParser;
+import org.graphipedia.dataimport.TitleIndex;
 import org.neo4j.helpers.collection.MapUtil;
 import org.neo4j.unsafe.batchinsert.BatchInserter;
 
 public class NodeCreator extends SimpleStaxParser {
 
-    private final BatchInserter inserter;
-    private final Map<String, Long> inMemoryIndex;
+    private static final int TITLE = 0;
+    private static final int CATEGORY_TITLE = 1;
+    private static final int PAGE = 2;
+    private static final int HASH = 3;
 
-    private final ProgressCounter pageCounter = new ProgressCounter();
+    private static final String PAGES = "pages";
 
-    public NodeCreator(BatchInserter inserter, Map<String, Long> inMemoryIndex) {
-        super(Arrays.asList("t", "q"));
+    private final TitleIndex pageIndex;
+    private final TitleIndex categoryIndex;
+    private final ImportGraph graph;
+    private final ProgressCounter pageCounter;
+    private final ImportMetrics.Stage indexStage;
+    private final ImportMetrics.Stage insertStage;
+
+    private BatchInserter inserter;
+    private long nodeId;
+
+    public NodeCreator(BatchInserter inserter, TitleIndex pageIndex, TitleIndex categoryIndex) {
+        this(inserter, pageIndex, categoryIndex, null);
+    }
+
+    /**
+     * @param graph where to save checkpoints, null for none
+     */
+    public NodeCreator(BatchInserter inserter, TitleIndex pageIndex, TitleIndex categoryIndex, ImportGraph graph) {
+        super(Arrays.asList("t", "q", "p", "h"), Arrays.asList("text"));
         this.inserter = inserter;
-        this.inMemoryIndex = inMemoryIndex;
+        this.pageIndex = pageIndex;
+        this.categoryIndex = categoryIndex;
+        this.graph = graph;
+        this.pageCounter = new ProgressCounter(graph == null ? 0 : (int) graph.getSavedCount(ImportGraph.NODES, PAGES));
+        if (graph == null) {
+            this.indexStage = null;
+            this.insertStage = null;
+        } else {
+            ImportMetrics metrics = graph.getMetrics();
+            this.indexStage = metrics.stage("index");
+            this.insertStage = metrics.stage("insert");
+            metrics.gauge("pages", pageCounter::getCount);
+        }
     }
 
     public int getPageCount() {
@@ -52,25 +86,54 @@ public class NodeCreator extends SimpleStaxParser {
     }
 
     @Override
-    protected void handleElement(String element, String value) {
-        if ("t".equals(element)) {
-            createNode(value);
-        } else if ("q".equals(element)) {
-            createCategory(value);
+    protected void handleElement(int symbol, CharSequence value) {
+        if (symbol == TITLE) {
+            createNode(value.toString());
+        } else if (symbol == CATEGORY_TITLE) {
+            createCategory(value.toString());
+        } else if (symbol == HASH) {
+            long startTime = System.nanoTime();
+            inserter.setNodeProperty(nodeId, "hash", Long.parseUnsignedLong(value.toString(), 16));
+            if (insertStage != null) {
+                insertStage.addSince(startTime);
+            }
+        } else if (symbol == PAGE && graph != null && graph.isCheckpointDue()) {
+            try {
+                graph.setSavedCount(ImportGraph.NODES, PAGES, pageCounter.getCount());
+                inserter = graph.checkpoint(ImportGraph.NODES, getInputOffset(), getRootElement());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
         }
     }
 
     private void createNode(String title) {
         Map<String, Object> properties = MapUtil.map("title", title);
-        long nodeId = inserter.createNode(properties, WikiLabel.Page);
-        inMemoryIndex.put(title, nodeId);
+        long startTime = System.nanoTime();
+        nodeId = inserter.createNode(properties, WikiLabel.Page);
+        long inserted = System.nanoTime();
+        if (insertStage != null) {
+            insertStage.add(inserted - startTime);
+        }
+        pageIndex.put(title, nodeId);
+        if (indexStage != null) {
+            indexStage.addSince(inserted);
+        }
         pageCounter.increment();
     }
 
 	private void createCategory(String title) {
         Map<String, Object> properties = MapUtil.map("title", title);
-        long nodeId = inserter.createNode(properties, WikiCategory.Category);
-        inMemoryIndex.put("c_"+title, nodeId);
+        long startTime = System.nanoTime();
+        nodeId = inserter.createNode(properties, WikiCategory.Category);
+        long inserted = System.nanoTime();
+        if (insertStage != null) {
+            insertStage.add(inserted - startTime);
+        }
+        categoryIndex.put(title, nodeId);
+        if (indexStage != null) {
+            indexStage.addSince(inserted);
+        }
         pageCounter.increment();
 		//System.out.println("Adding category "+title);
     }
@@ -0,0 +1,216 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graphipedia.dataimport.neo4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.graphipedia.dataimport.MemoryBudget;
+import org.neo4j.unsafe.batchinsert.BatchInserter;
+
+/**
+ * PageRank of every node, computed while importing instead of by a plug-in
+ * of the running database.
+ *
+ * Relationships are recorded as pairs of node ids while they are created.
+ * Once the import is done, they are turned into compressed rows of incoming
+ * relationships (CSR), so that each thread pulls the rank of its own range of
+ * nodes without any locking. Ranks are written as the "nodeRank" property,
+ * scaled so that the average node has {@link #SCALE}.
+ * @author cotrino
+ *
+ */
+public class NodeRank {
+
+    public static final String PROPERTY = "nodeRank";
+    public static final long SCALE = 1000;
+
+    private static final double DAMPING = 0.85;
+    private static final double THRESHOLD = 1e-9;
+    private static final int MAX_ITERATIONS = 100;
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final EdgeList edges;
+
+    private double[] ranks;
+    private int iterations;
+
+    /**
+     * @param budget off-heap memory the relationships are recorded in
+     */
+    public NodeRank(MemoryBudget budget) {
+        this.edges = new EdgeList(budget);
+    }
+
+    /**
+     * Record a relationship, both nodes must have been created by the
+     * batch inserter of a new store, whose node ids start at 0.
+     * @param source
+     * @param target
+     */
+    public void add(long source, long target) {
+        edges.add(source, target);
+    }
+
+    public long getEdgeCount() {
+        return edges.size();
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * @param nodeId
+     * @return rank of the node, all ranks adding up to 1
+     */
+    public double getRank(long nodeId) {
+        return ranks[(int) nodeId];
+    }
+
+    /**
+     * @param nodeId
+     * @return rank of the node as written to the "nodeRank" property
+     */
+    public long getScaledRank(long nodeId) {
+        return Math.round(ranks[(int) nodeId] * ranks.length * SCALE);
+    }
+
+    /**
+     * Iterate until the ranks change less than the threshold in total, or
+     * {@link #MAX_ITERATIONS} times. Recorded relationships are released while
+     * the incoming rows are built.
+     * @param nodeCount nodes in the store, at least the highest recorded node id plus one
+     * @param threads
+     */
+    public void compute(int nodeCount, int threads) {
+        nodeCount = Math.max(nodeCount, edges.getMaxNodeId() + 1);
+        int[] outDegree = new int[nodeCount];
+        for (long i = 0; i < edges.size(); i++) {
+            outDegree[edges.getSource(i)]++;
+        }
+        EdgeList.Rows incoming = edges.toRows(nodeCount, false);
+
+        ranks = new double[nodeCount];
+        Arrays.fill(ranks, 1.0 / nodeCount);
+        double[] shares = new double[nodeCount];
+        double[] nextRanks = new double[nodeCount];
+        ExecutorService workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "rank-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            for (iterations = 1; iterations <= MAX_ITERATIONS; iterations++) {
+                final double[] current = ranks;
+                final double[] updated = nextRanks;
+                double dangling = sum(workers, nodeCount, (start, end) -> {
+                    double lost = 0;
+                    for (int node = start; node < end; node++) {
+                        if (outDegree[node] == 0) {
+                            shares[node] = 0;
+                            lost += current[node];
+                        } else {
+                            shares[node] = current[node] / outDegree[node];
+                        }
+                    }
+                    return lost;
+                });
+                final double base = (1 - DAMPING + DAMPING * dangling) / nodeCount;
+                double change = sum(workers, nodeCount, (start, end) -> {
+                    double delta = 0;
+                    for (int node = start; node < end; node++) {
+                        double received = 0;
+                        for (int i = incoming.getStart(node); i < incoming.getEnd(node); i++) {
+                            received += shares[incoming.get(i)];
+                        }
+                        updated[node] = base + DAMPING * received;
+                        delta += Math.abs(updated[node] - current[node]);
+                    }
+                    return delta;
+                });
+                nextRanks = current;
+                ranks = updated;
+                if (change < THRESHOLD) {
+                    break;
+                }
+            }
+            iterations = Math.min(iterations, MAX_ITERATIONS);
+        } finally {
+            workers.shutdownNow();
+            incoming.free();
+        }
+    }
+
+    /**
+     * Set the "nodeRank" property of every node.
+     * @param inserter
+     */
+    public void write(BatchInserter inserter) {
+        for (int node = 0; node < ranks.length; node++) {
+            inserter.setNodeProperty(node, PROPERTY, getScaledRank(node));
+        }
+    }
+
+    public void save(File file) throws IOException {
+        edges.save(file);
+    }
+
+    public static NodeRank load(MemoryBudget budget, File file) throws IOException {
+        NodeRank nodeRank = new NodeRank(budget);
+        nodeRank.edges.load(file);
+        return nodeRank;
+    }
+
+    private interface Range {
+        double apply(int start, int end);
+    }
+
+    /**
+     * Apply a function to consecutive ranges of nodes in parallel.
+     * @return sum of the results
+     */
+    private static double sum(ExecutorService workers, int nodeCount, Range range) {
+        List<Future<Double>> results = new ArrayList<Future<Double>>();
+        for (int start = 0; start < nodeCount; start += CHUNK_SIZE) {
+            final int from = start;
+            final int to = Math.min(nodeCount, start + CHUNK_SIZE);
+            results.add(workers.submit(() -> range.apply(from, to)));
+        }
+        double total = 0;
+        try {
+            for (Future<Double> result : results) {
+                total += result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Cannot compute node ranks", e.getCause());
+        }
+        return total;
+    }
+
+}
@@ -26,28 +26,63 @@
  */
 package org.graphipedia.dataimport.neo4j;
 
+import java.io.IOException;
 import java.util.Arrays;
-import java.util.Map;
 
+import org.graphipedia.dataimport.ImportMetrics;
 import org.graphipedia.dataimport.ProgressCounter;
 import org.graphipedia.dataimport.SimpleStaxParser;
+import org.graphipedia.dataimport.TitleIndex;
 import org.neo4j.graphdb.RelationshipType;
 import org.neo4j.unsafe.batchinsert.BatchInserter;
 
 public class RelationshipCreator extends SimpleStaxParser {
 
-    private final BatchInserter inserter;
-    private final Map<String, Long> inMemoryIndex;
+    private static final int TITLE = 0;
+    private static final int CATEGORY_TITLE = 1;
+    private static final int LINK = 2;
+    private static final int CATEGORY = 3;
+    private static final int TEXT = 4;
+    private static final int PAGE = 5;
 
-    private final ProgressCounter linkCounter = new ProgressCounter();
+    private static final String LINKS = "links";
+    private static final String BAD_LINKS = "badLinks";
 
+    private final TitleIndex pageIndex;
+    private final TitleIndex categoryIndex;
+    private final ImportGraph graph;
+    private final ProgressCounter linkCounter;
+    private final ImportMetrics.Stage indexStage;
+    private final ImportMetrics.Stage insertStage;
+
+    private BatchInserter inserter;
     private long nodeId;
-    private int badLinkCount = 0;
+    private int badLinkCount;
+
+    public RelationshipCreator(BatchInserter inserter, TitleIndex pageIndex, TitleIndex categoryIndex) {
+        this(inserter, pageIndex, categoryIndex, null);
+    }
 
-    public RelationshipCreator(BatchInserter inserter,  Map<String, Long> inMemoryIndex) {
-        super(Arrays.asList("t", "q", "l", "c", "text"));
+    /**
+     * @param graph where to save checkpoints, null for none
+     */
+    public RelationshipCreator(BatchInserter inserter, TitleIndex pageIndex, TitleIndex categoryIndex, ImportGraph graph) {
+        super(Arrays.asList("t", "q", "l", "c", "text", "p"));
         this.inserter = inserter;
-        this.inMemoryIndex = inMemoryIndex;
+        this.pageIndex = pageIndex;
+        this.categoryIndex = categoryIndex;
+        this.graph = graph;
+        this.linkCounter = new ProgressCounter(graph == null ? 0 : (int) graph.getSavedCount(ImportGraph.RELATIONSHIPS, LINKS));
+        this.badLinkCount = graph == null ? 0 : (int) graph.getSavedCount(ImportGraph.RELATIONSHIPS, BAD_LINKS);
+        if (graph == null) {
+            this.indexStage = null;
+            this.insertStage = null;
+        } else {
+            ImportMetrics metrics = graph.getMetrics();
+            this.indexStage = metrics.stage("index");
+            this.insertStage = metrics.stage("insert");
+            metrics.gauge("links", linkCounter::getCount);
+        }
     }
 
     public int getLinkCount() {
@@ -59,33 +94,69 @@ public class RelationshipCreator extends SimpleStaxParser {
     }
 
     @Override
-    protected void handleElement(String element, String value) {
-        if ("t".equals(element)) {
-            nodeId = findNodeId(value);
-        } else if ("q".equals(element)) {
-            nodeId = findNodeId("c_"+value);
-        } else if ("l".equals(element)) {
-            createRelationship(nodeId, value, WikiRelationship.Link);
-        } else if ("c".equals(element)) {
-            createRelationship(nodeId, "c_"+value, WikiRelationship.In_Category);
-        } else if ("text".equals(element)) {
+    protected void handleElement(int symbol, CharSequence value) {
+        if (symbol == TITLE) {
+            nodeId = find(pageIndex, value);
+        } else if (symbol == CATEGORY_TITLE) {
+            nodeId = find(categoryIndex, value);
+        } else if (symbol == LINK) {
+            createRelationship(nodeId, find(pageIndex, value), WikiRelationship.Link);
+        } else if (symbol == CATEGORY) {
+            createRelationship(nodeId, find(categoryIndex, value), WikiRelationship.In_Category);
+        } else if (symbol == TEXT) {
         	//System.out.println("Adding text to node "+inserter.getNodeProperties(nodeId).get("title")+": "+value);
-            inserter.setNodeProperty(nodeId, "text", value);
+            long startTime = System.nanoTime();
+            setText(nodeId, value.toString());
+            if (insertStage != null) {
+                insertStage.addSince(startTime);
+            }
+        } else if (symbol == PAGE && graph != null && graph.isCheckpointDue()) {
+            try {
+                graph.setSavedCount(ImportGraph.RELATIONSHIPS, LINKS, linkCounter.getCount());
+                graph.setSavedCount(ImportGraph.RELATIONSHIPS, BAD_LINKS, badLinkCount);
+                inserter = graph.checkpoint(ImportGraph.RELATIONSHIPS, getInputOffset(), getRootElement());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private void setText(long nodeId, String text) {
+        if (graph == null) {
+            inserter.setNodeProperty(nodeId, "text", text);
+            return;
+        }
+        try {
+            graph.putText(nodeId, text);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
+        inserter.setNodeProperty(nodeId, ImportGraph.TEXT_LENGTH, text.length());
     }
 
-    private void createRelationship(long nodeId, String link, RelationshipType type) {
-        Long linkNodeId = findNodeId(link);
-        if (linkNodeId != null) {
+    private long find(TitleIndex index, CharSequence title) {
+        long startTime = System.nanoTime();
+        long nodeId = index.get(title);
+        if (indexStage != null) {
+            indexStage.addSince(startTime);
+        }
+        return nodeId;
+    }
+
+    private void createRelationship(long nodeId, long linkNodeId, RelationshipType type) {
+        if (linkNodeId != TitleIndex.NOT_FOUND) {
+            long startTime = System.nanoTime();
             inserter.createRelationship(nodeId, linkNodeId, type, null);
+            if (insertStage != null) {
+                insertStage.addSince(startTime);
+            }
+            if (graph != null) {
+                graph.relationshipCreated(nodeId, linkNodeId, type);
+            }
             linkCounter.increment();
         } else {
             badLinkCount++;
         }
     }
 
-    private Long findNodeId(String title) {
-        return inMemoryIndex.get(title);
-    }
-
 }
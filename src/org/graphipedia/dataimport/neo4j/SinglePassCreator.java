@@ -0,0 +1,318 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graphipedia.dataimport.neo4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.graphipedia.dataimport.ImportMetrics;
+import org.graphipedia.dataimport.ProgressCounter;
+import org.graphipedia.dataimport.SimpleStaxParser;
+import org.graphipedia.dataimport.TitleIndex;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.helpers.collection.MapUtil;
+import org.neo4j.unsafe.batchinsert.BatchInserter;
+
+/**
+ * Creates nodes and relationships reading the extracted link file only once,
+ * instead of once with {@link NodeCreator} and once with {@link RelationshipCreator}.
+ *
+ * Every node is created with its title and text as soon as its page has been
+ * read. Links and categories whose target already has a node are created
+ * right away; the others are appended to a spill file as (source node, type,
+ * target title) and resolved in one sequential sweep once all nodes exist.
+ * Targets that are still unknown then are counted as broken links, exactly
+ * as {@link RelationshipCreator#getBadLinkCount()} does.
+ * @author cotrino
+ *
+ */
+public class SinglePassCreator extends SimpleStaxParser {
+
+    private static final int PAGE = 0;
+    private static final int TITLE = 1;
+    private static final int CATEGORY_TITLE = 2;
+    private static final int TEXT = 3;
+    private static final int LINK_TARGET = 4;
+    private static final int CATEGORY = 5;
+    private static final int HASH = 6;
+
+    private static final byte LINK = 0;
+    private static final byte IN_CATEGORY = 1;
+
+    private static final String PAGES = "pages";
+    private static final String LINKS = "links";
+    private static final String BAD_LINKS = "badLinks";
+    private static final String SPILLED_LINKS = "spilledLinks";
+    private static final String SPILL_LENGTH = "spill.length";
+    private static final String SPILL = "spill";
+
+    private final TitleIndex pageIndex;
+    private final TitleIndex categoryIndex;
+    private final ImportGraph graph;
+    private final File spillFile;
+
+    private final ProgressCounter pageCounter;
+    private final ProgressCounter linkCounter;
+    private int badLinkCount;
+    private long spilledLinkCount;
+    private final ImportMetrics.Stage indexStage;
+    private final ImportMetrics.Stage insertStage;
+    private final ImportMetrics.Stage spillStage;
+
+    private BatchInserter inserter;
+    private FileOutputStream spillStream;
+    private DataOutputStream spill;
+    private String title;
+    private boolean category;
+    private String text;
+    private long hash;
+    private final List<String> links = new ArrayList<String>();
+    private final List<String> categories = new ArrayList<String>();
+
+    public SinglePassCreator(BatchInserter inserter, TitleIndex pageIndex, TitleIndex categoryIndex, File spillDirectory)
+            throws IOException {
+        this(inserter, pageIndex, categoryIndex, spillDirectory, null);
+    }
+
+    /**
+     * @param graph where to save checkpoints, null for none. With checkpoints, the
+     *        spill file is kept next to them instead of in the spill directory.
+     */
+    public SinglePassCreator(BatchInserter inserter, TitleIndex pageIndex, TitleIndex categoryIndex, File spillDirectory,
+            ImportGraph graph) throws IOException {
+        super(Arrays.asList("p", "t", "q", "text", "l", "c", "h"));
+        this.inserter = inserter;
+        this.pageIndex = pageIndex;
+        this.categoryIndex = categoryIndex;
+        this.graph = graph;
+        if (graph != null && graph.getCheckpoint() != null) {
+            this.spillFile = graph.getCheckpoint().getFile(SPILL);
+        } else {
+            this.spillFile = File.createTempFile("links", ".spill", spillDirectory);
+            this.spillFile.deleteOnExit();
+        }
+        this.pageCounter = new ProgressCounter((int) getSavedCount(PAGES));
+        this.linkCounter = new ProgressCounter((int) getSavedCount(LINKS));
+        this.badLinkCount = (int) getSavedCount(BAD_LINKS);
+        this.spilledLinkCount = getSavedCount(SPILLED_LINKS);
+        if (graph == null) {
+            this.indexStage = null;
+            this.insertStage = null;
+            this.spillStage = null;
+        } else {
+            ImportMetrics metrics = graph.getMetrics();
+            this.indexStage = metrics.stage("index");
+            this.insertStage = metrics.stage("insert");
+            this.spillStage = metrics.stage("spill");
+            metrics.gauge("pages", pageCounter::getCount);
+            metrics.gauge("links", linkCounter::getCount);
+        }
+    }
+
+    public int getPageCount() {
+        return pageCounter.getCount();
+    }
+
+    public int getLinkCount() {
+        return linkCounter.getCount();
+    }
+
+    public int getBadLinkCount() {
+        return badLinkCount;
+    }
+
+    /**
+     * @return links that had to wait for the final sweep
+     */
+    public long getSpilledLinkCount() {
+        return spilledLinkCount;
+    }
+
+    @Override
+    public void parse(String fileName, long offset, String rootElement) throws IOException, XMLStreamException {
+        if (offset > 0) {
+            // links spilled after the checkpoint are parsed again
+            try (RandomAccessFile truncated = new RandomAccessFile(spillFile, "rw")) {
+                truncated.setLength(getSavedCount(SPILL_LENGTH));
+            }
+            spillStream = new FileOutputStream(spillFile, true);
+        } else {
+            spillStream = new FileOutputStream(spillFile);
+        }
+        spill = new DataOutputStream(new BufferedOutputStream(spillStream, 1024 * 1024));
+        try {
+            super.parse(fileName, offset, rootElement);
+        } finally {
+            spill.close();
+        }
+        try {
+            resolveSpilledLinks();
+        } finally {
+            if (graph == null || graph.getCheckpoint() == null) {
+                spillFile.delete();
+            }
+        }
+    }
+
+    @Override
+    protected void handleElement(int symbol, CharSequence value) {
+        if (symbol == TITLE) {
+            title = value.toString();
+            category = false;
+        } else if (symbol == CATEGORY_TITLE) {
+            title = value.toString();
+            category = true;
+        } else if (symbol == TEXT) {
+            text = value.toString();
+        } else if (symbol == HASH) {
+            hash = Long.parseUnsignedLong(value.toString(), 16);
+        } else if (symbol == LINK_TARGET) {
+            links.add(value.toString());
+        } else if (symbol == CATEGORY) {
+            categories.add(value.toString());
+        } else if (symbol == PAGE) {
+            try {
+                createPage();
+                if (graph != null && graph.isCheckpointDue()) {
+                    checkpoint();
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private void createPage() throws IOException {
+        Map<String, Object> properties = MapUtil.map("title", title);
+        if (text != null && graph != null) {
+            properties.put(ImportGraph.TEXT_LENGTH, text.length());
+        } else if (text != null) {
+            properties.put("text", text);
+        }
+        if (hash != 0) {
+            properties.put("hash", hash);
+        }
+        long startTime = System.nanoTime();
+        long nodeId = inserter.createNode(properties, category ? WikiCategory.Category : WikiLabel.Page);
+        if (text != null && graph != null) {
+            graph.putText(nodeId, text);
+        }
+        long inserted = System.nanoTime();
+        if (insertStage != null) {
+            insertStage.add(inserted - startTime);
+        }
+        (category ? categoryIndex : pageIndex).put(title, nodeId);
+        if (indexStage != null) {
+            indexStage.addSince(inserted);
+        }
+        pageCounter.increment();
+
+        for (String category : categories) {
+            createOrSpill(nodeId, category, IN_CATEGORY);
+        }
+        for (String link : links) {
+            createOrSpill(nodeId, link, LINK);
+        }
+        title = null;
+        text = null;
+        hash = 0;
+        links.clear();
+        categories.clear();
+    }
+
+    private void checkpoint() throws IOException {
+        spill.flush();
+        graph.setSavedCount(ImportGraph.SINGLE_PASS, PAGES, pageCounter.getCount());
+        graph.setSavedCount(ImportGraph.SINGLE_PASS, LINKS, linkCounter.getCount());
+        graph.setSavedCount(ImportGraph.SINGLE_PASS, BAD_LINKS, badLinkCount);
+        graph.setSavedCount(ImportGraph.SINGLE_PASS, SPILLED_LINKS, spilledLinkCount);
+        graph.setSavedCount(ImportGraph.SINGLE_PASS, SPILL_LENGTH, spillStream.getChannel().position());
+        inserter = graph.checkpoint(ImportGraph.SINGLE_PASS, getInputOffset(), getRootElement());
+    }
+
+    private long getSavedCount(String counter) {
+        return graph == null ? 0 : graph.getSavedCount(ImportGraph.SINGLE_PASS, counter);
+    }
+
+    private void createOrSpill(long nodeId, String target, byte type) throws IOException {
+        long targetId = findNodeId(target, type);
+        if (targetId != TitleIndex.NOT_FOUND) {
+            createRelationship(nodeId, targetId, type);
+        } else {
+            long startTime = System.nanoTime();
+            spill.writeLong(nodeId);
+            spill.writeByte(type);
+            spill.writeUTF(target);
+            spilledLinkCount++;
+            if (spillStage != null) {
+                spillStage.addSince(startTime);
+            }
+        }
+    }
+
+    private void resolveSpilledLinks() throws IOException {
+        try (DataInputStream input = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(spillFile), 1024 * 1024))) {
+            for (long i = 0; i < spilledLinkCount; i++) {
+                long nodeId = input.readLong();
+                byte type = input.readByte();
+                long targetId = findNodeId(input.readUTF(), type);
+                if (targetId != TitleIndex.NOT_FOUND) {
+                    createRelationship(nodeId, targetId, type);
+                } else {
+                    badLinkCount++;
+                }
+            }
+        }
+    }
+
+    private long findNodeId(String title, byte type) {
+        long startTime = System.nanoTime();
+        long nodeId = type == IN_CATEGORY ? categoryIndex.get(title) : pageIndex.get(title);
+        if (indexStage != null) {
+            indexStage.addSince(startTime);
+        }
+        return nodeId;
+    }
+
+    private void createRelationship(long nodeId, long targetId, byte type) {
+        RelationshipType relationshipType = type == IN_CATEGORY ? WikiRelationship.In_Category : WikiRelationship.Link;
+        long startTime = System.nanoTime();
+        inserter.createRelationship(nodeId, targetId, relationshipType, null);
+        if (insertStage != null) {
+            insertStage.addSince(startTime);
+        }
+        if (graph != null) {
+            graph.relationshipCreated(nodeId, targetId, relationshipType);
+        }
+        linkCounter.increment();
+    }
+
+}
@@ -0,0 +1,129 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graphipedia.dataimport.neo4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.graphipedia.dataimport.MemoryBudget;
+
+/**
+ * Node ids of the page and of the category of each title id of a binary link
+ * file, in off-heap pages of a {@link MemoryBudget}: the dictionary has every
+ * title linked to, broken links included, so this spills to disk along with
+ * the title index instead of filling the heap. A title may be both a page and
+ * a category, each kept as an int plus one, so that zeroed memory means no
+ * node; node ids of a store written by a batch inserter stay below 2^31.
+ * @author cotrino
+ *
+ */
+class TitleNodes {
+
+    static final long NONE = -1;
+
+    private static final int ENTRY_SIZE = 8;
+
+    private final MemoryBudget budget;
+    private final int titleCount;
+    private final int pageBits;
+    private final int pageMask;
+    private final ByteBuffer[] pages;
+
+    TitleNodes(MemoryBudget budget, int titleCount) {
+        this.budget = budget;
+        this.titleCount = titleCount;
+        this.pageBits = Integer.numberOfTrailingZeros(budget.getPageSize() / ENTRY_SIZE);
+        this.pageMask = (1 << pageBits) - 1;
+        this.pages = new ByteBuffer[(int) (((long) titleCount + pageMask) >>> pageBits)];
+        for (int page = 0; page < pages.length; page++) {
+            long entries = Math.min(titleCount - ((long) page << pageBits), 1 << pageBits);
+            pages[page] = budget.allocate((int) entries * ENTRY_SIZE);
+        }
+    }
+
+    /**
+     * @return node of the page with the title, or {@link #NONE}
+     */
+    long getPage(int titleId) {
+        return get(titleId, 0);
+    }
+
+    /**
+     * @return node of the category with the title, or {@link #NONE}
+     */
+    long getCategory(int titleId) {
+        return get(titleId, 4);
+    }
+
+    void setPage(int titleId, long nodeId) {
+        set(titleId, 0, nodeId);
+    }
+
+    void setCategory(int titleId, long nodeId) {
+        set(titleId, 4, nodeId);
+    }
+
+    void save(File file) throws IOException {
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file), 1024 * 1024))) {
+            for (int id = 0; id < titleCount; id++) {
+                output.writeLong(getPage(id));
+                output.writeLong(getCategory(id));
+            }
+        }
+    }
+
+    static TitleNodes load(MemoryBudget budget, int titleCount, File file) throws IOException {
+        TitleNodes nodes = new TitleNodes(budget, titleCount);
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file), 1024 * 1024))) {
+            for (int id = 0; id < titleCount; id++) {
+                nodes.setPage(id, input.readLong());
+                nodes.setCategory(id, input.readLong());
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Give all pages back to the budget.
+     */
+    void free() {
+        for (int page = 0; page < pages.length; page++) {
+            if (pages[page] != null) {
+                budget.release(pages[page]);
+                pages[page] = null;
+            }
+        }
+    }
+
+    private long get(int titleId, int field) {
+        return pages[titleId >>> pageBits].getInt((titleId & pageMask) * ENTRY_SIZE + field) - 1L;
+    }
+
+    private void set(int titleId, int field, long nodeId) {
+        pages[titleId >>> pageBits].putInt((titleId & pageMask) * ENTRY_SIZE + field, (int) (nodeId + 1));
+    }
+
+}
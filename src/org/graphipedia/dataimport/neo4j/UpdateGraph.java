@@ -0,0 +1,499 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graphipedia.dataimport.neo4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.graphipedia.dataimport.ExtractedPage;
+import org.graphipedia.dataimport.ExtractedPageReader;
+import org.graphipedia.dataimport.GraphStatistics;
+import org.graphipedia.dataimport.MemoryBudget;
+import org.graphipedia.dataimport.ProgressCounter;
+import org.graphipedia.dataimport.TextStoreWriter;
+import org.graphipedia.dataimport.TitleIndex;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+
+/**
+ * Applies a newer extracted dump to a graph created by {@link ImportGraph},
+ * instead of importing everything again.
+ *
+ * Pages are matched by title and compared by the content hash stored at
+ * import time, so unchanged pages cost an index lookup and nothing else. The
+ * input is read twice: first to create or update the nodes of new and changed
+ * pages, then to replace the links and categories of those pages only, once
+ * every node they may point to exists. With a full dump, pages that are not
+ * in it any more are removed at the end, which takes a scan of the titles in
+ * the graph but no writes besides the removals.
+ *
+ * Users and their Knows/Ignores relationships are never touched: only Link and
+ * In_Category relationships are replaced, and a removed page that is still
+ * known or ignored by someone keeps its node.
+ *
+ * Links of unchanged pages are kept as they were, so a link that was broken
+ * in the previous import is only created once its source page changes.
+ * Created and changed pages are put under the shallowest of their categories
+ * as their links are replaced. Only when a category is created or removed, or
+ * its own categories change, is the path of every node to the root category
+ * searched again at the end, which takes a read of the whole category tree.
+ * @author cotrino
+ *
+ */
+public class UpdateGraph {
+
+    private static final long MEGABYTE = 1024 * 1024;
+    private static final long INDEX_MEMORY = 256 * MEGABYTE;
+    private static final int TRANSACTION_SIZE = 10000;
+    private static final long INDEX_TIMEOUT_MINUTES = 60;
+
+    private final File dataDir;
+    private final GraphDatabaseService graphDb;
+    private final TextStoreWriter texts;
+    private final MemoryBudget indexBudget;
+    private final TitleIndex changedPages;
+    private final TitleIndex changedCategories;
+    private final TitleIndex seenPages;
+    private final TitleIndex seenCategories;
+
+    private final ProgressCounter pageCounter = new ProgressCounter();
+    private int unchangedCount = 0;
+    private int changedCount = 0;
+    private int createdCount = 0;
+    private int deletedCount = 0;
+    private int keptCount = 0;
+    private int linkCount = 0;
+    private int badLinkCount = 0;
+    private int reachedCount = 0;
+    private int movedCount = 0;
+    private boolean categoriesChanged = false;
+
+    private Transaction transaction;
+    private int pendingWrites;
+
+    public UpdateGraph(String dataDir) throws IOException {
+        this.dataDir = new File(dataDir);
+        File spillDirectory = this.dataDir.getAbsoluteFile().getParentFile();
+        graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(dataDir);
+        texts = new TextStoreWriter(new File(dataDir));
+        indexBudget = new MemoryBudget(INDEX_MEMORY, spillDirectory);
+        changedPages = new TitleIndex(indexBudget);
+        changedCategories = new TitleIndex(indexBudget);
+        seenPages = new TitleIndex(indexBudget);
+        seenCategories = new TitleIndex(indexBudget);
+        createTitleIndex(WikiLabel.Page);
+        createTitleIndex(WikiCategory.Category);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("USAGE: UpdateGraph <input-file> <data-dir> [--changes-only]");
+            System.exit(255);
+        }
+        boolean changesOnly = args.length > 2 && "--changes-only".equals(args[2]);
+        UpdateGraph updater = new UpdateGraph(args[1]);
+        updater.update(args[0], !changesOnly);
+        updater.finish();
+    }
+
+    /**
+     * @param fileName extracted file, XML or binary
+     * @param fullDump whether the file has every page, so that pages missing from
+     *        it are removed; false for dumps with only added or changed pages
+     * @throws IOException
+     * @throws XMLStreamException
+     */
+    public void update(String fileName, boolean fullDump) throws IOException, XMLStreamException {
+        System.out.println("Updating pages...");
+        long startTime = System.currentTimeMillis();
+        runInTransactions(() -> ExtractedPageReader.read(fileName, page -> updateNode(page, fullDump)));
+        long elapsedSeconds = (System.currentTimeMillis() - startTime) / 1000;
+        System.out.printf("\n%d pages created, %d changed and %d unchanged in %d seconds.\n",
+                createdCount, changedCount, unchangedCount, elapsedSeconds);
+
+        if (createdCount + changedCount > 0) {
+            System.out.println("Updating links...");
+            startTime = System.currentTimeMillis();
+            runInTransactions(() -> ExtractedPageReader.read(fileName, this::updateRelationships));
+            elapsedSeconds = (System.currentTimeMillis() - startTime) / 1000;
+            System.out.printf("\n%d links created in %d seconds; %d broken links ignored\n",
+                    linkCount, elapsedSeconds, badLinkCount);
+        }
+
+        if (fullDump) {
+            System.out.println("Removing pages missing from the dump...");
+            startTime = System.currentTimeMillis();
+            runInTransactions(() -> {
+                deleteMissingNodes(WikiLabel.Page, seenPages);
+                deleteMissingNodes(WikiCategory.Category, seenCategories);
+            });
+            elapsedSeconds = (System.currentTimeMillis() - startTime) / 1000;
+            System.out.printf("%d pages removed in %d seconds; %d kept because users know them\n",
+                    deletedCount, elapsedSeconds, keptCount);
+        }
+
+        if (categoriesChanged) {
+            System.out.println("Searching category tree...");
+            startTime = System.currentTimeMillis();
+            runInTransactions(this::searchCategoryTree);
+            elapsedSeconds = (System.currentTimeMillis() - startTime) / 1000;
+            System.out.printf("%d nodes found below category %s, %d of them moved, in %d seconds.\n",
+                    reachedCount, CategoryTree.ROOT, movedCount, elapsedSeconds);
+        } else if (movedCount > 0) {
+            System.out.printf("%d pages moved in the category tree.\n", movedCount);
+        }
+    }
+
+    public void finish() throws IOException {
+        GraphStatistics statistics = countPages();
+        graphDb.shutdown();
+        texts.close();
+        // written after the text store, so that it is not taken as stale
+        statistics.save(dataDir);
+        changedPages.free();
+        changedCategories.free();
+        seenPages.free();
+        seenCategories.free();
+        indexBudget.close();
+    }
+
+    /**
+     * Count the pages of the updated graph, see {@link GraphStatistics}.
+     */
+    private GraphStatistics countPages() {
+        try (Transaction tx = graphDb.beginTx();
+                Result result = graphDb.execute("MATCH (n:Page) RETURN COUNT(n) AS pages, "
+                        + "MAX(n." + NodeRank.PROPERTY + ") AS maxRank, MIN(id(n)) AS minId, MAX(id(n)) AS maxId")) {
+            Map<String, Object> row = result.next();
+            tx.success();
+            GraphStatistics statistics = new GraphStatistics(toLong(row.get("pages"), 0),
+                    toLong(row.get("maxRank"), 0), toLong(row.get("minId"), -1), toLong(row.get("maxId"), -1));
+            System.out.println("Graph statistics: " + statistics);
+            return statistics;
+        }
+    }
+
+    private static long toLong(Object value, long none) {
+        return value == null ? none : ((Number) value).longValue();
+    }
+
+    private void updateNode(ExtractedPage page, boolean fullDump) throws IOException {
+        Label label = page.isCategory() ? WikiCategory.Category : WikiLabel.Page;
+        String title = page.getTitle();
+        Node node = graphDb.findNode(label, "title", title);
+        if (node != null && (Long) node.getProperty("hash", 0L) == page.getHash()) {
+            unchangedCount++;
+        } else {
+            if (node == null) {
+                node = graphDb.createNode(label);
+                node.setProperty("title", title);
+                createdCount++;
+                categoriesChanged |= page.isCategory();
+            } else {
+                changedCount++;
+            }
+            if (page.getPlainText() != null) {
+                texts.put(node.getId(), page.getPlainText());
+                node.setProperty(ImportGraph.TEXT_LENGTH, page.getPlainText().length());
+            } else if (node.hasProperty(ImportGraph.TEXT_LENGTH)) {
+                texts.remove(node.getId());
+                node.removeProperty(ImportGraph.TEXT_LENGTH);
+            }
+            // graphs imported before the text store kept it in the node
+            if (node.hasProperty("text")) {
+                node.removeProperty("text");
+            }
+            if (page.getHash() != 0) {
+                node.setProperty("hash", page.getHash());
+            } else if (node.hasProperty("hash")) {
+                node.removeProperty("hash");
+            }
+            (page.isCategory() ? changedCategories : changedPages).put(title, node.getId());
+            wrote();
+        }
+        if (fullDump) {
+            (page.isCategory() ? seenCategories : seenPages).put(title, node.getId());
+        }
+        pageCounter.increment();
+    }
+
+    private void updateRelationships(ExtractedPage page) {
+        long nodeId = (page.isCategory() ? changedCategories : changedPages).get(page.getTitle());
+        if (nodeId == TitleIndex.NOT_FOUND) {
+            return;
+        }
+        Node node = graphDb.getNodeById(nodeId);
+        Set<Long> oldCategories = getCategories(node);
+        deleteRelationships(node, Direction.OUTGOING);
+        Set<Long> categories = new HashSet<Long>();
+        Node parent = null;
+        if (page.getCategories() != null) {
+            for (String category : page.getCategories()) {
+                Node target = createRelationship(node, WikiCategory.Category, category,
+                        WikiRelationship.In_Category);
+                if (target != null) {
+                    categories.add(target.getId());
+                    if (getDepth(target) >= 0 && (parent == null || getDepth(target) < getDepth(parent))) {
+                        parent = target;
+                    }
+                }
+            }
+        }
+        if (page.getLinks() != null) {
+            for (String link : page.getLinks()) {
+                createRelationship(node, WikiLabel.Page, link, WikiRelationship.Link);
+            }
+        }
+        if (page.isCategory()) {
+            // nodes below the category may move: left to the search of the whole tree
+            categoriesChanged |= !categories.equals(oldCategories);
+        } else if (parent == null) {
+            setCategoryPath(node, -1, -1);
+        } else {
+            setCategoryPath(node, parent.getId(), getDepth(parent) + 1);
+        }
+    }
+
+    /**
+     * @return the target node, or null if there is no node with the title
+     */
+    private Node createRelationship(Node node, Label label, String title, RelationshipType type) {
+        Node target = graphDb.findNode(label, "title", title);
+        if (target != null) {
+            node.createRelationshipTo(target, type);
+            linkCount++;
+            wrote();
+        } else {
+            badLinkCount++;
+        }
+        return target;
+    }
+
+    private static Set<Long> getCategories(Node node) {
+        Set<Long> categories = new HashSet<Long>();
+        for (Relationship membership : node.getRelationships(Direction.OUTGOING, WikiRelationship.In_Category)) {
+            categories.add(membership.getEndNode().getId());
+        }
+        return categories;
+    }
+
+    private static int getDepth(Node node) {
+        Object depth = node.getProperty(CategoryTree.DEPTH, null);
+        return depth == null ? -1 : ((Number) depth).intValue();
+    }
+
+    /**
+     * Remove the nodes whose title was not in the dump, along with the links
+     * from and to them. Ids are collected first, so that nodes are not removed
+     * while iterating over them.
+     */
+    private void deleteMissingNodes(Label label, TitleIndex seen) throws IOException {
+        long[] missing = new long[1024];
+        int count = 0;
+        try (ResourceIterator<Node> nodes = graphDb.findNodes(label)) {
+            while (nodes.hasNext()) {
+                Node node = nodes.next();
+                if (seen.get((String) node.getProperty("title")) == TitleIndex.NOT_FOUND) {
+                    if (count == missing.length) {
+                        missing = Arrays.copyOf(missing, count * 2);
+                    }
+                    missing[count++] = node.getId();
+                }
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            Node node = graphDb.getNodeById(missing[i]);
+            deleteRelationships(node, Direction.BOTH);
+            if (label == WikiCategory.Category) {
+                categoriesChanged = true;
+            }
+            if (node.hasRelationship()) {
+                // known or ignored by someone, but not in any category any more
+                setCategoryPath(node, -1, -1);
+                keptCount++;
+            } else {
+                node.delete();
+                texts.remove(missing[i]);
+                deletedCount++;
+                wrote();
+            }
+        }
+    }
+
+    /**
+     * Find the shortest path of every node to the root category again, as
+     * {@link ImportGraph} does: created and removed categories, and those whose
+     * own categories changed, move the nodes below them.
+     * Only nodes whose parent or depth changed are written, their ids being
+     * collected first, since {@link #wrote()} may commit the transaction the
+     * nodes were read in.
+     */
+    private void searchCategoryTree() {
+        CategoryTree tree = new CategoryTree(indexBudget);
+        long root = -1;
+        try (ResourceIterator<Node> categories = graphDb.findNodes(WikiCategory.Category)) {
+            while (categories.hasNext()) {
+                Node category = categories.next();
+                if (CategoryTree.ROOT.equals(category.getProperty("title", null))) {
+                    root = category.getId();
+                }
+                for (Relationship membership : category.getRelationships(Direction.INCOMING,
+                        WikiRelationship.In_Category)) {
+                    tree.add(membership.getStartNode().getId(), category.getId());
+                }
+            }
+        }
+        int nodeCount;
+        try (Result result = graphDb.execute("MATCH (n) RETURN MAX(id(n)) AS maxId")) {
+            nodeCount = (int) toLong(result.next().get("maxId"), -1) + 1;
+        }
+        tree.compute(nodeCount, root);
+        reachedCount = tree.getReachedCount();
+
+        long[] moved = new long[1024];
+        int count = 0;
+        for (Label label : new Label[] { WikiLabel.Page, WikiCategory.Category }) {
+            try (ResourceIterator<Node> nodes = graphDb.findNodes(label)) {
+                while (nodes.hasNext()) {
+                    Node node = nodes.next();
+                    if (!isInTree(node, tree)) {
+                        if (count == moved.length) {
+                            moved = Arrays.copyOf(moved, count * 2);
+                        }
+                        moved[count++] = node.getId();
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            setCategoryPath(graphDb.getNodeById(moved[i]), tree.getParent(moved[i]), tree.getDepth(moved[i]));
+        }
+    }
+
+    /**
+     * @return whether the parent and depth of the node are those found in the tree
+     */
+    private static boolean isInTree(Node node, CategoryTree tree) {
+        return hasCategoryPath(node, tree.getParent(node.getId()), tree.getDepth(node.getId()));
+    }
+
+    private static boolean hasCategoryPath(Node node, long parent, int depth) {
+        Object oldParent = node.getProperty(CategoryTree.PARENT, null);
+        Object oldDepth = node.getProperty(CategoryTree.DEPTH, null);
+        return (parent < 0 ? oldParent == null : Long.valueOf(parent).equals(oldParent))
+                && (depth < 0 ? oldDepth == null : Integer.valueOf(depth).equals(oldDepth));
+    }
+
+    /**
+     * Set the parent and depth of a node in the category tree, negative to remove them.
+     */
+    private void setCategoryPath(Node node, long parent, int depth) {
+        if (hasCategoryPath(node, parent, depth)) {
+            return;
+        }
+        if (parent < 0) {
+            node.removeProperty(CategoryTree.PARENT);
+        } else {
+            node.setProperty(CategoryTree.PARENT, parent);
+        }
+        if (depth < 0) {
+            node.removeProperty(CategoryTree.DEPTH);
+        } else {
+            node.setProperty(CategoryTree.DEPTH, depth);
+        }
+        movedCount++;
+        wrote();
+    }
+
+    /**
+     * Delete the links and categories of a node. They are listed first, since
+     * {@link #wrote()} may commit the transaction they were read in.
+     */
+    private void deleteRelationships(Node node, Direction direction) {
+        List<Relationship> relationships = new ArrayList<Relationship>();
+        for (Relationship relationship : node.getRelationships(direction,
+                WikiRelationship.Link, WikiRelationship.In_Category)) {
+            relationships.add(relationship);
+        }
+        for (Relationship relationship : relationships) {
+            relationship.delete();
+            wrote();
+        }
+    }
+
+    private void createTitleIndex(Label label) {
+        try (Transaction tx = graphDb.beginTx()) {
+            if (graphDb.schema().getIndexes(label).iterator().hasNext()) {
+                return;
+            }
+            System.out.println("Creating index of " + label.name() + " titles...");
+            graphDb.schema().indexFor(label).on("title").create();
+            tx.success();
+        }
+        try (Transaction tx = graphDb.beginTx()) {
+            graphDb.schema().awaitIndexesOnline(INDEX_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+            tx.success();
+        }
+    }
+
+    private interface Work {
+        void run() throws IOException, XMLStreamException;
+    }
+
+    /**
+     * Run some work in transactions of up to {@link #TRANSACTION_SIZE} writes,
+     * committed along the way by {@link #wrote()}.
+     */
+    private void runInTransactions(Work work) throws IOException, XMLStreamException {
+        transaction = graphDb.beginTx();
+        pendingWrites = 0;
+        try {
+            work.run();
+            transaction.success();
+        } finally {
+            transaction.close();
+            transaction = null;
+        }
+    }
+
+    private void wrote() {
+        if (++pendingWrites >= TRANSACTION_SIZE) {
+            transaction.success();
+            transaction.close();
+            transaction = graphDb.beginTx();
+            pendingWrites = 0;
+        }
+    }
+
+}
@@ -0,0 +1,76 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package test.com.cotrino.knowledgemap.db;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.cotrino.knowledgemap.db.AliasSampler;
+import com.cotrino.knowledgemap.db.PageSampler;
+
+public class AliasSamplerTest {
+
+	@Test
+	public void weightsTest() {
+
+		AliasSampler sampler = new AliasSampler(new double[] { 1, 2, 3, 4, 0 });
+		int draws = 100000;
+		int[] counts = new int[sampler.size()];
+		for (int i = 0; i < draws; i++) {
+			counts[sampler.sample()]++;
+		}
+		for (int i = 0; i < 4; i++) {
+			double expected = draws * (i + 1) / 10.0;
+			assertEquals(expected, counts[i], expected * 0.05);
+		}
+		assertEquals(0, counts[4]);
+
+	}
+
+	@Test
+	public void rankedPagesTest() {
+
+		long[] ids = { 11, 12, 13, 14 };
+		long[] ranks = { 100, 100, 100, 900 };
+		long[] categories = { 1, 1, 1, PageSampler.NO_CATEGORY };
+		int draws = 100000;
+
+		// in proportion to the square root of the rank: 10, 10, 10, 30
+		PageSampler ranked = new PageSampler(ids, ranks, null, 0.5);
+		assertEquals(0, ranked.getCategoryCount());
+		assertEquals(draws / 2, count(ranked, 14, draws), draws * 0.02);
+
+		// one category out of two, then uniformly within it
+		PageSampler stratified = new PageSampler(ids, ranks, categories, 0);
+		assertEquals(2, stratified.getCategoryCount());
+		assertEquals(draws / 2, count(stratified, 14, draws), draws * 0.02);
+		assertEquals(draws / 6, count(stratified, 11, draws), draws * 0.02);
+
+	}
+
+	private static int count(PageSampler sampler, long id, int draws) {
+		int count = 0;
+		for (long sample : sampler.sample(draws)) {
+			if (sample == id) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+}
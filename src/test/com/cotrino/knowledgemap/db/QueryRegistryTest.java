@@ -0,0 +1,208 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package test.com.cotrino.knowledgemap.db;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.neo4j.ogm.response.model.QueryResultModel;
+import org.neo4j.ogm.session.Session;
+import org.neo4j.ogm.session.SessionFactory;
+
+import com.cotrino.knowledgemap.db.GraphDB;
+import com.cotrino.knowledgemap.db.QueryRegistry;
+
+public class QueryRegistryTest {
+
+	@Test
+	public void registerTest() {
+
+		QueryRegistry registry = new QueryRegistry();
+		QueryRegistry.Query query = registry.register("pagesById", "MATCH (n:Page) WHERE id(n) IN {ids} RETURN n");
+		assertSame(query, registry.register("pagesById", "MATCH (n:Page) WHERE id(n) IN {ids} RETURN n"));
+		assertSame(query, registry.get("pagesById"));
+		try {
+			registry.register("pagesById", "MATCH (n:Page) WHERE id(n) IN [1,2] RETURN n");
+			fail("Registered another statement under the same name");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+
+		List<String> statements = new ArrayList<String>();
+		for (int i = 0; i < 3; i++) {
+			Map<String, Object> parameters = new HashMap<String, Object>();
+			parameters.put("ids", Collections.singletonList((long) i));
+			int rows = registry.execute(query, parameters, (statement, values) -> {
+				statements.add(statement);
+				return values.size();
+			});
+			assertEquals(1, rows);
+		}
+		// planned once, then run three times with the same text
+		assertEquals(4, statements.size());
+		assertEquals("EXPLAIN " + query.getStatement(), statements.get(0));
+		assertEquals(Collections.nCopies(3, query.getStatement()), statements.subList(1, 4));
+		assertEquals(3, query.getExecutions());
+		assertTrue(registry.toString().startsWith("pagesById: 3 executions"));
+
+	}
+
+	@Test
+	public void sameStatementTest() {
+
+		List<String> statements = new ArrayList<String>();
+		List<Map<?, ?>> parameters = new ArrayList<Map<?, ?>>();
+		Session session = (Session) Proxy.newProxyInstance(Session.class.getClassLoader(),
+				new Class<?>[] { Session.class }, (proxy, method, args) -> {
+					if( method.getName().equals("queryForObject") ) {
+						statements.add((String) args[1]);
+						return (long) statements.size();
+					} else if( method.getName().equals("query") && args[0] instanceof Class ) {
+						statements.add((String) args[1]);
+						parameters.add((Map<?, ?>) args[2]);
+						return Collections.emptyList();
+					}
+					throw new UnsupportedOperationException(method.getName());
+				});
+
+		AtomicInteger sessions = new AtomicInteger();
+		GraphDB db = new GraphDB(new SessionFactory("com.cotrino.knowledgemap.db") {
+			@Override
+			public Session openSession() {
+				sessions.incrementAndGet();
+				return session;
+			}
+		});
+		// pages are counted in the background, without saved statistics
+		assertNotNull(db.getAmountOfPages());
+		statements.clear();
+		sessions.set(0);
+		for (int i = 0; i < 5; i++) {
+			db.getPages(10);
+		}
+		// a session per unit of work, none kept from one to the next
+		assertEquals(5, sessions.get());
+		QueryRegistry.Query pagesById = db.getQueries().get("pagesById");
+		assertEquals(5, pagesById.getExecutions());
+		// random ids change, the statement does not
+		assertEquals(6, statements.size());
+		assertEquals("EXPLAIN " + pagesById.getStatement(), statements.get(0));
+		assertEquals(Collections.nCopies(5, pagesById.getStatement()), statements.subList(1, 6));
+		assertFalse(pagesById.getStatement().matches(".*\\d.*"));
+		assertEquals(10, ((List<?>) parameters.get(1).get("ids")).size());
+		for (QueryRegistry.Query query : db.getQueries().getQueries()) {
+			assertFalse(query.getStatement().matches(".*(=|IN )\\s*[\\[\\d].*"));
+		}
+
+	}
+
+	@Test
+	public void statisticsRetryTest() {
+
+		AtomicBoolean down = new AtomicBoolean(true);
+		Session session = (Session) Proxy.newProxyInstance(Session.class.getClassLoader(),
+				new Class<?>[] { Session.class }, (proxy, method, args) -> {
+					if( method.getName().equals("queryForObject") ) {
+						if( down.get() ) {
+							throw new IllegalStateException("Connection refused");
+						}
+						return 13L;
+					}
+					throw new UnsupportedOperationException(method.getName());
+				});
+
+		GraphDB db = new GraphDB(new SessionFactory("com.cotrino.knowledgemap.db") {
+			@Override
+			public Session openSession() {
+				return session;
+			}
+		});
+		try {
+			db.getAmountOfPages();
+			fail("Counted pages of a database that is down");
+		} catch (CompletionException e) {
+			// expected
+		}
+		// counted again once the database is back, instead of failing for good
+		down.set(false);
+		assertEquals(Long.valueOf(13), db.getAmountOfPages());
+		db.close();
+
+	}
+
+	@Test
+	public void knownPagesTest() {
+
+		List<String> statements = new ArrayList<String>();
+		Session session = (Session) Proxy.newProxyInstance(Session.class.getClassLoader(),
+				new Class<?>[] { Session.class }, (proxy, method, args) -> {
+					if( method.getName().equals("queryForObject") ) {
+						return 0L;
+					} else if( method.getName().equals("query") && args[0] instanceof String ) {
+						statements.add((String) args[0]);
+						List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+						if( ((String) args[0]).contains("AS title") ) {
+							rows.add(row("id", 7, "title", "April", "rank", 1867L, "weight", 3));
+							rows.add(row("id", 12, "title", "March", "rank", null, "weight", -1));
+						} else if( ((String) args[0]).contains("AS source") ) {
+							rows.add(row("source", 12, "target", 7));
+						}
+						return new QueryResultModel(rows, null);
+					}
+					// pages are not loaded as entities
+					throw new UnsupportedOperationException(method.getName());
+				});
+
+		GraphDB db = new GraphDB(new SessionFactory("com.cotrino.knowledgemap.db") {
+			@Override
+			public Session openSession() {
+				return session;
+			}
+		});
+		db.getAmountOfPages();
+		statements.clear();
+		String json = db.getUserKnownPages(1L);
+		assertTrue(json, json.contains("{\"name\":\"April\",\"weight\":3,\"rank\":1867,\"id\":7}"));
+		assertTrue(json, json.contains("\"edges\":[{\"source\":1,\"target\":0}]"));
+		// each statement planned once, then run
+		assertEquals(4, statements.size());
+		assertEquals(1, db.getQueries().get("knownPages").getExecutions());
+		assertEquals(1, db.getQueries().get("knownPageLinks").getExecutions());
+
+	}
+
+	private static Map<String, Object> row(Object... values) {
+
+		Map<String, Object> row = new HashMap<String, Object>();
+		for (int i = 0; i < values.length; i += 2) {
+			row.put((String) values[i], values[i + 1]);
+		}
+		return row;
+
+	}
+
+}
@@ -0,0 +1,129 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package test.com.cotrino.knowledgemap.db;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.graphipedia.dataimport.TextStoreWriter;
+import org.graphipedia.dataimport.neo4j.ImportGraph;
+import org.graphipedia.dataimport.neo4j.WikiCategory;
+import org.graphipedia.dataimport.neo4j.WikiLabel;
+import org.junit.Test;
+import org.neo4j.helpers.collection.MapUtil;
+import org.neo4j.unsafe.batchinsert.BatchInserter;
+import org.neo4j.unsafe.batchinsert.BatchInserters;
+
+import com.cotrino.knowledgemap.db.Entity;
+import com.cotrino.knowledgemap.db.Page;
+import com.cotrino.knowledgemap.db.PageSampler;
+import com.cotrino.knowledgemap.db.Question;
+import com.cotrino.knowledgemap.db.QuestionBank;
+import com.cotrino.knowledgemap.db.QuestionBankWriter;
+
+public class QuestionBankTest {
+
+	@Test
+	public void questionBankTest() throws Exception {
+
+		String article = this.getArticle("article.txt");
+		File directory = Files.createTempDirectory("graph").toFile();
+		BatchInserter inserter = BatchInserters.inserter(directory.getPath());
+		try (TextStoreWriter texts = new TextStoreWriter(directory)) {
+			inserter.createNode(MapUtil.map("title", "Articles"), WikiCategory.Category);
+			long gandhi = createPage(inserter, texts, "Mahatma Gandhi", article);
+			createPage(inserter, texts, "List of leaders", article);
+			createPage(inserter, texts, "Short", "Only one [[sentence]].");
+			assertEquals(1, gandhi);
+		}
+		inserter.shutdown();
+
+		QuestionBankWriter.build(directory.getPath(), 2);
+		try (QuestionBank bank = new QuestionBank(directory)) {
+			assertEquals(1, bank.size());
+			assertEquals(1, bank.getNodeId(0));
+			assertEquals(1, bank.getRandomNodeId());
+			Page page = getPage(1, article);
+			for (int i = 0; i < 100; i++) {
+				// every prepared question is a valid one
+				Question question = bank.getQuestion(page);
+				assertNotNull(question.question);
+				assertTrue(question.question.contains("<span class='placeholder'>"));
+				assertFalse(question.question.contains("[["));
+				assertFalse(question.answers.isEmpty());
+				assertTrue(question.matches(question.answers.get(0).toUpperCase()));
+			}
+			assertNull(bank.getQuestion(getPage(2, article)));
+		}
+		// pages too short for questions may still be asked about without the bank
+		PageSampler sampler = PageSampler.load(directory);
+		assertEquals(2, sampler.size());
+		for (long id : sampler.sample(100)) {
+			assertTrue(id == 1 || id == 3);
+		}
+		FileUtils.deleteDirectory(directory);
+
+	}
+
+	@Test
+	public void pageSamplerTest() {
+
+		PageSampler sampler = new PageSampler(new long[] { 5, 7, 11, 13 });
+		int[] counts = new int[14];
+		for (long id : sampler.sample(40000)) {
+			counts[(int) id]++;
+		}
+		for (int id : new int[] { 5, 7, 11, 13 }) {
+			assertTrue(counts[id] > 9000 && counts[id] < 11000);
+		}
+		assertEquals(40000, counts[5] + counts[7] + counts[11] + counts[13]);
+
+	}
+
+	private long createPage(BatchInserter inserter, TextStoreWriter texts, String title, String text) throws IOException {
+		long nodeId = inserter.createNode(MapUtil.map("title", title, ImportGraph.TEXT_LENGTH, text.length()),
+				WikiLabel.Page);
+		texts.put(nodeId, text);
+		return nodeId;
+	}
+
+	private Page getPage(long id, String text) throws ReflectiveOperationException {
+		Page page = new Page();
+		page.setText(text);
+		// set by Neo4j-OGM when loading pages
+		Field field = Entity.class.getDeclaredField("id");
+		field.setAccessible(true);
+		field.set(page, id);
+		return page;
+	}
+
+	private String getArticle(String file) throws IOException {
+		InputStream stream = this.getClass().getResourceAsStream(file);
+		StringWriter writer = new StringWriter();
+		IOUtils.copy(stream, writer, "UTF-8");
+		return writer.toString();
+	}
+
+}
@@ -0,0 +1,123 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package test.org.graphipedia.dataimport;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.graphipedia.dataimport.BinaryLinkReader;
+import org.graphipedia.dataimport.BinaryLinkWriter;
+import org.graphipedia.dataimport.ExtractedPage;
+import org.graphipedia.dataimport.ExtractedPageReader;
+import org.graphipedia.dataimport.PageWriter;
+import org.graphipedia.dataimport.XmlPageWriter;
+import org.junit.Test;
+
+public class BinaryLinkFileTest {
+
+	@Test
+	public void roundTripTest() throws IOException {
+
+		File file = File.createTempFile("links", ".bin");
+		try {
+			BinaryLinkWriter writer = new BinaryLinkWriter(file);
+			writer.writePage(new ExtractedPage("April", false, "April is the fourth [[month]] – of the [[year]].",
+					this.set("Months"), this.set("month", "year", "May"), 0x8000000000000001L, 0, 0, false));
+			writer.writePage(new ExtractedPage("Months", true, null, this.set("Time"), this.set("April")));
+			writer.writePage(new ExtractedPage("Empty", false, null, null, null));
+			writer.close();
+
+			assertTrue(BinaryLinkReader.isBinary(file.getPath()));
+			try (BinaryLinkReader reader = new BinaryLinkReader(file)) {
+				assertTrue(reader.next());
+				assertFalse(reader.isCategory());
+				assertEquals("April", reader.getTitle());
+				assertEquals(0x8000000000000001L, reader.getHash());
+				assertEquals("April is the fourth [[month]] – of the [[year]].", reader.getText());
+				assertEquals(1, reader.getCategoryCount());
+				assertEquals("Months", reader.getTitle(reader.getCategory(0)));
+				assertEquals(3, reader.getLinkCount());
+				assertEquals("May", reader.getTitle(reader.getLink(2)));
+
+				assertTrue(reader.next());
+				assertTrue(reader.isCategory());
+				assertEquals("Time", reader.getTitle(reader.getCategory(0)));
+				// the same title is only stored once
+				assertEquals(0, reader.getLink(0));
+				assertFalse(reader.hasText());
+
+				assertTrue(reader.next());
+				assertEquals(0, reader.getHash());
+				assertFalse(reader.hasText());
+				assertFalse(reader.hasLinks());
+				assertFalse(reader.next());
+				assertEquals(7, reader.getTitleCount());
+			}
+		} finally {
+			file.delete();
+		}
+
+	}
+
+	@Test
+	public void readBothFormatsTest() throws Exception {
+
+		File xml = File.createTempFile("links", ".xml");
+		File bin = File.createTempFile("links", ".bin");
+		try {
+			for (File file : Arrays.asList(xml, bin)) {
+				PageWriter writer = BinaryLinkWriter.isBinary(file.getName()) ? new BinaryLinkWriter(file)
+						: new XmlPageWriter(new FileOutputStream(file));
+				writer.writePage(new ExtractedPage("April", false, "April is the fourth month.",
+						this.set("Months"), this.set("Month", "May"), ExtractedPage.hash("April [[Month]]"), 0, 0, false));
+				writer.writePage(new ExtractedPage("Months", true, null, this.set("Time"), this.set()));
+				writer.close();
+			}
+			for (File file : Arrays.asList(xml, bin)) {
+				List<ExtractedPage> pages = new ArrayList<ExtractedPage>();
+				ExtractedPageReader.read(file.getPath(), pages::add);
+				assertEquals(2, pages.size());
+				assertEquals("April", pages.get(0).getTitle());
+				assertEquals("April is the fourth month.", pages.get(0).getPlainText());
+				assertEquals(ExtractedPage.hash("April [[Month]]"), pages.get(0).getHash());
+				assertEquals(this.set("Months"), pages.get(0).getCategories());
+				assertEquals(this.set("Month", "May"), pages.get(0).getLinks());
+				assertTrue(pages.get(1).isCategory());
+				assertNull(pages.get(1).getPlainText());
+				assertEquals(0, pages.get(1).getHash());
+				assertEquals(this.set("Time"), pages.get(1).getCategories());
+			}
+		} finally {
+			xml.delete();
+			bin.delete();
+		}
+
+	}
+
+	private Set<String> set(String... values) {
+		return new LinkedHashSet<String>(Arrays.asList(values));
+	}
+
+}
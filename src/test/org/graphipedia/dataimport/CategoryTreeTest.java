@@ -0,0 +1,68 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package test.org.graphipedia.dataimport;
+
+import static org.junit.Assert.*;
+
+import org.graphipedia.dataimport.MemoryBudget;
+import org.graphipedia.dataimport.neo4j.CategoryTree;
+import org.junit.Test;
+
+public class CategoryTreeTest {
+
+	@Test
+	public void shortestPathTest() {
+
+		// 0 is the root, 1 and 2 its subcategories, 3 a subcategory of 1 and 2,
+		// 4 a page in 3 and in 0, 5 a page in 3 only, 6 a category outside the root
+		CategoryTree tree = new CategoryTree(new MemoryBudget(Long.MAX_VALUE, null));
+		tree.add(1, 0);
+		tree.add(2, 0);
+		tree.add(3, 1);
+		tree.add(3, 2);
+		tree.add(4, 3);
+		tree.add(4, 0);
+		tree.add(5, 3);
+		tree.add(0, 6);
+		tree.compute(7, 0);
+
+		assertEquals(6, tree.getReachedCount());
+		assertEquals(-1, tree.getParent(0));
+		assertEquals(0, tree.getDepth(0));
+		assertEquals(1, tree.getParent(3));
+		assertEquals(2, tree.getDepth(3));
+		assertEquals(0, tree.getParent(4));
+		assertEquals(1, tree.getDepth(4));
+		assertEquals(3, tree.getParent(5));
+		assertEquals(3, tree.getDepth(5));
+		assertEquals(-1, tree.getParent(6));
+		assertEquals(-1, tree.getDepth(6));
+
+	}
+
+	@Test
+	public void missingRootTest() {
+
+		CategoryTree tree = new CategoryTree(new MemoryBudget(Long.MAX_VALUE, null));
+		tree.add(1, 0);
+		tree.compute(2, -1);
+		assertEquals(0, tree.getReachedCount());
+		assertEquals(-1, tree.getDepth(1));
+
+	}
+
+}
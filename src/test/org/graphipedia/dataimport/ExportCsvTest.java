@@ -0,0 +1,146 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package test.org.graphipedia.dataimport;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.graphipedia.dataimport.BinaryLinkWriter;
+import org.graphipedia.dataimport.ExtractedPage;
+import org.graphipedia.dataimport.TextStoreReader;
+import org.graphipedia.dataimport.neo4j.ExportCsv;
+import org.junit.Test;
+
+public class ExportCsvTest {
+
+	@Test
+	public void exportTest() throws Exception {
+
+		File directory = Files.createTempDirectory("csv").toFile();
+		File file = new File(directory, "links.bin");
+		BinaryLinkWriter writer = new BinaryLinkWriter(file);
+		writer.writePage(new ExtractedPage("Articles", true, null, this.set(), this.set()));
+		writer.writePage(new ExtractedPage("Time", true, null, this.set("Articles"), this.set()));
+		writer.writePage(new ExtractedPage("April", false, "April is the fourth month.",
+				this.set("Time"), this.set("May", "Nowhere"), 42, 0, 0, false));
+		writer.writePage(new ExtractedPage("May \"the month\"", false, "May comes after April.",
+				this.set("Time"), this.set("April"), 0, 0, 0, false));
+		writer.close();
+
+		File csvDir = new File(directory, "csv");
+		ExportCsv exporter = new ExportCsv(csvDir, 1024 * 1024, 1);
+		exporter.export(file.getPath());
+		assertEquals(4, exporter.getNodeCount());
+		assertEquals(4, exporter.getLinkCount());
+		// links to a missing page and to "May", whose title has quotes
+		assertEquals(2, exporter.getBadLinkCount());
+
+		assertEquals(Arrays.asList(":ID,title,hash:long,textLength:int,nodeRank:long,"
+				+ "categoryParent:long,categoryDepth:int,:LABEL"), read(csvDir, ExportCsv.NODES_HEADER));
+		List<String> nodes = readData(csvDir, ExportCsv.NODES);
+		assertEquals(4, nodes.size());
+		assertTrue(nodes.get(0).matches("0,\"Articles\",,,\\d+,,0,Category"));
+		assertTrue(nodes.get(1).matches("1,\"Time\",,,\\d+,0,1,Category"));
+		assertTrue(nodes.get(2).matches("2,\"April\",42,26,\\d+,1,2,Page"));
+		assertTrue(nodes.get(3).matches("3,\"May \"\"the month\"\"\",,22,\\d+,1,2,Page"));
+
+		assertEquals(Arrays.asList(":START_ID,:END_ID,:TYPE"), read(csvDir, ExportCsv.RELATIONSHIPS_HEADER));
+		assertEquals(Arrays.asList("1,0,In_Category", "2,1,In_Category", "3,2,Link", "3,1,In_Category"),
+				readData(csvDir, ExportCsv.RELATIONSHIPS));
+
+		try (TextStoreReader texts = new TextStoreReader(csvDir)) {
+			assertNull(texts.get(1));
+			assertEquals("April is the fourth month.", texts.get(2));
+			assertEquals("May comes after April.", texts.get(3));
+		}
+		assertTrue(String.join(" ", ExportCsv.getImportCommand("neo4j-import", csvDir, "graph.db"))
+				.startsWith("neo4j-import --into graph.db --id-type ACTUAL --nodes "));
+		FileUtils.deleteDirectory(directory);
+
+	}
+
+	@Test
+	public void writersTest() throws Exception {
+
+		final int pages = 5000;
+		File directory = Files.createTempDirectory("csv").toFile();
+		File file = new File(directory, "links.bin");
+		BinaryLinkWriter writer = new BinaryLinkWriter(file);
+		for (int i = 0; i < pages; i++) {
+			writer.writePage(new ExtractedPage("Page " + i, false, "Text " + i,
+					this.set(), this.set("Page " + (i + 1) % pages), 0, 0, 0, false));
+		}
+		writer.close();
+
+		File csvDir = new File(directory, "csv");
+		// left by an export with more writers
+		csvDir.mkdirs();
+		Files.write(new File(csvDir, "nodes-5.csv").toPath(), Arrays.asList("0"),
+				StandardCharsets.UTF_8);
+		new ExportCsv(csvDir, 1024 * 1024, 3).export(file.getPath());
+		List<File> nodeFiles = ExportCsv.getDataFiles(csvDir, ExportCsv.NODES);
+		assertEquals(3, nodeFiles.size());
+		assertFalse(new File(csvDir, "nodes-5.csv").exists());
+		assertEquals(3, ExportCsv.getDataFiles(csvDir, ExportCsv.RELATIONSHIPS).size());
+
+		Set<Long> ids = new HashSet<Long>();
+		for (String node : readData(csvDir, ExportCsv.NODES)) {
+			assertTrue(ids.add(Long.parseLong(node.substring(0, node.indexOf(',')))));
+		}
+		assertEquals(pages, ids.size());
+		Set<String> links = new HashSet<String>(readData(csvDir, ExportCsv.RELATIONSHIPS));
+		assertEquals(pages, links.size());
+		assertTrue(links.contains((pages - 1) + ",0,Link"));
+
+		String command = String.join(" ", ExportCsv.getImportCommand("neo4j-import", csvDir, "graph.db"));
+		for (File data : nodeFiles) {
+			assertTrue(command.contains(data.getPath()));
+		}
+		FileUtils.deleteDirectory(directory);
+
+	}
+
+	/**
+	 * @return rows of all the data files of one kind
+	 */
+	private static List<String> readData(File directory, String name) throws Exception {
+		List<String> rows = new ArrayList<String>();
+		for (File file : ExportCsv.getDataFiles(directory, name)) {
+			rows.addAll(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8));
+		}
+		return rows;
+	}
+
+	private static List<String> read(File directory, String name) throws Exception {
+		return Files.readAllLines(new File(directory, name).toPath(), StandardCharsets.UTF_8);
+	}
+
+	private Set<String> set(String... values) {
+		return new LinkedHashSet<String>(Arrays.asList(values));
+	}
+
+}
@@ -0,0 +1,73 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package test.org.graphipedia.dataimport;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.graphipedia.dataimport.GraphStatistics;
+import org.graphipedia.dataimport.TextStoreWriter;
+import org.junit.Test;
+
+public class GraphStatisticsTest {
+
+	@Test
+	public void saveAndLoadTest() throws IOException {
+
+		File directory = Files.createTempDirectory("stats").toFile();
+		assertFalse(GraphStatistics.exists(directory));
+		assertTrue(GraphStatistics.isStale(directory));
+
+		GraphStatistics statistics = new GraphStatistics();
+		statistics.addPage(12, 30);
+		statistics.addPage(5, 1000);
+		statistics.addPage(40, 0);
+		statistics.save(directory);
+
+		GraphStatistics loaded = GraphStatistics.load(directory);
+		assertEquals(3, loaded.getPageCount());
+		assertEquals(1000, loaded.getMaxNodeRank());
+		assertEquals(5, loaded.getMinPageId());
+		assertEquals(40, loaded.getMaxPageId());
+		assertFalse(GraphStatistics.isStale(directory));
+		FileUtils.deleteDirectory(directory);
+
+	}
+
+	@Test
+	public void staleTest() throws IOException {
+
+		File directory = Files.createTempDirectory("stats").toFile();
+		new GraphStatistics().save(directory);
+		File texts = new File(directory, TextStoreWriter.INDEX);
+		assertTrue(texts.createNewFile());
+		// the graph was updated after the statistics were written
+		assertTrue(texts.setLastModified(new File(directory, GraphStatistics.FILE).lastModified() + 1000));
+		assertTrue(GraphStatistics.isStale(directory));
+
+		GraphStatistics none = GraphStatistics.load(directory);
+		assertEquals(0, none.getPageCount());
+		assertEquals(-1, none.getMinPageId());
+		FileUtils.deleteDirectory(directory);
+
+	}
+
+}
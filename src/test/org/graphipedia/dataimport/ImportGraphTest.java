@@ -0,0 +1,151 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package test.org.graphipedia.dataimport;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.commons.io.FileUtils;
+import org.graphipedia.dataimport.BinaryLinkWriter;
+import org.graphipedia.dataimport.Checkpoint;
+import org.graphipedia.dataimport.ExtractedPage;
+import org.graphipedia.dataimport.neo4j.ImportGraph;
+import org.junit.Test;
+import org.neo4j.unsafe.batchinsert.BatchInserter;
+import org.neo4j.unsafe.batchinsert.BatchInserters;
+import org.neo4j.unsafe.batchinsert.BatchRelationship;
+
+public class ImportGraphTest {
+
+	private static final int PAGES = 100;
+
+	@Test
+	public void resumeImportTest() throws Exception {
+
+		File directory = Files.createTempDirectory("import").toFile();
+		try {
+			File input = new File(directory, "links.bin");
+			BinaryLinkWriter writer = new BinaryLinkWriter(input);
+			writer.writePage(new ExtractedPage("Articles", true, null, this.set(), this.set()));
+			writer.writePage(new ExtractedPage("Time", true, null, this.set("Articles"), this.set()));
+			for (int i = 0; i < PAGES; i++) {
+				writer.writePage(new ExtractedPage("Page " + i, false, "Text of page " + i + ".",
+						this.set("Time"), this.set("Page " + (i + 1) % PAGES, "Page " + (i * 7) % PAGES)));
+			}
+			writer.close();
+
+			File expected = new File(directory, "expected.db");
+			ImportGraph importer = new ImportGraph(expected.getPath());
+			importer.createNodes(input.getPath());
+			importer.createRelationships(input.getPath());
+			importer.finish();
+
+			// killed while saving a checkpoint for every page
+			File resumed = new File(directory, "resumed.db");
+			File checkpointFile = new File(resumed.getPath() + ".checkpoint");
+			List<String> command = new ArrayList<String>();
+			command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+			command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+			command.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"),
+					Crashing.class.getName(), input.getPath(), resumed.getPath()));
+			Process process = new ProcessBuilder(command).redirectErrorStream(true)
+					.redirectOutput(new File(directory, "crashing.log")).start();
+			while (getGeneration(checkpointFile) < 3) {
+				assertTrue("The import should have been killed", process.isAlive());
+				Thread.sleep(10);
+			}
+			process.destroyForcibly().waitFor();
+
+			// as if it was killed between writing the next store snapshot and saving its checkpoint
+			long generation = getGeneration(checkpointFile);
+			File store = new File(checkpointFile.getPath() + "." + generation + ".store");
+			FileUtils.copyDirectory(store, new File(checkpointFile.getPath() + "." + (generation + 1) + ".store"));
+
+			Checkpoint checkpoint = new Checkpoint(checkpointFile, input.getPath(), Long.MAX_VALUE);
+			assertTrue(checkpoint.isResumed());
+			importer = new ImportGraph(resumed.getPath(), checkpoint);
+			importer.createNodes(input.getPath());
+			importer.createRelationships(input.getPath());
+			importer.finish();
+			assertEquals(dump(expected), dump(resumed));
+		} finally {
+			FileUtils.deleteDirectory(directory);
+		}
+
+	}
+
+	/**
+	 * Imports with a checkpoint for every page until it is killed.
+	 */
+	public static class Crashing {
+
+		public static void main(String[] args) throws Exception {
+			Checkpoint checkpoint = new Checkpoint(new File(args[1] + ".checkpoint"), args[0], 0);
+			ImportGraph importer = new ImportGraph(args[1], checkpoint);
+			importer.createNodes(args[0]);
+			importer.createRelationships(args[0]);
+			importer.finish();
+		}
+
+	}
+
+	private static long getGeneration(File checkpointFile) throws IOException {
+		if (!checkpointFile.isFile()) {
+			return 0;
+		}
+		Properties properties = new Properties();
+		try (InputStream stream = new FileInputStream(checkpointFile)) {
+			properties.load(stream);
+		}
+		return Long.parseLong(properties.getProperty("generation", "0"));
+	}
+
+	private static List<String> dump(File store) {
+		BatchInserter inserter = BatchInserters.inserter(store.getPath());
+		List<String> lines = new ArrayList<String>();
+		for (long id = 0; id < PAGES + 2; id++) {
+			lines.add(id + " " + new TreeMap<String, Object>(inserter.getNodeProperties(id)));
+			for (BatchRelationship relationship : inserter.getRelationships(id)) {
+				if (relationship.getStartNode() == id) {
+					lines.add(id + " -" + relationship.getType().name() + "-> " + relationship.getEndNode());
+				}
+			}
+		}
+		inserter.shutdown();
+		Collections.sort(lines);
+		return lines;
+	}
+
+	private Set<String> set(String... values) {
+		return new LinkedHashSet<String>(Arrays.asList(values));
+	}
+
+}
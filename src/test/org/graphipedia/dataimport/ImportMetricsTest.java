@@ -0,0 +1,78 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package test.org.graphipedia.dataimport;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.graphipedia.dataimport.ImportMetrics;
+import org.graphipedia.dataimport.ProgressCounter;
+import org.junit.Test;
+
+public class ImportMetricsTest {
+
+	@Test
+	public void snapshotTest() throws Exception {
+
+		File file = File.createTempFile("metrics", ".jsonl");
+		try {
+			ImportMetrics metrics = new ImportMetrics("test");
+			ProgressCounter pages = new ProgressCounter();
+			metrics.gauge("pages", pages::getCount);
+			ImportMetrics.Stage parse = metrics.stage("parse");
+			assertSame(parse, metrics.stage("parse"));
+			metrics.report(file, 50);
+
+			Thread[] threads = new Thread[4];
+			for (int t = 0; t < threads.length; t++) {
+				threads[t] = new Thread(() -> {
+					for (int i = 0; i < 1000; i++) {
+						parse.add(1000);
+					}
+				});
+				threads[t].start();
+			}
+			for (int i = 0; i < 1500; i++) {
+				pages.increment();
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			assertEquals(4000, parse.getCalls());
+			assertEquals(4000000, parse.getNanos());
+			Thread.sleep(120);
+			metrics.close();
+
+			List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+			assertTrue(lines.size() >= 2);
+			String last = lines.get(lines.size() - 1);
+			assertTrue(last, last.startsWith("{\"job\":\"test\","));
+			assertTrue(last, last.contains("\"pages\":{\"total\":1500,"));
+			assertTrue(last, last.contains("\"parse\":{\"ms\":4,\"calls\":4000}"));
+			assertTrue(last, last.contains("\"gc\":{\"count\":"));
+			assertTrue(last.endsWith("}"));
+		} finally {
+			file.delete();
+		}
+
+	}
+
+}
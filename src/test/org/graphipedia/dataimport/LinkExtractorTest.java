@@ -7,12 +7,28 @@ package test.org.graphipedia.dataimport;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringWriter;
+import java.nio.file.Files;
 
+import be.devijver.wikipedia.parser.ast.Document;
+import be.devijver.wikipedia.parser.ast.parser.DefaultASTParser;
+import be.devijver.wikipedia.parser.wikitext.MarkupParser;
+
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringEscapeUtils;
+import org.graphipedia.dataimport.BinaryLinkWriter;
+import org.graphipedia.dataimport.Checkpoint;
+import org.graphipedia.dataimport.ExtractLinks;
+import org.graphipedia.dataimport.ExtractedPage;
 import org.graphipedia.dataimport.LinkExtractor;
+import org.graphipedia.dataimport.PageWriter;
+import org.graphipedia.dataimport.PlainTextExtractor;
+import org.graphipedia.dataimport.PlainTextVisitor;
+import org.graphipedia.dataimport.XmlPageWriter;
 import org.junit.Test;
 
 public class LinkExtractorTest {
@@ -30,6 +46,171 @@ public class LinkExtractorTest {
 
 	}
 
+	@Test
+	public void streamingPlainTextTest() throws IOException {
+
+		for (String file : new String[] { "article1.txt", "article2.txt" }) {
+			String article = this.getArticle(file);
+			assertEquals(file, this.getVisitorPlainText(article), LinkExtractor.getPlainText(article));
+		}
+
+	}
+
+	@Test
+	public void overBudgetTest() throws IOException {
+
+		StringBuilder unclosed = new StringBuilder();
+		for (int i = 0; i < 20000; i++) {
+			unclosed.append("{{[[");
+		}
+		unclosed.append("\nApril is a [[month]] of the ''year''.");
+		assertNull(PlainTextExtractor.extract(unclosed.toString()));
+		assertTrue(LinkExtractor.getPlainText(unclosed.toString()).endsWith("April is a [[month]] of the year."));
+
+		String article = this.getArticle("article1.txt");
+		StringBuilder huge = new StringBuilder();
+		while (huge.length() <= PlainTextExtractor.MAX_TEXT_LENGTH) {
+			huge.append(article);
+		}
+		assertNull(PlainTextExtractor.extract(huge.toString()));
+		ExtractedPage page = LinkExtractor.extractPage("April", false, huge.toString());
+		assertTrue(page.isOverBudget());
+		assertTrue(page.getPlainText().contains("[[month]]"));
+		assertTrue(page.getLinks().contains("month"));
+
+	}
+
+	@Test
+	public void longHeadingTest() throws IOException {
+
+		StringBuilder equals = new StringBuilder();
+		for (int i = 0; i < 10000; i++) {
+			equals.append('=');
+		}
+		String text = equals + " x\nApril is a [[month]] of the ''year''.\n";
+		// too deep to be a heading, the page falls back to stripping markup
+		assertTrue(LinkExtractor.getPlainText(text).endsWith("April is a [[month]] of the year."));
+		ExtractedPage page = LinkExtractor.extractPage("April", false, text + equals + " x " + equals + "\n");
+		assertTrue(page.getLinks().contains("month"));
+
+	}
+
+	@Test
+	public void parallelExtractionTest() throws Exception {
+
+		File dump = File.createTempFile("dump", ".xml");
+		File serial = File.createTempFile("serial", ".xml");
+		File parallel = File.createTempFile("parallel", ".xml");
+		try {
+			StringBuilder xml = new StringBuilder("<mediawiki>");
+			for (int i = 0; i < 50; i++) {
+				xml.append(this.getPage("April " + i, this.getArticle("article1.txt")));
+				xml.append(this.getPage("Alan Turing " + i, this.getArticle("article2.txt")));
+				xml.append(this.getPage("Category:Months " + i, "[[Category:Time]]\n[[April " + i + "]]"));
+				xml.append(this.getPage("Template:Empty " + i, ""));
+			}
+			xml.append("</mediawiki>");
+			FileUtils.writeStringToFile(dump, xml.toString(), "UTF-8");
+
+			ExtractLinks extractor = new ExtractLinks();
+			extractor.extract(dump.getPath(), serial.getPath(), 1);
+			extractor.extract(dump.getPath(), parallel.getPath(), 4);
+
+			byte[] expected = Files.readAllBytes(serial.toPath());
+			assertTrue(expected.length > 0);
+			assertArrayEquals(expected, Files.readAllBytes(parallel.toPath()));
+		} finally {
+			dump.delete();
+			serial.delete();
+			parallel.delete();
+		}
+
+	}
+
+	@Test
+	public void resumeExtractionTest() throws Exception {
+
+		File dump = File.createTempFile("dump", ".xml");
+		try {
+			StringBuilder xml = new StringBuilder("<mediawiki xmlns=\"http://www.mediawiki.org/xml/export-0.10/\">");
+			xml.append("<siteinfo><sitename>Wikipedia</sitename></siteinfo>");
+			for (int i = 0; i < 40; i++) {
+				xml.append(this.getPage("Ápril " + i, this.getArticle("article1.txt")));
+				xml.append(this.getPage("Category:Months " + i, "[[Category:Time]]\n[[Ápril " + i + "]]"));
+			}
+			xml.append("</mediawiki>");
+			FileUtils.writeStringToFile(dump, xml.toString(), "UTF-8");
+
+			for (String extension : new String[] { ".xml", ".bin" }) {
+				File expected = File.createTempFile("expected", extension);
+				File resumed = File.createTempFile("resumed", extension);
+				File checkpointFile = new File(resumed.getPath() + ".checkpoint");
+				try {
+					new ExtractLinks().extract(dump.getPath(), expected.getPath(), 1);
+
+					Checkpoint checkpoint = new Checkpoint(checkpointFile, dump.getPath(), 0);
+					PageWriter writer = extension.equals(".bin") ? new BinaryLinkWriter(resumed, checkpoint)
+							: new XmlPageWriter(resumed, checkpoint);
+					PageWriter crashing = new PageWriter() {
+						private int pages = 0;
+
+						@Override
+						public void writePage(ExtractedPage page) throws IOException {
+							if (++pages == 50) {
+								throw new IOException("Crash");
+							}
+							writer.writePage(page);
+						}
+
+						@Override
+						public void checkpoint(Checkpoint checkpoint) throws IOException {
+							writer.checkpoint(checkpoint);
+						}
+
+						@Override
+						public void close() throws IOException {
+							writer.close();
+						}
+					};
+					try {
+						new LinkExtractor(crashing, 4, checkpoint).parse(dump.getPath());
+						fail("The extraction should have crashed");
+					} catch (IOException e) {
+						assertEquals("Crash", e.getMessage());
+					}
+
+					checkpoint = new Checkpoint(checkpointFile, dump.getPath(), 0);
+					assertTrue(checkpoint.isResumed());
+					new ExtractLinks().extract(dump.getPath(), resumed.getPath(), 4, checkpoint);
+					assertArrayEquals(Files.readAllBytes(expected.toPath()), Files.readAllBytes(resumed.toPath()));
+					assertTrue(LinkExtractor.isDone(new Checkpoint(checkpointFile, dump.getPath(), 0)));
+				} finally {
+					new Checkpoint(checkpointFile, dump.getPath(), 0).delete();
+					expected.delete();
+					resumed.delete();
+				}
+			}
+		} finally {
+			dump.delete();
+		}
+
+	}
+
+	private String getVisitorPlainText(String text) {
+		StringWriter writer = new StringWriter();
+		try {
+			Document document = new MarkupParser(text).parseDocument();
+			new DefaultASTParser(document).parse(new PlainTextVisitor(writer, true));
+		} catch (Exception e) {
+		}
+		return writer.toString();
+	}
+
+	private String getPage(String title, String text) {
+		return "<page><title>" + StringEscapeUtils.escapeXml10(title) + "</title><revision><text>"
+				+ StringEscapeUtils.escapeXml10(text) + "</text></revision></page>";
+	}
+
 	private String getArticle(String file) throws IOException {
 		InputStream stream = this.getClass().getResourceAsStream(file);
 		StringWriter writer = new StringWriter();
@@ -0,0 +1,125 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package test.org.graphipedia.dataimport;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Random;
+
+import org.graphipedia.dataimport.MemoryBudget;
+import org.graphipedia.dataimport.neo4j.NodeRank;
+import org.junit.Test;
+
+public class NodeRankTest {
+
+	@Test
+	public void cycleTest() {
+
+		NodeRank nodeRank = new NodeRank(budget());
+		nodeRank.add(0, 1);
+		nodeRank.add(1, 2);
+		nodeRank.add(2, 0);
+		nodeRank.compute(3, 2);
+		for (int node = 0; node < 3; node++) {
+			assertEquals(1.0 / 3, nodeRank.getRank(node), 1e-9);
+		}
+
+	}
+
+	@Test
+	public void starTest() {
+
+		// node 4 has no relationships at all, node 0 gives its rank to everybody
+		NodeRank nodeRank = new NodeRank(budget());
+		nodeRank.add(1, 0);
+		nodeRank.add(2, 0);
+		nodeRank.add(3, 0);
+		nodeRank.compute(5, 1);
+		double total = 0;
+		for (int node = 0; node < 5; node++) {
+			total += nodeRank.getRank(node);
+		}
+		assertEquals(1.0, total, 1e-9);
+		assertTrue(nodeRank.getRank(0) > nodeRank.getRank(1));
+		assertEquals(nodeRank.getRank(1), nodeRank.getRank(4), 1e-12);
+		assertTrue(nodeRank.getIterations() > 1);
+
+	}
+
+	@Test
+	public void threadsTest() throws Exception {
+
+		int nodeCount = 200000;
+		NodeRank single = new NodeRank(budget());
+		NodeRank parallel = new NodeRank(budget());
+		Random random = new Random(42);
+		for (int i = 0; i < 1000000; i++) {
+			int source = random.nextInt(nodeCount);
+			int target = (int) Math.sqrt(random.nextInt(nodeCount) * (double) nodeCount);
+			single.add(source, target);
+			parallel.add(source, target);
+		}
+		File file = File.createTempFile("node-rank", ".bin");
+		try {
+			parallel.save(file);
+			parallel = NodeRank.load(budget(), file);
+		} finally {
+			file.delete();
+		}
+		assertEquals(1000000, parallel.getEdgeCount());
+		single.compute(nodeCount, 1);
+		parallel.compute(nodeCount, 4);
+		assertEquals(single.getIterations(), parallel.getIterations());
+		for (int node = 0; node < nodeCount; node++) {
+			assertEquals(single.getRank(node), parallel.getRank(node), 1e-12);
+		}
+
+	}
+
+	@Test
+	public void spillTest() throws Exception {
+
+		// pages of 4 KB, most of them spilled to disk
+		int nodeCount = 5000;
+		MemoryBudget small = new MemoryBudget(64 * 1024, new File(System.getProperty("java.io.tmpdir")), 4096);
+		NodeRank spilled = new NodeRank(small);
+		NodeRank memory = new NodeRank(budget());
+		Random random = new Random(7);
+		for (int i = 0; i < 100000; i++) {
+			int source = random.nextInt(nodeCount);
+			int target = random.nextInt(source + 1);
+			spilled.add(source, target);
+			memory.add(source, target);
+		}
+		assertTrue(small.getSpilled() > 0);
+		spilled.compute(nodeCount, 2);
+		memory.compute(nodeCount, 2);
+		for (int node = 0; node < nodeCount; node++) {
+			assertEquals(memory.getRank(node), spilled.getRank(node), 1e-12);
+		}
+		// relationships and rows were given back
+		assertEquals(0, small.getAllocated());
+		small.close();
+
+	}
+
+	private static MemoryBudget budget() {
+		return new MemoryBudget(Long.MAX_VALUE, null);
+	}
+
+}
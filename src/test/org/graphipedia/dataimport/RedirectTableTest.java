@@ -0,0 +1,112 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package test.org.graphipedia.dataimport;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.TreeSet;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringEscapeUtils;
+import org.graphipedia.dataimport.ExtractLinks;
+import org.graphipedia.dataimport.ExtractedPage;
+import org.graphipedia.dataimport.ExtractedPageReader;
+import org.graphipedia.dataimport.MemoryBudget;
+import org.graphipedia.dataimport.RedirectTable;
+import org.junit.Test;
+
+public class RedirectTableTest {
+
+	@Test
+	public void targetTest() {
+
+		assertEquals("April", RedirectTable.getTarget("#REDIRECT [[April]]"));
+		assertEquals("April", RedirectTable.getTarget("  #redirect:[[april#Events|the month]]\n{{R from lowercase}}"));
+		assertEquals("Sweet pea", RedirectTable.getTarget("#Redirect [[Sweet_pea]]"));
+		assertNull(RedirectTable.getTarget("April is the fourth [[month]]."));
+		assertNull(RedirectTable.getTarget("#REDIRECT"));
+		assertNull(RedirectTable.getTarget("#REDIRECT [[]]"));
+		assertNull(RedirectTable.getTarget(null));
+
+	}
+
+	@Test
+	public void resolveTest() throws Exception {
+
+		File dump = File.createTempFile("dump", ".xml");
+		File file = File.createTempFile("redirects", ".bin");
+		MemoryBudget budget = new MemoryBudget(4 * 1024 * 1024, new File(System.getProperty("java.io.tmpdir")), 1024 * 1024);
+		try {
+			FileUtils.writeStringToFile(dump, "<mediawiki>"
+					+ getPage("April", "April is a [[month]] and not a [[mnth]].")
+					+ getPage("Month", "A [[Year]] has 12 of them.")
+					+ getPage("Mnth", "#REDIRECT [[Months]]")
+					+ getPage("Months", "#REDIRECT [[month]]")
+					+ getPage("Loop", "#REDIRECT [[Loop]]")
+					+ getPage("Help:Month", "#REDIRECT [[Month]]")
+					+ getPage("Category:Months", "#REDIRECT [[Category:Time]]")
+					+ "</mediawiki>", "UTF-8");
+			RedirectTable table = RedirectTable.read(dump.getPath(), budget);
+			assertEquals(3, table.size());
+			assertEquals("Month", table.resolve("Mnth"));
+			assertEquals("Month", table.resolve("Months"));
+			assertEquals("Loop", table.resolve("Loop"));
+			assertEquals("April", table.resolve("April"));
+			assertEquals("Month", table.resolve("mnth"));
+
+			ExtractedPage page = table.resolve(new ExtractedPage("Month", false, "", new HashSet<String>(),
+					new HashSet<String>(Arrays.asList("Months", "Mnth", "Year"))));
+			assertEquals(new HashSet<String>(Arrays.asList("Year")), page.getLinks());
+			assertEquals(2, table.getResolvedLinkCount());
+
+			table.save(file);
+			table.free();
+			table = RedirectTable.load(budget, file);
+			assertEquals(3, table.size());
+			assertEquals("Month", table.resolve("Mnth"));
+			table.free();
+
+			File output = File.createTempFile("links", ".xml");
+			try {
+				new ExtractLinks().extract(dump.getPath(), output.getPath());
+				StringBuilder titles = new StringBuilder();
+				ExtractedPageReader.read(output.getPath(), extracted -> {
+					titles.append(extracted.getTitle()).append(new TreeSet<String>(extracted.getLinks())).append(';');
+				});
+				// category redirects are kept as they are
+				assertEquals("April[Month, month];Month[Year];Months[];", titles.toString());
+			} finally {
+				output.delete();
+			}
+		} finally {
+			dump.delete();
+			file.delete();
+			new File(file.getPath() + ".targets").delete();
+			budget.close();
+		}
+
+	}
+
+	private String getPage(String title, String text) {
+		return "<page><title>" + StringEscapeUtils.escapeXml10(title) + "</title><revision><text>"
+				+ StringEscapeUtils.escapeXml10(text) + "</text></revision></page>";
+	}
+
+}
@@ -0,0 +1,61 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package test.org.graphipedia.dataimport;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.graphipedia.dataimport.SimpleStaxParser;
+import org.junit.Test;
+
+public class SimpleStaxParserTest {
+
+	@Test
+	public void elementsTest() throws Exception {
+
+		File file = File.createTempFile("elements", ".xml");
+		try {
+			StringBuilder text = new StringBuilder();
+			for (int i = 0; i < 2000; i++) {
+				text.append("long text &amp; ");
+			}
+			FileUtils.writeStringToFile(file, "<mediawiki><siteinfo><title>Skipped</title></siteinfo>"
+					+ "<page><title> April </title><revision><contributor><title>Skipped</title></contributor>"
+					+ "<text>" + text + "</text></revision></page>"
+					+ "<page><title>Empty</title><other>ignored</other></page></mediawiki>", "UTF-8");
+
+			List<String> values = new ArrayList<String>();
+			new SimpleStaxParser(Arrays.asList("title", "text"), Arrays.asList("siteinfo", "contributor")) {
+				@Override
+				protected void handleElement(int symbol, CharSequence value) {
+					values.add(symbol + ":" + value);
+				}
+			}.parse(file.getPath());
+
+			assertEquals(Arrays.asList("0:April", "1:" + text.toString().replace("&amp;", "&").trim(), "0:Empty"), values);
+		} finally {
+			file.delete();
+		}
+
+	}
+
+}
@@ -0,0 +1,95 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package test.org.graphipedia.dataimport;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.graphipedia.dataimport.TextStoreReader;
+import org.graphipedia.dataimport.TextStoreWriter;
+import org.junit.Test;
+
+public class TextStoreTest {
+
+	@Test
+	public void putAndGetTest() throws IOException {
+
+		File directory = Files.createTempDirectory("texts").toFile();
+		int count = 5000;
+		try (TextStoreWriter writer = new TextStoreWriter(directory)) {
+			for (int i = 0; i < count; i += 2) {
+				writer.put(i, text(i));
+			}
+			writer.put(count, "Zürich, 東京 😀");
+		}
+		long compressed = new File(directory, TextStoreWriter.DATA).length();
+
+		try (TextStoreReader reader = new TextStoreReader(directory)) {
+			// read out of order, so that blocks are inflated again
+			for (int i = count - 1; i >= 0; i--) {
+				assertEquals(i % 2 == 0 ? text(i) : null, reader.get(i));
+			}
+			assertEquals("Zürich, 東京 😀", reader.get(count));
+			assertNull(reader.get(count + 1));
+			assertNull(reader.get(-1));
+		}
+		assertTrue(compressed < count / 2 * text(count).length() / 4);
+		FileUtils.deleteDirectory(directory);
+
+	}
+
+	@Test
+	public void updateTest() throws IOException {
+
+		File directory = Files.createTempDirectory("texts").toFile();
+		try (TextStoreWriter writer = new TextStoreWriter(directory)) {
+			writer.put(0, "April is the fourth month of the year.");
+			writer.put(1, "Alan Turing was an English mathematician.");
+			writer.put(2, "Removed before it was written.");
+			writer.remove(2);
+		}
+		assertTrue(TextStoreReader.exists(directory));
+		// opened again, as when a newer dump updates the graph
+		try (TextStoreWriter writer = new TextStoreWriter(directory)) {
+			writer.put(1, "Alan Turing was an English computer scientist.");
+			writer.remove(0);
+			writer.put(3, "");
+		}
+
+		try (TextStoreReader reader = new TextStoreReader(directory)) {
+			assertNull(reader.get(0));
+			assertEquals("Alan Turing was an English computer scientist.", reader.get(1));
+			assertNull(reader.get(2));
+			assertEquals("", reader.get(3));
+		}
+		FileUtils.deleteDirectory(directory);
+
+	}
+
+	private static String text(int i) {
+		StringBuilder text = new StringBuilder();
+		for (int j = 0; j < 20; j++) {
+			text.append("Page ").append(i).append(" links to [[Page ").append(i + j).append("]]. ");
+		}
+		return text.toString();
+	}
+
+}
@@ -0,0 +1,108 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package test.org.graphipedia.dataimport;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.graphipedia.dataimport.MemoryBudget;
+import org.graphipedia.dataimport.TitleIndex;
+import org.junit.Test;
+
+public class TitleIndexTest {
+
+	@Test
+	public void putAndGetTest() throws IOException {
+
+		MemoryBudget budget = new MemoryBudget(Long.MAX_VALUE, null);
+		TitleIndex index = new TitleIndex(budget);
+		index.put("April", 1);
+		index.put("Zürich", 2);
+		index.put("東京", 3);
+		index.put("Emoji 😀", 4);
+		index.put("April", 5);
+
+		assertEquals(4, index.size());
+		assertEquals(5, index.get("April"));
+		assertEquals(2, index.get(new StringBuilder("Zürich")));
+		assertEquals(3, index.get("東京"));
+		assertEquals(4, index.get("Emoji 😀"));
+		assertEquals(TitleIndex.NOT_FOUND, index.get("april"));
+		assertEquals(TitleIndex.NOT_FOUND, index.get(""));
+		index.free();
+		budget.close();
+
+	}
+
+	@Test
+	public void spillTest() throws IOException {
+
+		// small pages and a budget for only a few of them
+		MemoryBudget budget = new MemoryBudget(4 * 1024 * 1024, new File(System.getProperty("java.io.tmpdir")), 1024 * 1024);
+		TitleIndex pages = new TitleIndex(budget);
+		TitleIndex categories = new TitleIndex(budget);
+		int count = 200000;
+		for (int i = 0; i < count; i++) {
+			pages.put("Page number " + i, i);
+			categories.put("Page number " + i, -i - 2);
+		}
+		assertTrue(budget.getSpilled() > 0);
+		assertTrue(budget.getAllocated() <= 4 * 1024 * 1024);
+		for (int i = 0; i < count; i++) {
+			assertEquals(i, pages.get("Page number " + i));
+			assertEquals(-i - 2, categories.get("Page number " + i));
+		}
+		assertEquals(TitleIndex.NOT_FOUND, pages.get("Page number " + count));
+		pages.free();
+		categories.free();
+		budget.close();
+
+	}
+
+	@Test
+	public void saveAndLoadTest() throws IOException {
+
+		MemoryBudget budget = new MemoryBudget(4 * 1024 * 1024, new File(System.getProperty("java.io.tmpdir")), 1024 * 1024);
+		TitleIndex index = new TitleIndex(budget);
+		int count = 100000;
+		for (int i = 0; i < count; i++) {
+			index.put("Page number " + i, i);
+		}
+		File file = File.createTempFile("title-index", ".bin");
+		try {
+			index.save(file);
+			index.free();
+			TitleIndex loaded = TitleIndex.load(budget, file);
+			assertEquals(count, loaded.size());
+			for (int i = 0; i < count; i++) {
+				assertEquals(i, loaded.get("Page number " + i));
+			}
+			assertEquals(TitleIndex.NOT_FOUND, loaded.get("Page number " + count));
+			// still growing after the load
+			loaded.put("Page number " + count, count);
+			assertEquals(count, loaded.get("Page number " + count));
+			loaded.free();
+		} finally {
+			file.delete();
+			budget.close();
+		}
+
+	}
+
+}
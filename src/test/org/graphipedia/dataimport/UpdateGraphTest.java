@@ -0,0 +1,170 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package test.org.graphipedia.dataimport;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.graphipedia.dataimport.BinaryLinkWriter;
+import org.graphipedia.dataimport.ExtractedPage;
+import org.graphipedia.dataimport.neo4j.CategoryTree;
+import org.graphipedia.dataimport.neo4j.ImportGraph;
+import org.graphipedia.dataimport.neo4j.UpdateGraph;
+import org.junit.Test;
+import org.neo4j.unsafe.batchinsert.BatchInserter;
+import org.neo4j.unsafe.batchinsert.BatchInserters;
+
+import com.cotrino.knowledgemap.db.QuestionBankWriter;
+
+public class UpdateGraphTest {
+
+	@Test
+	public void categoryTreeTest() throws Exception {
+
+		File directory = Files.createTempDirectory("update").toFile();
+		try {
+			File before = new File(directory, "before.bin");
+			BinaryLinkWriter writer = new BinaryLinkWriter(before);
+			writer.writePage(new ExtractedPage("Articles", true, null, this.set(), this.set()));
+			writer.writePage(new ExtractedPage("Time", true, null, this.set("Articles"), this.set()));
+			writer.writePage(new ExtractedPage("Months", true, null, this.set("Time"), this.set()));
+			writer.writePage(new ExtractedPage("People", true, null, this.set("Articles"), this.set()));
+			writer.writePage(this.page("April", "Months"));
+			writer.writePage(this.page("Alan Turing", "People"));
+			writer.close();
+
+			File store = new File(directory, "graph.db");
+			ImportGraph importer = new ImportGraph(store.getPath());
+			importer.createNodes(before.getPath());
+			importer.createRelationships(before.getPath());
+			importer.finish();
+
+			// "Time" is gone, leaving "Months" out of the tree, and "Seasons" is new
+			File after = new File(directory, "after.bin");
+			writer = new BinaryLinkWriter(after);
+			writer.writePage(new ExtractedPage("Articles", true, null, this.set(), this.set()));
+			writer.writePage(new ExtractedPage("Months", true, null, this.set("Time"), this.set()));
+			writer.writePage(new ExtractedPage("People", true, null, this.set("Articles"), this.set()));
+			writer.writePage(new ExtractedPage("Seasons", true, null, this.set("Articles"), this.set()));
+			writer.writePage(this.page("April", "Months"));
+			writer.writePage(this.page("Alan Turing", "People"));
+			writer.writePage(this.page("Spring", "Seasons"));
+			writer.close();
+
+			UpdateGraph updater = new UpdateGraph(store.getPath());
+			updater.update(after.getPath(), true);
+			updater.finish();
+
+			Map<String, Map<String, Object>> nodes = new HashMap<String, Map<String, Object>>();
+			Map<Long, String> titles = new HashMap<Long, String>();
+			BatchInserter inserter = BatchInserters.inserter(store.getPath());
+			for (long id = 0; id < 20; id++) {
+				if (inserter.nodeExists(id)) {
+					Map<String, Object> properties = inserter.getNodeProperties(id);
+					nodes.put((String) properties.get("title"), properties);
+					titles.put(id, (String) properties.get("title"));
+				}
+			}
+			inserter.shutdown();
+			assertFalse(nodes.containsKey("Time"));
+			assertNull(nodes.get("Months").get(CategoryTree.PARENT));
+			assertNull(nodes.get("April").get(CategoryTree.DEPTH));
+			assertEquals("Seasons", titles.get(nodes.get("Spring").get(CategoryTree.PARENT)));
+			assertEquals(2, nodes.get("Spring").get(CategoryTree.DEPTH));
+			assertEquals("People", titles.get(nodes.get("Alan Turing").get(CategoryTree.PARENT)));
+			assertEquals(0, nodes.get("Articles").get(CategoryTree.DEPTH));
+
+			QuestionBankWriter.build(store.getPath(), 2);
+		} finally {
+			FileUtils.deleteDirectory(directory);
+		}
+
+	}
+
+	@Test
+	public void pageUpdateTest() throws Exception {
+
+		File directory = Files.createTempDirectory("update").toFile();
+		try {
+			File before = new File(directory, "before.bin");
+			BinaryLinkWriter writer = new BinaryLinkWriter(before);
+			writer.writePage(new ExtractedPage("Articles", true, null, this.set(), this.set()));
+			writer.writePage(new ExtractedPage("Time", true, null, this.set("Articles"), this.set()));
+			writer.writePage(new ExtractedPage("Months", true, null, this.set("Time"), this.set()));
+			writer.writePage(new ExtractedPage("People", true, null, this.set("Articles"), this.set()));
+			writer.writePage(this.page("April", "Months"));
+			writer.writePage(this.page("Alan Turing", "People"));
+			writer.close();
+
+			File store = new File(directory, "graph.db");
+			ImportGraph importer = new ImportGraph(store.getPath());
+			importer.createNodes(before.getPath());
+			importer.createRelationships(before.getPath());
+			importer.finish();
+			// a search of the whole tree would set it back to 1
+			BatchInserter inserter = BatchInserters.inserter(store.getPath());
+			inserter.setNodeProperty(3, CategoryTree.DEPTH, 5);
+			inserter.shutdown();
+
+			// only a page changes, moving to another category
+			File after = new File(directory, "after.bin");
+			writer = new BinaryLinkWriter(after);
+			writer.writePage(new ExtractedPage("Articles", true, null, this.set(), this.set()));
+			writer.writePage(new ExtractedPage("Time", true, null, this.set("Articles"), this.set()));
+			writer.writePage(new ExtractedPage("Months", true, null, this.set("Time"), this.set()));
+			writer.writePage(new ExtractedPage("People", true, null, this.set("Articles"), this.set()));
+			writer.writePage(this.page("April", "Months"));
+			writer.writePage(new ExtractedPage("Alan Turing", false, "Alan Turing was born in June.",
+					this.set("People", "Months"), this.set(), 42, 0, 0, false));
+			writer.close();
+
+			UpdateGraph updater = new UpdateGraph(store.getPath());
+			updater.update(after.getPath(), true);
+			updater.finish();
+
+			inserter = BatchInserters.inserter(store.getPath());
+			assertEquals("People", inserter.getNodeProperties(3).get("title"));
+			assertEquals(5, inserter.getNodeProperties(3).get(CategoryTree.DEPTH));
+			Map<String, Object> turing = inserter.getNodeProperties(5);
+			assertEquals("Alan Turing", turing.get("title"));
+			assertEquals(2L, turing.get(CategoryTree.PARENT));
+			assertEquals(3, turing.get(CategoryTree.DEPTH));
+			inserter.shutdown();
+		} finally {
+			FileUtils.deleteDirectory(directory);
+		}
+
+	}
+
+	private ExtractedPage page(String title, String category) {
+		return new ExtractedPage(title, false, title + " is a page about something worth asking about.",
+				this.set(category), this.set());
+	}
+
+	private Set<String> set(String... values) {
+		return new LinkedHashSet<String>(Arrays.asList(values));
+	}
+
+}
@@ -0,0 +1,89 @@
+/**
+ *  Copyright (C) 2016 José Miguel Cotrino Benavides
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package test.org.graphipedia.dataimport;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.io.IOUtils;
+import org.graphipedia.dataimport.ExtractedPage;
+import org.graphipedia.dataimport.LinkExtractor;
+import org.graphipedia.dataimport.WikitextScanner;
+import org.junit.Test;
+
+public class WikitextScannerTest {
+
+	@Test
+	public void scanTest() {
+
+		String text = "{{Infobox|name={{lang|x}}|map=[[Hidden]]}} The [[month]] of [[Asteraceae|Daisy]].\n"
+				+ "[[File:Garden.jpg|thumb|[[Spring]] flowers]] [[wikt:conservation|Conservation]] [[Broken\n"
+				+ "{{Unclosed [[Late]]\n"
+				+ "[[Category:Months]][[category:Time|April]]";
+		List<String> found = new ArrayList<String>();
+		WikitextScanner.scan(text, new WikitextScanner.Handler() {
+			@Override
+			public void link(CharSequence text, int start, int end, int targetEnd) {
+				found.add("link " + text.subSequence(start + 2, targetEnd));
+			}
+
+			@Override
+			public void category(CharSequence text, int start, int end, int nameStart, int nameEnd) {
+				found.add("category " + text.subSequence(nameStart, nameEnd));
+			}
+
+			@Override
+			public void template(CharSequence text, int start, int end) {
+				found.add("template " + text.subSequence(start, end));
+			}
+		});
+		String[] expected = { "template {{Infobox|name={{lang|x}}|map=[[Hidden]]}}", "link month", "link Asteraceae",
+				"link Spring", "link Late", "category Months", "category Time" };
+		assertArrayEquals(expected, found.toArray());
+
+	}
+
+	@Test
+	public void extractPageTest() throws IOException {
+
+		ExtractedPage page = LinkExtractor.extractPage("April", false, this.getArticle("article1.txt"));
+		Set<String> links = page.getLinks();
+		assertTrue(links.contains("month"));
+		assertTrue(links.contains("Asteraceae"));
+		assertTrue(links.contains("Spring"));
+		assertTrue(links.contains("Earth Day"));
+		assertFalse(links.contains("April"));
+		for (String link : links) {
+			assertFalse(link, link.contains(":") || link.contains("|") || link.contains("["));
+		}
+
+	}
+
+	private String getArticle(String file) throws IOException {
+		InputStream stream = this.getClass().getResourceAsStream(file);
+		StringWriter writer = new StringWriter();
+		IOUtils.copy(stream, writer, "UTF-8");
+		return writer.toString();
+	}
+
+}